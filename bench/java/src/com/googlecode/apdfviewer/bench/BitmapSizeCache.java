@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer.bench;
+
+import com.googlecode.apdfviewer.SizedLruCache;
+
+/**
+ * The page and tile caches with the bitmaps replaced by their sizes in
+ * bytes, so the cache runs without Android.
+ * @author Li Wenhao
+ */
+public class BitmapSizeCache<K> extends SizedLruCache<K, Integer> {
+	private long m_evictions = 0;
+
+	public BitmapSizeCache(int maxBytes) {
+		super(maxBytes);
+	}
+
+	@Override
+	protected int sizeOf(K key, Integer value) {
+		return value;
+	}
+
+	@Override
+	protected void entryRemoved(K key, Integer value) {
+		m_evictions++;
+	}
+
+	public long getEvictions() {
+		return m_evictions;
+	}
+}
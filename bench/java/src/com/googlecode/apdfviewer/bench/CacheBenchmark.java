@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.googlecode.apdfviewer.PageCache;
+import com.googlecode.apdfviewer.PageLayout;
+import com.googlecode.apdfviewer.TileCache;
+
+/**
+ * Behaviour of the page and tile caches under reading patterns. Renders
+ * finish at once, so a miss is a page or tile the user would wait for.
+ *
+ * The counters are totals of an iteration, the hit rate is
+ * hits/(hits + misses).
+ * @author Li Wenhao
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheBenchmark {
+	/**
+	 * see PDFView.PREFETCH_PAGES.
+	 */
+	final static int PREFETCH_PAGES = 2;
+
+	/**
+	 * budget of each cache in megabytes, PDFView uses a quarter of the
+	 * heap.
+	 */
+	@Param({"4", "8", "16"})
+	public int budget;
+
+	/**
+	 * zoom of the tiled page.
+	 */
+	@Param({"2"})
+	public float zoom;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Counters {
+		/**
+		 * lookups of what the view shows.
+		 */
+		public long hits;
+		public long misses;
+
+		/**
+		 * bitmaps dropped to stay in budget.
+		 */
+		public long evictions;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			hits = misses = evictions = 0;
+		}
+	}
+
+	private FakeDocument m_doc;
+	private PageLayout m_layout;
+	private BitmapSizeCache<PageCache.Key> m_pages;
+	private BitmapSizeCache<TileCache.Key> m_tiles;
+	private final int[] m_range = new int[4];
+	private int[] m_jumps;
+	private int m_jump = 0;
+	private int m_page = 1;
+	private int m_y = 0;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		m_doc = new FakeDocument(FrameBenchmark.PAGES, FrameBenchmark.PAGE_WIDTH,
+				FrameBenchmark.PAGE_HEIGHT, 0);
+		m_layout = new PageLayout();
+		m_layout.setSource(m_doc);
+		m_layout.setDpi(FrameBenchmark.DPI, FrameBenchmark.DPI);
+		m_layout.setViewSize(FrameBenchmark.VIEW_WIDTH, FrameBenchmark.VIEW_HEIGHT);
+
+		m_pages = new BitmapSizeCache<PageCache.Key>(budget * 1024 * 1024);
+		m_tiles = new BitmapSizeCache<TileCache.Key>(budget * 1024 * 1024);
+
+		// a reader following links back and forth.
+		Random random = new Random(1);
+		m_jumps = new int[1024];
+		for (int i = 0; i < m_jumps.length; i++)
+			m_jumps[i] = 1 + random.nextInt(FrameBenchmark.PAGES);
+
+		m_page = 1;
+		m_y = 0;
+	}
+
+	/**
+	 * Show a page fit to width and prefetch around it, like
+	 * PDFView.requestPages().
+	 */
+	private void showPage(int page, Counters counters) {
+		m_layout.setZoomFactor(-1);
+		long evictions = m_pages.getEvictions();
+		for (int i = 0; i <= PREFETCH_PAGES*2; i++) {
+			int delta = (i + 1)/2;
+			int p = page + ((i & 1) == 1 ? delta : -delta);
+			if (p < 1 || p > FrameBenchmark.PAGES)
+				continue;
+
+			float z = m_layout.getRealZoomFactor(p);
+			PageCache.Key key = new PageCache.Key(p, z);
+			boolean cached = m_pages.get(key) != null;
+			if (i == 0) {
+				if (cached)
+					counters.hits++;
+				else
+					counters.misses++;
+			}
+			if (!cached) {
+				m_pages.put(key, (int)m_layout.getPageBytes(p, z,
+						FrameBenchmark.BYTES_PER_PIXEL));
+			}
+		}
+		counters.evictions += m_pages.getEvictions() - evictions;
+	}
+
+	/**
+	 * Turn to the next page, from the first again after the last.
+	 */
+	@Benchmark
+	public void nextPage(Counters counters) {
+		m_page = m_page % FrameBenchmark.PAGES + 1;
+		showPage(m_page, counters);
+	}
+
+	/**
+	 * Go to a random page.
+	 */
+	@Benchmark
+	public void gotoPage(Counters counters) {
+		m_jump = (m_jump + 1) % m_jumps.length;
+		showPage(m_jumps[m_jump], counters);
+	}
+
+	/**
+	 * Scroll down a zoomed page and on to the next one, looking up the
+	 * visible tiles and rendering the missing ones and the margin.
+	 */
+	@Benchmark
+	public void scrollTiles(Counters counters) {
+		m_layout.setZoomFactor(zoom);
+		float z = m_layout.getRealZoomFactor(m_page);
+		int w = m_layout.getPageWidth(m_page, z);
+		int h = m_layout.getPageHeight(m_page, z);
+
+		m_y += FrameBenchmark.SCROLL_STEP;
+		if (m_y > m_layout.clampY(Integer.MAX_VALUE, h)) {
+			m_y = 0;
+			m_page = m_page % FrameBenchmark.PAGES + 1;
+		}
+
+		long evictions = m_tiles.getEvictions();
+		int size = TileCache.TILE_SIZE;
+		int[] range = m_range;
+		m_layout.getTileRange(0, m_y, w, h, 0, range);
+		int left = range[0];
+		int top = range[1];
+		int right = range[2];
+		int bottom = range[3];
+		m_layout.getTileRange(0, m_y, w, h, FrameBenchmark.PREFETCH_MARGIN, range);
+		for (int y = range[1]; y <= range[3]; y++) {
+			for (int x = range[0]; x <= range[2]; x++) {
+				TileCache.Key key = new TileCache.Key(m_page, z, x, y);
+				boolean cached = m_tiles.get(key) != null;
+				if (x >= left && x <= right && y >= top && y <= bottom) {
+					if (cached)
+						counters.hits++;
+					else
+						counters.misses++;
+				}
+				if (!cached)
+					m_tiles.put(key, size*size*FrameBenchmark.BYTES_PER_PIXEL);
+			}
+		}
+		counters.evictions += m_tiles.getEvictions() - evictions;
+	}
+}
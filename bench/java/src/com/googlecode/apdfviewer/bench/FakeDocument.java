@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer.bench;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.googlecode.apdfviewer.PageSource;
+
+/**
+ * Document of equal pages standing in for PDFDocument. Every call counts
+ * as a native call and can burn some CPU like a JNI transition.
+ * @author Li Wenhao
+ */
+public class FakeDocument implements PageSource {
+	private final int m_pages;
+	private final double m_width;
+	private final double m_height;
+	private final long m_call_cost;
+	private long m_calls = 0;
+
+	/**
+	 * @param pages number of pages.
+	 * @param width width of the pages in points.
+	 * @param height height of the pages in points.
+	 * @param callCost tokens of Blackhole.consumeCPU() per call.
+	 */
+	public FakeDocument(int pages, double width, double height, long callCost) {
+		m_pages = pages;
+		m_width = width;
+		m_height = height;
+		m_call_cost = callCost;
+	}
+
+	public int getNumPages() {
+		call();
+		return m_pages;
+	}
+
+	public double getPageMediaWidth(int page) {
+		call();
+		return m_width;
+	}
+
+	public double getPageMediaHeight(int page) {
+		call();
+		return m_height;
+	}
+
+	public boolean isPageLoaded(int page) {
+		call();
+		return true;
+	}
+
+	public int getLoadedPages() {
+		call();
+		return m_pages;
+	}
+
+	/**
+	 * @return number of calls so far.
+	 */
+	public long getCalls() {
+		return m_calls;
+	}
+
+	private void call() {
+		m_calls++;
+		if (m_call_cost > 0)
+			Blackhole.consumeCPU(m_call_cost);
+	}
+}
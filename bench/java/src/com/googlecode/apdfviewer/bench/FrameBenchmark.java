@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer.bench;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.googlecode.apdfviewer.PageCache;
+import com.googlecode.apdfviewer.PageLayout;
+import com.googlecode.apdfviewer.RenderScheduler;
+import com.googlecode.apdfviewer.TileCache;
+
+/**
+ * Cost of a frame of PDFView with everything visible already rendered,
+ * that is onDraw() without the blits. Run with "-prof gc" to see the
+ * allocations per frame and per scroll event.
+ *
+ * zoom -1 fits the width and draws one page bitmap, larger zooms draw
+ * through tiles.
+ * @author Li Wenhao
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameBenchmark {
+	/*
+	 * a 480x800 hdpi phone showing Letter pages.
+	 */
+	final static int VIEW_WIDTH = 480;
+	final static int VIEW_HEIGHT = 800;
+	final static float DPI = 240;
+	final static double PAGE_WIDTH = 612;
+	final static double PAGE_HEIGHT = 792;
+	final static int PAGES = 200;
+	final static int BYTES_PER_PIXEL = 4;
+
+	/**
+	 * the tile budget of PDFView on a 24MB heap, pages over half of it
+	 * are tiled.
+	 */
+	final static int TILE_BUDGET = 6 * 1024 * 1024;
+
+	/**
+	 * see PDFView.PREFETCH_MARGIN.
+	 */
+	final static int PREFETCH_MARGIN = 1;
+
+	/**
+	 * pixels moved by a scroll event.
+	 */
+	final static int SCROLL_STEP = 24;
+
+	@Param({"-1", "1", "2"})
+	public float zoom;
+
+	/**
+	 * CPU burnt by a call to the document, see FakeDocument.
+	 */
+	@Param({"0"})
+	public long callCost;
+
+	private FakeDocument m_doc;
+	private PageLayout m_layout;
+	private BitmapSizeCache<PageCache.Key> m_pages;
+	private BitmapSizeCache<TileCache.Key> m_tiles;
+	private RenderScheduler m_scheduler;
+	private final int[] m_range = new int[4];
+	private int m_page = 1;
+	private int m_x = 0;
+	private int m_y = 0;
+
+	/**
+	 * largest vertical offset on the current page.
+	 */
+	private int m_max_y;
+
+	/**
+	 * offset in the strip of continuous mode, and its largest value.
+	 */
+	private int m_strip_y = 0;
+	private int m_max_strip_y;
+
+	@Setup
+	public void setup() {
+		m_doc = new FakeDocument(PAGES, PAGE_WIDTH, PAGE_HEIGHT, callCost);
+		m_layout = new PageLayout();
+		m_layout.setSource(m_doc);
+		m_layout.setDpi(DPI, DPI);
+		m_layout.setViewSize(VIEW_WIDTH, VIEW_HEIGHT);
+		m_layout.setZoomFactor(zoom);
+
+		// nothing is rendered, so the queue is only looked up.
+		m_scheduler = new RenderScheduler(0, new Executor() {
+			public void execute(Runnable r) {
+				r.run();
+			}
+		}, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(r);
+			}
+		});
+
+		// the current page and all its tiles are rendered.
+		float z = m_layout.getRealZoomFactor(m_page);
+		int w = m_layout.getPageWidth(m_page, z);
+		int h = m_layout.getPageHeight(m_page, z);
+		m_pages = new BitmapSizeCache<PageCache.Key>(Integer.MAX_VALUE);
+		m_pages.put(new PageCache.Key(m_page, z), w*h*BYTES_PER_PIXEL);
+		m_tiles = new BitmapSizeCache<TileCache.Key>(Integer.MAX_VALUE);
+		int size = TileCache.TILE_SIZE;
+		for (int y = 0; y <= (h - 1)/size; y++) {
+			for (int x = 0; x <= (w - 1)/size; x++)
+				m_tiles.put(new TileCache.Key(m_page, z, x, y), size*size*BYTES_PER_PIXEL);
+		}
+
+		m_max_y = m_layout.clampY(Integer.MAX_VALUE, h);
+		m_max_strip_y = m_layout.clampY(Integer.MAX_VALUE, m_layout.getStripHeight());
+
+		long calls = m_doc.getCalls();
+		frame();
+		System.out.println("zoom " + zoom + ": " + (m_doc.getCalls() - calls)
+				+ " document calls per frame, " + w + "x" + h + " pixels, "
+				+ (tiled(z) ? "tiled" : "one bitmap"));
+	}
+
+	private boolean tiled(float z) {
+		return m_layout.getPageBytes(m_page, z, BYTES_PER_PIXEL) > TILE_BUDGET/2;
+	}
+
+	/**
+	 * Follow PDFView.onDraw() for the current page.
+	 * @return number of bitmaps found.
+	 */
+	private int frame() {
+		// ensureOffset()
+		float z = m_layout.getRealZoomFactor(m_page);
+		int w = m_layout.getPageWidth(m_page, z);
+		int h = m_layout.getPageHeight(m_page, z);
+		m_x = m_layout.clampX(m_x, w);
+		m_y = m_layout.clampY(m_y, h);
+
+		z = m_layout.getRealZoomFactor(m_page);
+		w = m_layout.getPageWidth(m_page, z);
+		h = m_layout.getPageHeight(m_page, z);
+
+		// useTiles()
+		if (!tiled(z))
+			return m_pages.get(new PageCache.Key(m_page, z)) != null ? 1 : 0;
+
+		// hasMissingTiles()
+		int found = 0;
+		int[] range = m_range;
+		m_layout.getTileRange(m_x, m_y, w, h, 0, range);
+		for (int y = range[1]; y <= range[3]; y++) {
+			for (int x = range[0]; x <= range[2]; x++) {
+				if (!m_tiles.contains(new TileCache.Key(m_page, z, x, y)))
+					found--;
+			}
+		}
+
+		// drawTiles()
+		int left = range[0];
+		int top = range[1];
+		int right = range[2];
+		int bottom = range[3];
+		for (int y = top; y <= bottom; y++) {
+			for (int x = left; x <= right; x++) {
+				if (m_tiles.get(new TileCache.Key(m_page, z, x, y)) != null)
+					found++;
+			}
+		}
+
+		m_layout.getTileRange(m_x, m_y, w, h, PREFETCH_MARGIN, range);
+		for (int y = range[1]; y <= range[3]; y++) {
+			for (int x = range[0]; x <= range[2]; x++) {
+				if (x >= left && x <= right && y >= top && y <= bottom)
+					continue;
+
+				TileCache.Key key = new TileCache.Key(m_page, z, x, y);
+				if (!m_tiles.contains(key) && !m_scheduler.isPending(key))
+					found--;
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * A redraw with nothing changed.
+	 */
+	@Benchmark
+	public int redraw() {
+		return frame();
+	}
+
+	/**
+	 * A scroll event, which moves the offset and draws a frame. It goes
+	 * back to the top at the end of the page.
+	 */
+	@Benchmark
+	public int scroll() {
+		m_y += SCROLL_STEP;
+		if (m_y > m_max_y)
+			m_y = 0;
+		return frame();
+	}
+
+	/**
+	 * A scroll event in continuous mode, finding the pages in view in the
+	 * strip. It goes back to the top at the end of the document.
+	 * @return number of pages in view.
+	 */
+	@Benchmark
+	public int stripScroll() {
+		m_strip_y += SCROLL_STEP;
+		if (m_strip_y > m_max_strip_y)
+			m_strip_y = 0;
+
+		int found = 0;
+		int bottom = m_strip_y + VIEW_HEIGHT;
+		for (int page = m_layout.getPageAt(m_strip_y); page >= 1 && page <= PAGES; page++) {
+			if (m_layout.getPageTop(page) >= bottom)
+				break;
+			found++;
+		}
+		return found;
+	}
+}
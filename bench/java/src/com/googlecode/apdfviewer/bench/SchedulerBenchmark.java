@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer.bench;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.googlecode.apdfviewer.PageCache;
+import com.googlecode.apdfviewer.PageLayout;
+import com.googlecode.apdfviewer.RenderScheduler;
+import com.googlecode.apdfviewer.TileCache;
+
+/**
+ * Cost of the UI thread side of RenderScheduler: submitting, promoting and
+ * cancelling. There are no workers, so nothing is taken off the queue
+ * except by cancel().
+ * @author Li Wenhao
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SchedulerBenchmark {
+	/**
+	 * Request which does nothing.
+	 */
+	static class NullRequest extends RenderScheduler.Request {
+		final int page;
+
+		NullRequest(Object key, int page, int priority) {
+			super(key, priority);
+			this.page = page;
+		}
+
+		@Override
+		protected void render() {
+		}
+
+		@Override
+		protected void deliver() {
+		}
+	}
+
+	private PageLayout m_layout;
+	private RenderScheduler m_scheduler;
+	private final int[] m_range = new int[4];
+	private int m_page = 1;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		m_layout = new PageLayout();
+		m_layout.setSource(new FakeDocument(FrameBenchmark.PAGES,
+				FrameBenchmark.PAGE_WIDTH, FrameBenchmark.PAGE_HEIGHT, 0));
+		m_layout.setDpi(FrameBenchmark.DPI, FrameBenchmark.DPI);
+		m_layout.setViewSize(FrameBenchmark.VIEW_WIDTH, FrameBenchmark.VIEW_HEIGHT);
+
+		m_scheduler = new RenderScheduler(0, new Executor() {
+			public void execute(Runnable r) {
+				r.run();
+			}
+		}, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(r);
+			}
+		});
+		m_page = 1;
+	}
+
+	/**
+	 * Turn to the next page with no render finished, like
+	 * PDFView.pageChanged(): cancel the pages gone out of the window and
+	 * submit the ones come in.
+	 */
+	@Benchmark
+	public void pageChange() {
+		m_page = m_page % FrameBenchmark.PAGES + 1;
+		m_layout.setZoomFactor(-1);
+
+		final int current = m_page;
+		m_scheduler.cancel(new RenderScheduler.Filter() {
+			public boolean accept(RenderScheduler.Request r) {
+				return Math.abs(((NullRequest)r).page - current) > CacheBenchmark.PREFETCH_PAGES;
+			}
+		});
+
+		for (int i = 0; i <= CacheBenchmark.PREFETCH_PAGES*2; i++) {
+			int delta = (i + 1)/2;
+			int page = current + ((i & 1) == 1 ? delta : -delta);
+			if (page < 1 || page > FrameBenchmark.PAGES)
+				continue;
+
+			PageCache.Key key = new PageCache.Key(page, m_layout.getRealZoomFactor(page));
+			if (i != 0 && m_scheduler.isPending(key))
+				continue;
+
+			m_scheduler.submit(new NullRequest(key, page,
+					i == 0 ? RenderScheduler.PRIORITY_VISIBLE : RenderScheduler.PRIORITY_PREFETCH));
+		}
+	}
+
+	/**
+	 * A frame of a zoomed page whose tiles are still rendering, like
+	 * PDFView.drawTiles(): every missing visible tile is submitted again,
+	 * which finds it pending but allocates a request on the way.
+	 */
+	@Benchmark
+	public void tileFrame() {
+		m_layout.setZoomFactor(2);
+		float z = m_layout.getRealZoomFactor(m_page);
+		int w = m_layout.getPageWidth(m_page, z);
+		int h = m_layout.getPageHeight(m_page, z);
+
+		int[] range = m_range;
+		m_layout.getTileRange(0, 0, w, h, 0, range);
+		int left = range[0];
+		int top = range[1];
+		int right = range[2];
+		int bottom = range[3];
+		for (int y = top; y <= bottom; y++) {
+			for (int x = left; x <= right; x++) {
+				m_scheduler.submit(new NullRequest(new TileCache.Key(m_page, z, x, y),
+						m_page, RenderScheduler.PRIORITY_VISIBLE));
+			}
+		}
+
+		m_layout.getTileRange(0, 0, w, h, FrameBenchmark.PREFETCH_MARGIN, range);
+		for (int y = range[1]; y <= range[3]; y++) {
+			for (int x = range[0]; x <= range[2]; x++) {
+				if (x >= left && x <= right && y >= top && y <= bottom)
+					continue;
+
+				TileCache.Key key = new TileCache.Key(m_page, z, x, y);
+				if (!m_scheduler.isPending(key))
+					m_scheduler.submit(new NullRequest(key, m_page,
+							RenderScheduler.PRIORITY_PREFETCH));
+			}
+		}
+	}
+}
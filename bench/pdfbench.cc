@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+/*
+ * Run a corpus of PDFs through the stages of the viewer: open, page tree
+ * walk, render of every page with AndroidOutputDev and text extraction,
+ * and report throughput, latency percentiles and peak RSS.
+ *
+ * The render uses the Skia stand-in in skia/, so it measures poppler and
+ * AndroidOutputDev up to the Skia calls, not the rasterization.
+ *
+ * usage: pdfbench [-r dpi] [-p pages] [-n runs] [-c cache KB] [-T] [-P] [-L] file.pdf...
+ */
+#include <fcntl.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/resource.h>
+#include <sys/time.h>
+
+#include <algorithm>
+#include <vector>
+
+#include <goo/GooString.h>
+#include <poppler/ErrorCodes.h>
+#include <poppler/GlobalParams.h>
+#include <poppler/PDFDoc.h>
+#include <poppler/Stream.h>
+#include <poppler/TextOutputDev.h>
+#include <poppler/AndroidOutputDev.h>
+#include <poppler/AndroidRenderCache.h>
+
+#include <SkBitmap.h>
+#include <SkCanvas.h>
+
+#include "MappedStream.h"
+#include "RenderProfile.h"
+
+struct Options {
+	double dpi;
+	int maxPages;
+	int runs;
+	int cacheBytes;
+	bool text;
+	bool profile;
+	bool lowMemory;
+};
+
+/*
+ * Latencies of one stage, in milliseconds.
+ */
+class Samples {
+public:
+	void add(double ms) { m_ms.push_back(ms); }
+
+	int count() const { return m_ms.size(); }
+
+	double total() const
+	{
+		double sum = 0;
+		for (size_t i = 0; i < m_ms.size(); i++)
+			sum += m_ms[i];
+		return sum;
+	}
+
+	// nearest rank percentile.
+	double percentile(double p)
+	{
+		if (m_ms.empty())
+			return 0;
+		std::sort(m_ms.begin(), m_ms.end());
+		size_t rank = (size_t)(p / 100.0 * m_ms.size() + 0.999999);
+		if (rank < 1)
+			rank = 1;
+		if (rank > m_ms.size())
+			rank = m_ms.size();
+		return m_ms[rank - 1];
+	}
+
+	void append(const Samples &s)
+	{
+		m_ms.insert(m_ms.end(), s.m_ms.begin(), s.m_ms.end());
+	}
+
+	void print(const char *name, const char *unit)
+	{
+		double sum = total();
+		printf("%-8s %6d %-6s %9.1f %s/s  p50 %8.2f  p90 %8.2f  p99 %8.2f  max %8.2f ms\n",
+				name, count(), unit, sum > 0 ? count() * 1000.0 / sum : 0, unit,
+				percentile(50), percentile(90), percentile(99), percentile(100));
+	}
+
+private:
+	std::vector<double> m_ms;
+};
+
+struct Result {
+	Samples open;
+	Samples walk;
+	Samples render;
+	Samples text;
+	double stats[RenderProfile::STATS_SIZE];
+	long textBytes;
+	int documents;
+	int failed;
+};
+
+static double now()
+{
+	struct timeval tv;
+	gettimeofday(&tv, NULL);
+	return tv.tv_sec * 1000.0 + tv.tv_usec / 1000.0;
+}
+
+static long peakRssKB()
+{
+	struct rusage usage;
+	getrusage(RUSAGE_SELF, &usage);
+	return usage.ru_maxrss;
+}
+
+static void countText(void *stream, char *text, int len)
+{
+	*(long *)stream += len;
+}
+
+/*
+ * Open a document the way the viewer does, through a mapping of the file
+ * or else stdio.
+ */
+static PDFDoc *openDocument(const char *path, FILE **file)
+{
+	int fd = open(path, O_RDONLY);
+	if (fd < 0)
+		return NULL;
+
+	Object obj;
+	obj.initNull();
+	BaseStream *stream = MappedStream::create(fd, &obj);
+	if (!stream) {
+		*file = fdopen(fd, "r");
+		if (!*file) {
+			close(fd);
+			return NULL;
+		}
+		obj.initNull();
+		stream = new FileStream(*file, 0, gFalse, 0, &obj);
+	} else {
+		close(fd);
+	}
+
+	return new PDFDoc(stream);
+}
+
+static void renderPage(PDFDoc *doc, int page, AndroidRenderCache *cache,
+		const Options &opts, Result *result)
+{
+	double scale = opts.dpi / 72.0;
+	int width = (int)(doc->getPageCropWidth(page) * scale + 0.5);
+	int height = (int)(doc->getPageCropHeight(page) * scale + 0.5);
+	if (doc->getPageRotate(page) % 180) {
+		int t = width;
+		width = height;
+		height = t;
+	}
+
+	// the page bitmap is allocated by the view on the device, it is part
+	// of the render here to keep the RSS honest.
+	double start = now();
+	SkBitmap bitmap;
+	bitmap.setConfig(opts.lowMemory ? SkBitmap::kRGB_565_Config
+			: SkBitmap::kARGB_8888_Config, width, height);
+	bitmap.allocPixels();
+	SkCanvas canvas(bitmap);
+
+	AndroidOutputDev out(&canvas, doc->getXRef(), cache);
+	RenderProfile profile(doc, &out, cache);
+	doc->displayPage(&out, page, opts.dpi, opts.dpi, 0, gFalse, gTrue, gFalse);
+
+	double stats[RenderProfile::STATS_SIZE];
+	profile.finish(stats);
+	result->render.add(now() - start);
+
+	for (int i = 0; i < RenderProfile::STATS_SIZE; i++)
+		result->stats[i] += stats[i];
+}
+
+static void extractText(PDFDoc *doc, int page, Result *result)
+{
+	double start = now();
+	TextOutputDev out(countText, &result->textBytes, gFalse, gFalse);
+	if (out.isOk())
+		doc->displayPage(&out, page, 72, 72, 0, gFalse, gTrue, gFalse);
+	result->text.add(now() - start);
+}
+
+static bool runDocument(const char *path, const Options &opts, Result *result)
+{
+	Result doc_result;
+	memset(doc_result.stats, 0, sizeof(doc_result.stats));
+	doc_result.textBytes = 0;
+
+	FILE *file = NULL;
+	double start = now();
+	PDFDoc *doc = openDocument(path, &file);
+	if (!doc || !doc->isOk()) {
+		fprintf(stderr, "%s: open failed (%d)\n", path,
+				doc ? doc->getErrorCode() : errOpenFile);
+		delete doc;
+		if (file)
+			fclose(file);
+		return false;
+	}
+	doc_result.open.add(now() - start);
+
+	start = now();
+	int pages = doc->getCatalog()->readAllPages();
+	for (int i = 1; i <= pages; i++) {
+		doc->getPageCropWidth(i);
+		doc->getPageCropHeight(i);
+		doc->getPageRotate(i);
+	}
+	doc_result.walk.add(now() - start);
+
+	if (opts.maxPages > 0 && pages > opts.maxPages)
+		pages = opts.maxPages;
+
+	AndroidRenderCache *cache = new AndroidRenderCache(opts.cacheBytes);
+	for (int i = 1; i <= pages; i++)
+		renderPage(doc, i, cache, opts, &doc_result);
+	delete cache;
+
+	if (opts.text) {
+		for (int i = 1; i <= pages; i++)
+			extractText(doc, i, &doc_result);
+	}
+
+	delete doc;
+	if (file)
+		fclose(file);
+
+	printf("%s: %d pages, open %.2f ms, walk %.2f ms\n", path, pages,
+			doc_result.open.total(), doc_result.walk.total());
+	doc_result.render.print("render", "pages");
+	if (opts.text)
+		doc_result.text.print("text", "pages");
+
+	result->open.append(doc_result.open);
+	result->walk.append(doc_result.walk);
+	result->render.append(doc_result.render);
+	result->text.append(doc_result.text);
+	for (int i = 0; i < RenderProfile::STATS_SIZE; i++)
+		result->stats[i] += doc_result.stats[i];
+	result->textBytes += doc_result.textBytes;
+	return true;
+}
+
+static void usage()
+{
+	fprintf(stderr,
+		"usage: pdfbench [options] file.pdf...\n"
+		"  -r dpi    render resolution, default 96\n"
+		"  -p pages  render at most the first pages of each document\n"
+		"  -n runs   run the corpus more times\n"
+		"  -c KB     image cache budget, default 8192 as in the viewer\n"
+		"  -T        skip text extraction\n"
+		"  -P        time operators by class, slows the render\n"
+		"  -L        render RGB_565 pages as the low memory mode\n");
+	exit(2);
+}
+
+int main(int argc, char *argv[])
+{
+	Options opts;
+	opts.dpi = 96;
+	opts.maxPages = 0;
+	opts.runs = 1;
+	opts.cacheBytes = 8 * 1024 * 1024;
+	opts.text = true;
+	opts.profile = false;
+	opts.lowMemory = false;
+
+	int c;
+	while ((c = getopt(argc, argv, "r:p:n:c:TPL")) != -1) {
+		switch (c) {
+		case 'r': opts.dpi = atof(optarg); break;
+		case 'p': opts.maxPages = atoi(optarg); break;
+		case 'n': opts.runs = atoi(optarg); break;
+		case 'c': opts.cacheBytes = atoi(optarg) * 1024; break;
+		case 'T': opts.text = false; break;
+		case 'P': opts.profile = true; break;
+		case 'L': opts.lowMemory = true; break;
+		default: usage();
+		}
+	}
+	if (optind >= argc || opts.dpi <= 0 || opts.runs <= 0)
+		usage();
+
+	globalParams = new GlobalParams();
+	RenderProfile::setProfiling(opts.profile);
+
+	Result result;
+	memset(result.stats, 0, sizeof(result.stats));
+	result.textBytes = 0;
+	result.documents = 0;
+	result.failed = 0;
+
+	double start = now();
+	for (int run = 0; run < opts.runs; run++) {
+		for (int i = optind; i < argc; i++) {
+			if (runDocument(argv[i], opts, &result))
+				result.documents++;
+			else
+				result.failed++;
+		}
+	}
+	double elapsed = now() - start;
+
+	// the summary is one "name value" pair per line, easy to diff in CI.
+	double *stats = result.stats;
+	printf("\n");
+	result.open.print("open", "docs");
+	result.walk.print("walk", "docs");
+	result.render.print("render", "pages");
+	if (opts.text)
+		result.text.print("text", "pages");
+	printf("\n");
+	printf("documents %d\n", result.documents);
+	printf("failed %d\n", result.failed);
+	printf("pages %d\n", result.render.count());
+	printf("elapsed_ms %.1f\n", elapsed);
+	printf("render_pages_per_s %.2f\n", result.render.total() > 0 ?
+			result.render.count() * 1000.0 / result.render.total() : 0);
+	printf("render_p50_ms %.2f\n", result.render.percentile(50));
+	printf("render_p90_ms %.2f\n", result.render.percentile(90));
+	printf("render_p99_ms %.2f\n", result.render.percentile(99));
+	printf("open_p50_ms %.2f\n", result.open.percentile(50));
+	printf("walk_p50_ms %.2f\n", result.walk.percentile(50));
+	if (opts.text) {
+		printf("text_p50_ms %.2f\n", result.text.percentile(50));
+		printf("text_p99_ms %.2f\n", result.text.percentile(99));
+		printf("text_bytes %ld\n", result.textBytes);
+	}
+	printf("image_decode_ms %.1f\n", stats[RenderProfile::IMAGE_DECODE_TIME]);
+	printf("font_load_ms %.1f\n", stats[RenderProfile::FONT_LOAD_TIME]);
+	printf("bytes_fetched %.0f\n", stats[RenderProfile::BYTES_FETCHED]);
+	printf("glyphs %.0f\n", stats[RenderProfile::GLYPHS]);
+	printf("draw_calls %.0f\n", stats[RenderProfile::DRAW_CALLS]);
+	printf("image_cache_hits %.0f\n", stats[RenderProfile::CACHE_HITS]);
+	printf("image_cache_misses %.0f\n", stats[RenderProfile::CACHE_MISSES]);
+	if (opts.profile) {
+		printf("path_ms %.1f\n", stats[RenderProfile::PATH_TIME]);
+		printf("text_ops_ms %.1f\n", stats[RenderProfile::TEXT_TIME]);
+		printf("image_ops_ms %.1f\n", stats[RenderProfile::IMAGE_TIME]);
+		printf("state_ms %.1f\n", stats[RenderProfile::STATE_TIME]);
+		printf("other_ms %.1f\n", stats[RenderProfile::OTHER_TIME]);
+		printf("operators %.0f\n", stats[RenderProfile::OPERATORS]);
+	}
+	printf("peak_rss_kb %ld\n", peakRssKB());
+
+	delete globalParams;
+	return result.failed ? 1 : 0;
+}
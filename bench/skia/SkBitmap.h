@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkBitmap_DEFINED
+#define SkBitmap_DEFINED
+
+#include "SkTypes.h"
+
+/*
+ * Bitmap with heap pixels shared by its copies, like Skia's pixel refs.
+ */
+class SkColorTable;
+
+class SkBitmap {
+public:
+	enum Config {
+		kNo_Config,
+		kA1_Config,
+		kA8_Config,
+		kIndex8_Config,
+		kRGB_565_Config,
+		kARGB_4444_Config,
+		kARGB_8888_Config
+	};
+
+	SkBitmap();
+	SkBitmap(const SkBitmap &src);
+	~SkBitmap();
+	SkBitmap &operator=(const SkBitmap &src);
+
+	void setConfig(Config config, int width, int height, int rowBytes = 0);
+	bool allocPixels(SkColorTable *ctable = NULL);
+	void reset();
+
+	Config config() const { return fConfig; }
+	int width() const { return fWidth; }
+	int height() const { return fHeight; }
+	int rowBytes() const { return fRowBytes; }
+	int bytesPerPixel() const;
+	size_t getSize() const { return (size_t)fRowBytes * fHeight; }
+	bool isNull() const { return fPixels == NULL; }
+	void *getPixels() const { return fPixels ? fPixels->fData : NULL; }
+	SkColorTable *getColorTable() const { return fColorTable; }
+
+	void setIsOpaque(bool) {}
+	void lockPixels() const {}
+	void unlockPixels() const {}
+
+	void eraseColor(SkColor c) const;
+
+private:
+	struct Pixels {
+		int fRefCnt;
+		void *fData;
+	};
+
+	Config fConfig;
+	int fWidth;
+	int fHeight;
+	int fRowBytes;
+	Pixels *fPixels;
+	SkColorTable *fColorTable;
+};
+
+#endif
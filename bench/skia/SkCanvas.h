@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkCanvas_DEFINED
+#define SkCanvas_DEFINED
+
+#include "SkBitmap.h"
+#include "SkDevice.h"
+#include "SkMatrix.h"
+#include "SkPaint.h"
+#include "SkPath.h"
+
+/*
+ * Canvas which clears its bitmap but only counts the other drawing, so
+ * a benchmark measures the interpreter and AndroidOutputDev, not Skia.
+ */
+class SkCanvas : public SkRefCnt {
+public:
+	SkCanvas();
+	explicit SkCanvas(const SkBitmap &bitmap);
+
+	SkDevice *getDevice() const { return const_cast<SkDevice *>(&fDevice); }
+
+	int save();
+	void restore();
+	int getSaveCount() const { return fSaveCount; }
+
+	bool translate(SkScalar dx, SkScalar dy);
+	bool scale(SkScalar sx, SkScalar sy);
+	bool concat(const SkMatrix &matrix);
+	const SkMatrix &getTotalMatrix() const { return fMatrix; }
+
+	bool clipPath(const SkPath &path);
+
+	void drawColor(SkColor color);
+	void drawPath(const SkPath &path, const SkPaint &paint);
+	void drawPosText(const void *text, size_t byteLength,
+			const SkPoint pos[], const SkPaint &paint);
+	void drawBitmap(const SkBitmap &bitmap, SkScalar left, SkScalar top,
+			const SkPaint *paint = NULL);
+	void drawBitmapMatrix(const SkBitmap &bitmap, const SkMatrix &matrix,
+			const SkPaint *paint = NULL);
+
+	/*
+	 * What has been drawn.
+	 */
+	int getDrawCount() const { return fDraws; }
+	int getPathPointCount() const { return fPathPoints; }
+	int64_t getBitmapPixelCount() const { return fBitmapPixels; }
+
+private:
+	SkDevice fDevice;
+	SkMatrix fMatrix;
+	int fSaveCount;
+	int fDraws;
+	int fPathPoints;
+	int64_t fBitmapPixels;
+};
+
+#endif
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkColorPriv_DEFINED
+#define SkColorPriv_DEFINED
+
+#include "SkTypes.h"
+
+static inline SkPMColor SkPackARGB32(U8CPU a, U8CPU r, U8CPU g, U8CPU b)
+{
+	return (a << 24) | (r << 16) | (g << 8) | b;
+}
+
+static inline uint16_t SkPackRGB16(unsigned r, unsigned g, unsigned b)
+{
+	return (r << 11) | (g << 5) | b;
+}
+
+static inline uint16_t SkPack888ToRGB16(U8CPU r, U8CPU g, U8CPU b)
+{
+	return SkPackRGB16(r >> 3, g >> 2, b >> 3);
+}
+
+static inline uint16_t SkPixel32ToPixel16(SkPMColor c)
+{
+	return SkPack888ToRGB16((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+}
+
+static inline unsigned SkAlpha255To256(U8CPU alpha)
+{
+	return alpha + 1;
+}
+
+static inline SkPMColor SkPreMultiplyColor(SkColor c)
+{
+	unsigned scale = SkAlpha255To256(SkColorGetA(c));
+	return SkPackARGB32(SkColorGetA(c),
+			(SkColorGetR(c) * scale) >> 8,
+			(SkColorGetG(c) * scale) >> 8,
+			(SkColorGetB(c) * scale) >> 8);
+}
+
+#endif
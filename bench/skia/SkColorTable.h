@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkColorTable_DEFINED
+#define SkColorTable_DEFINED
+
+#include "SkTypes.h"
+
+/*
+ * Colors of a kIndex8_Config bitmap.
+ */
+class SkColorTable : public SkRefCnt {
+public:
+	enum Flags {
+		kColorsAreOpaque_Flag = 0x01
+	};
+
+	explicit SkColorTable(int count);
+	virtual ~SkColorTable();
+
+	int count() const { return fCount; }
+	SkPMColor operator[](int index) const { return fColors[index]; }
+
+	void setFlags(unsigned flags) { fFlags = flags; }
+	unsigned getFlags() const { return fFlags; }
+
+	SkPMColor *lockColors() { return fColors; }
+	void unlockColors(bool changed) {}
+
+private:
+	SkPMColor *fColors;
+	int fCount;
+	unsigned fFlags;
+};
+
+#endif
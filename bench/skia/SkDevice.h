@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkDevice_DEFINED
+#define SkDevice_DEFINED
+
+#include "SkBitmap.h"
+
+/*
+ * The bitmap a canvas draws into.
+ */
+class SkDevice {
+public:
+	SkDevice() {}
+	explicit SkDevice(const SkBitmap &bitmap) : fBitmap(bitmap) {}
+
+	const SkBitmap &accessBitmap(bool changePixels) { return fBitmap; }
+
+private:
+	SkBitmap fBitmap;
+};
+
+#endif
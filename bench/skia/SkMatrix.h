@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkMatrix_DEFINED
+#define SkMatrix_DEFINED
+
+#include "SkTypes.h"
+
+/*
+ * Affine matrix, x' = sx*x + kx*y + tx, y' = ky*x + sy*y + ty.
+ */
+class SkMatrix {
+public:
+	SkMatrix() { reset(); }
+
+	void reset();
+	void setAll(SkScalar sx, SkScalar kx, SkScalar tx,
+			SkScalar ky, SkScalar sy, SkScalar ty,
+			SkScalar p0, SkScalar p1, SkScalar p2);
+	void setScale(SkScalar sx, SkScalar sy);
+	void setTranslate(SkScalar dx, SkScalar dy);
+	void setConcat(const SkMatrix &a, const SkMatrix &b);
+
+	bool preScale(SkScalar sx, SkScalar sy);
+	bool postScale(SkScalar sx, SkScalar sy);
+	bool preTranslate(SkScalar dx, SkScalar dy);
+	bool postTranslate(SkScalar dx, SkScalar dy);
+	bool preConcat(const SkMatrix &m);
+	bool postConcat(const SkMatrix &m);
+
+	SkScalar getScaleX() const { return fSx; }
+	SkScalar getScaleY() const { return fSy; }
+
+	void mapPoints(SkPoint pts[], int count) const;
+	bool mapRect(SkRect *rect) const;
+	bool invert(SkMatrix *inverse) const;
+
+private:
+	SkScalar fSx, fKx, fTx;
+	SkScalar fKy, fSy, fTy;
+};
+
+#endif
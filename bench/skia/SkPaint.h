@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkPaint_DEFINED
+#define SkPaint_DEFINED
+
+#include "SkTypes.h"
+
+class SkShader;
+class SkTypeface;
+
+/*
+ * Paint which owns references to its typeface and shader.
+ */
+class SkPaint {
+public:
+	enum Style {
+		kFill_Style,
+		kStroke_Style,
+		kStrokeAndFill_Style
+	};
+
+	enum Cap {
+		kButt_Cap,
+		kRound_Cap,
+		kSquare_Cap,
+		kDefault_Cap = kButt_Cap
+	};
+
+	enum Join {
+		kMiter_Join,
+		kRound_Join,
+		kBevel_Join,
+		kDefault_Join = kMiter_Join
+	};
+
+	enum TextEncoding {
+		kUTF8_TextEncoding,
+		kUTF16_TextEncoding,
+		kGlyphID_TextEncoding
+	};
+
+	SkPaint();
+	SkPaint(const SkPaint &src);
+	~SkPaint();
+	SkPaint &operator=(const SkPaint &src);
+
+	void reset();
+
+	SkColor getColor() const { return fColor; }
+	void setColor(SkColor color) { fColor = color; }
+	void setAlpha(U8CPU a) { fColor = (fColor & 0x00FFFFFF) | (a << 24); }
+
+	Style getStyle() const { return fStyle; }
+	void setStyle(Style style) { fStyle = style; }
+	void setStrokeWidth(SkScalar width) { fStrokeWidth = width; }
+	void setStrokeMiter(SkScalar miter) { fStrokeMiter = miter; }
+	void setStrokeCap(Cap cap) { fCap = cap; }
+	void setStrokeJoin(Join join) { fJoin = join; }
+	void setAntiAlias(bool aa) { fAntiAlias = aa; }
+	void setFilterBitmap(bool filter) { fFilterBitmap = filter; }
+
+	void setTextEncoding(TextEncoding encoding) { fTextEncoding = encoding; }
+	SkScalar getTextSize() const { return fTextSize; }
+	void setTextSize(SkScalar size) { fTextSize = size; }
+
+	SkTypeface *getTypeface() const { return fTypeface; }
+	SkTypeface *setTypeface(SkTypeface *typeface);
+	SkShader *getShader() const { return fShader; }
+	SkShader *setShader(SkShader *shader);
+
+private:
+	SkTypeface *fTypeface;
+	SkShader *fShader;
+	SkColor fColor;
+	SkScalar fStrokeWidth;
+	SkScalar fStrokeMiter;
+	SkScalar fTextSize;
+	Style fStyle;
+	Cap fCap;
+	Join fJoin;
+	TextEncoding fTextEncoding;
+	bool fAntiAlias;
+	bool fFilterBitmap;
+};
+
+#endif
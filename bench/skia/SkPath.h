@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkPath_DEFINED
+#define SkPath_DEFINED
+
+#include "SkTypes.h"
+
+/*
+ * Path which keeps only its point count, the geometry is not drawn.
+ */
+class SkPath {
+public:
+	enum FillType {
+		kWinding_FillType,
+		kEvenOdd_FillType
+	};
+
+	SkPath() : fFillType(kWinding_FillType), fPoints(0) {}
+
+	void setFillType(FillType type) { fFillType = type; }
+	FillType getFillType() const { return fFillType; }
+
+	void moveTo(SkScalar, SkScalar) { fPoints++; }
+	void lineTo(SkScalar, SkScalar) { fPoints++; }
+	void cubicTo(SkScalar, SkScalar, SkScalar, SkScalar, SkScalar, SkScalar)
+	{
+		fPoints += 3;
+	}
+	void close() {}
+	void reset() { fPoints = 0; }
+
+	int countPoints() const { return fPoints; }
+
+private:
+	FillType fFillType;
+	int fPoints;
+};
+
+#endif
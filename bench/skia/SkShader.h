@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkShader_DEFINED
+#define SkShader_DEFINED
+
+#include "SkBitmap.h"
+#include "SkMatrix.h"
+
+class SkShader : public SkRefCnt {
+public:
+	enum TileMode {
+		kClamp_TileMode,
+		kRepeat_TileMode,
+		kMirror_TileMode
+	};
+
+	static SkShader *CreateBitmapShader(const SkBitmap &src,
+			TileMode tmx, TileMode tmy);
+
+	void setLocalMatrix(const SkMatrix &matrix) { fLocalMatrix = matrix; }
+
+private:
+	SkShader(const SkBitmap &src) : fBitmap(src) {}
+
+	SkBitmap fBitmap;
+	SkMatrix fLocalMatrix;
+};
+
+#endif
@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#include <math.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "SkBitmap.h"
+#include "SkCanvas.h"
+#include "SkColorTable.h"
+#include "SkColorPriv.h"
+#include "SkMatrix.h"
+#include "SkPaint.h"
+#include "SkShader.h"
+#include "SkStream.h"
+#include "SkTypeface.h"
+
+// ----------------------------------------------------------------------------
+// SkRect
+
+void SkRect::join(const SkRect &r)
+{
+	if (r.isEmpty())
+		return;
+	if (isEmpty()) {
+		*this = r;
+		return;
+	}
+	if (r.fLeft < fLeft) fLeft = r.fLeft;
+	if (r.fTop < fTop) fTop = r.fTop;
+	if (r.fRight > fRight) fRight = r.fRight;
+	if (r.fBottom > fBottom) fBottom = r.fBottom;
+}
+
+void SkRect::roundOut(SkIRect *dst) const
+{
+	dst->set((int)floorf(fLeft), (int)floorf(fTop),
+			(int)ceilf(fRight), (int)ceilf(fBottom));
+}
+
+// ----------------------------------------------------------------------------
+// SkBitmap
+
+SkBitmap::SkBitmap() :
+	fConfig(kNo_Config), fWidth(0), fHeight(0), fRowBytes(0), fPixels(NULL),
+	fColorTable(NULL)
+{
+}
+
+SkBitmap::SkBitmap(const SkBitmap &src) :
+	fConfig(src.fConfig), fWidth(src.fWidth), fHeight(src.fHeight),
+	fRowBytes(src.fRowBytes), fPixels(src.fPixels), fColorTable(src.fColorTable)
+{
+	if (fPixels)
+		fPixels->fRefCnt++;
+	SkSafeRef(fColorTable);
+}
+
+SkBitmap::~SkBitmap()
+{
+	reset();
+}
+
+SkBitmap &SkBitmap::operator=(const SkBitmap &src)
+{
+	if (this != &src) {
+		if (src.fPixels)
+			src.fPixels->fRefCnt++;
+		SkSafeRef(src.fColorTable);
+		reset();
+		fConfig = src.fConfig;
+		fWidth = src.fWidth;
+		fHeight = src.fHeight;
+		fRowBytes = src.fRowBytes;
+		fPixels = src.fPixels;
+		fColorTable = src.fColorTable;
+	}
+	return *this;
+}
+
+int SkBitmap::bytesPerPixel() const
+{
+	switch (fConfig) {
+	case kA8_Config:
+	case kIndex8_Config:
+		return 1;
+	case kRGB_565_Config:
+	case kARGB_4444_Config:
+		return 2;
+	case kARGB_8888_Config:
+		return 4;
+	default:
+		return 0;
+	}
+}
+
+void SkBitmap::setConfig(Config config, int width, int height, int rowBytes)
+{
+	reset();
+	fConfig = config;
+	fWidth = width;
+	fHeight = height;
+	fRowBytes = rowBytes ? rowBytes : width * bytesPerPixel();
+}
+
+bool SkBitmap::allocPixels(SkColorTable *ctable)
+{
+	if (fPixels && --fPixels->fRefCnt == 0) {
+		free(fPixels->fData);
+		delete fPixels;
+	}
+	fPixels = NULL;
+	SkSafeRef(ctable);
+	SkSafeUnref(fColorTable);
+	fColorTable = ctable;
+
+	if (getSize() == 0)
+		return false;
+
+	void *data = malloc(getSize());
+	if (!data)
+		return false;
+
+	fPixels = new Pixels;
+	fPixels->fRefCnt = 1;
+	fPixels->fData = data;
+	return true;
+}
+
+void SkBitmap::reset()
+{
+	if (fPixels && --fPixels->fRefCnt == 0) {
+		free(fPixels->fData);
+		delete fPixels;
+	}
+	fPixels = NULL;
+	SkSafeUnref(fColorTable);
+	fColorTable = NULL;
+	fConfig = kNo_Config;
+	fWidth = fHeight = fRowBytes = 0;
+}
+
+void SkBitmap::eraseColor(SkColor c) const
+{
+	if (!fPixels)
+		return;
+
+	char *row = (char *) fPixels->fData;
+	for (int y = 0; y < fHeight; y++, row += fRowBytes) {
+		switch (fConfig) {
+		case kARGB_8888_Config: {
+			SkPMColor pm = SkPreMultiplyColor(c);
+			SkPMColor *p = (SkPMColor *) row;
+			for (int x = 0; x < fWidth; x++)
+				p[x] = pm;
+			break;
+		}
+		case kRGB_565_Config: {
+			uint16_t pm = SkPackRGB16(SkColorGetR(c) >> 3,
+					SkColorGetG(c) >> 2, SkColorGetB(c) >> 3);
+			uint16_t *p = (uint16_t *) row;
+			for (int x = 0; x < fWidth; x++)
+				p[x] = pm;
+			break;
+		}
+		case kA8_Config:
+			memset(row, SkColorGetA(c), fWidth);
+			break;
+		default:
+			memset(row, 0, fRowBytes);
+			break;
+		}
+	}
+}
+
+// ----------------------------------------------------------------------------
+// SkMatrix
+
+void SkMatrix::reset()
+{
+	fSx = fSy = 1;
+	fKx = fKy = fTx = fTy = 0;
+}
+
+void SkMatrix::setAll(SkScalar sx, SkScalar kx, SkScalar tx,
+		SkScalar ky, SkScalar sy, SkScalar ty,
+		SkScalar, SkScalar, SkScalar)
+{
+	fSx = sx; fKx = kx; fTx = tx;
+	fKy = ky; fSy = sy; fTy = ty;
+}
+
+void SkMatrix::setScale(SkScalar sx, SkScalar sy)
+{
+	setAll(sx, 0, 0, 0, sy, 0, 0, 0, 1);
+}
+
+void SkMatrix::setTranslate(SkScalar dx, SkScalar dy)
+{
+	setAll(1, 0, dx, 0, 1, dy, 0, 0, 1);
+}
+
+// this = a * b, b is applied first.
+void SkMatrix::setConcat(const SkMatrix &a, const SkMatrix &b)
+{
+	SkMatrix r;
+	r.fSx = a.fSx * b.fSx + a.fKx * b.fKy;
+	r.fKx = a.fSx * b.fKx + a.fKx * b.fSy;
+	r.fTx = a.fSx * b.fTx + a.fKx * b.fTy + a.fTx;
+	r.fKy = a.fKy * b.fSx + a.fSy * b.fKy;
+	r.fSy = a.fKy * b.fKx + a.fSy * b.fSy;
+	r.fTy = a.fKy * b.fTx + a.fSy * b.fTy + a.fTy;
+	*this = r;
+}
+
+bool SkMatrix::preScale(SkScalar sx, SkScalar sy)
+{
+	SkMatrix m;
+	m.setScale(sx, sy);
+	return preConcat(m);
+}
+
+bool SkMatrix::postScale(SkScalar sx, SkScalar sy)
+{
+	SkMatrix m;
+	m.setScale(sx, sy);
+	return postConcat(m);
+}
+
+bool SkMatrix::preTranslate(SkScalar dx, SkScalar dy)
+{
+	SkMatrix m;
+	m.setTranslate(dx, dy);
+	return preConcat(m);
+}
+
+bool SkMatrix::postTranslate(SkScalar dx, SkScalar dy)
+{
+	SkMatrix m;
+	m.setTranslate(dx, dy);
+	return postConcat(m);
+}
+
+bool SkMatrix::preConcat(const SkMatrix &m)
+{
+	setConcat(*this, m);
+	return true;
+}
+
+bool SkMatrix::postConcat(const SkMatrix &m)
+{
+	setConcat(m, *this);
+	return true;
+}
+
+void SkMatrix::mapPoints(SkPoint pts[], int count) const
+{
+	for (int i = 0; i < count; i++) {
+		SkScalar x = pts[i].fX, y = pts[i].fY;
+		pts[i].fX = fSx * x + fKx * y + fTx;
+		pts[i].fY = fKy * x + fSy * y + fTy;
+	}
+}
+
+bool SkMatrix::mapRect(SkRect *rect) const
+{
+	SkPoint pts[4];
+	pts[0].set(rect->fLeft, rect->fTop);
+	pts[1].set(rect->fRight, rect->fTop);
+	pts[2].set(rect->fRight, rect->fBottom);
+	pts[3].set(rect->fLeft, rect->fBottom);
+	mapPoints(pts, 4);
+
+	rect->set(pts[0].fX, pts[0].fY, pts[0].fX, pts[0].fY);
+	for (int i = 1; i < 4; i++) {
+		if (pts[i].fX < rect->fLeft) rect->fLeft = pts[i].fX;
+		if (pts[i].fX > rect->fRight) rect->fRight = pts[i].fX;
+		if (pts[i].fY < rect->fTop) rect->fTop = pts[i].fY;
+		if (pts[i].fY > rect->fBottom) rect->fBottom = pts[i].fY;
+	}
+	return fKx == 0 && fKy == 0;
+}
+
+bool SkMatrix::invert(SkMatrix *inverse) const
+{
+	SkScalar det = fSx * fSy - fKx * fKy;
+	if (det == 0)
+		return false;
+
+	SkMatrix r;
+	r.fSx = fSy / det;
+	r.fKx = -fKx / det;
+	r.fKy = -fKy / det;
+	r.fSy = fSx / det;
+	r.fTx = -(r.fSx * fTx + r.fKx * fTy);
+	r.fTy = -(r.fKy * fTx + r.fSy * fTy);
+	*inverse = r;
+	return true;
+}
+
+// ----------------------------------------------------------------------------
+// SkPaint
+
+SkPaint::SkPaint() : fTypeface(NULL), fShader(NULL)
+{
+	reset();
+}
+
+SkPaint::SkPaint(const SkPaint &src) : fTypeface(NULL), fShader(NULL)
+{
+	*this = src;
+}
+
+SkPaint::~SkPaint()
+{
+	SkSafeUnref(fTypeface);
+	SkSafeUnref(fShader);
+}
+
+SkPaint &SkPaint::operator=(const SkPaint &src)
+{
+	SkSafeRef(src.fTypeface);
+	SkSafeRef(src.fShader);
+	SkSafeUnref(fTypeface);
+	SkSafeUnref(fShader);
+	fTypeface = src.fTypeface;
+	fShader = src.fShader;
+	fColor = src.fColor;
+	fStrokeWidth = src.fStrokeWidth;
+	fStrokeMiter = src.fStrokeMiter;
+	fTextSize = src.fTextSize;
+	fStyle = src.fStyle;
+	fCap = src.fCap;
+	fJoin = src.fJoin;
+	fTextEncoding = src.fTextEncoding;
+	fAntiAlias = src.fAntiAlias;
+	fFilterBitmap = src.fFilterBitmap;
+	return *this;
+}
+
+void SkPaint::reset()
+{
+	SkSafeUnref(fTypeface);
+	SkSafeUnref(fShader);
+	fTypeface = NULL;
+	fShader = NULL;
+	fColor = SK_ColorBLACK;
+	fStrokeWidth = 0;
+	fStrokeMiter = 4;
+	fTextSize = 12;
+	fStyle = kFill_Style;
+	fCap = kDefault_Cap;
+	fJoin = kDefault_Join;
+	fTextEncoding = kUTF8_TextEncoding;
+	fAntiAlias = false;
+	fFilterBitmap = false;
+}
+
+SkTypeface *SkPaint::setTypeface(SkTypeface *typeface)
+{
+	SkSafeRef(typeface);
+	SkSafeUnref(fTypeface);
+	fTypeface = typeface;
+	return typeface;
+}
+
+SkShader *SkPaint::setShader(SkShader *shader)
+{
+	SkSafeRef(shader);
+	SkSafeUnref(fShader);
+	fShader = shader;
+	return shader;
+}
+
+// ----------------------------------------------------------------------------
+// SkShader, SkStream, SkTypeface
+
+SkShader *SkShader::CreateBitmapShader(const SkBitmap &src, TileMode, TileMode)
+{
+	return src.isNull() ? NULL : new SkShader(src);
+}
+
+SkMemoryStream::SkMemoryStream(const void *data, size_t length, bool copyData) :
+	fData((void *) data), fLength(length), fOwned(copyData)
+{
+	if (copyData) {
+		fData = malloc(length);
+		memcpy(fData, data, length);
+	}
+}
+
+SkMemoryStream::~SkMemoryStream()
+{
+	if (fOwned)
+		free(fData);
+}
+
+SkTypeface::SkTypeface(SkStream *stream) : fStream(SkSafeRef(stream))
+{
+}
+
+SkTypeface::~SkTypeface()
+{
+	SkSafeUnref(fStream);
+}
+
+SkTypeface *SkTypeface::CreateFromName(const char *, Style)
+{
+	return new SkTypeface(NULL);
+}
+
+SkTypeface *SkTypeface::CreateFromStream(SkStream *stream)
+{
+	return stream && stream->getLength() ? new SkTypeface(stream) : NULL;
+}
+
+// ----------------------------------------------------------------------------
+// SkColorTable
+
+SkColorTable::SkColorTable(int count) :
+	fColors(new SkPMColor[count]), fCount(count), fFlags(0)
+{
+}
+
+SkColorTable::~SkColorTable()
+{
+	delete[] fColors;
+}
+
+// ----------------------------------------------------------------------------
+// SkCanvas
+
+SkCanvas::SkCanvas() :
+	fSaveCount(1), fDraws(0), fPathPoints(0), fBitmapPixels(0)
+{
+}
+
+SkCanvas::SkCanvas(const SkBitmap &bitmap) :
+	fDevice(bitmap), fSaveCount(1), fDraws(0), fPathPoints(0), fBitmapPixels(0)
+{
+}
+
+int SkCanvas::save()
+{
+	return fSaveCount++;
+}
+
+void SkCanvas::restore()
+{
+	if (fSaveCount > 1)
+		fSaveCount--;
+}
+
+bool SkCanvas::translate(SkScalar dx, SkScalar dy)
+{
+	return fMatrix.preTranslate(dx, dy);
+}
+
+bool SkCanvas::scale(SkScalar sx, SkScalar sy)
+{
+	return fMatrix.preScale(sx, sy);
+}
+
+bool SkCanvas::concat(const SkMatrix &matrix)
+{
+	return fMatrix.preConcat(matrix);
+}
+
+bool SkCanvas::clipPath(const SkPath &path)
+{
+	fPathPoints += path.countPoints();
+	return true;
+}
+
+void SkCanvas::drawColor(SkColor color)
+{
+	fDevice.accessBitmap(true).eraseColor(color);
+	fDraws++;
+}
+
+void SkCanvas::drawPath(const SkPath &path, const SkPaint &)
+{
+	fPathPoints += path.countPoints();
+	fDraws++;
+}
+
+void SkCanvas::drawPosText(const void *, size_t, const SkPoint [], const SkPaint &)
+{
+	fDraws++;
+}
+
+void SkCanvas::drawBitmap(const SkBitmap &bitmap, SkScalar, SkScalar, const SkPaint *)
+{
+	fBitmapPixels += (int64_t) bitmap.width() * bitmap.height();
+	fDraws++;
+}
+
+void SkCanvas::drawBitmapMatrix(const SkBitmap &bitmap, const SkMatrix &, const SkPaint *)
+{
+	fBitmapPixels += (int64_t) bitmap.width() * bitmap.height();
+	fDraws++;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkStream_DEFINED
+#define SkStream_DEFINED
+
+#include "SkTypes.h"
+
+class SkStream : public SkRefCnt {
+public:
+	virtual size_t getLength() const = 0;
+};
+
+class SkMemoryStream : public SkStream {
+public:
+	SkMemoryStream(const void *data, size_t length, bool copyData = false);
+	virtual ~SkMemoryStream();
+
+	virtual size_t getLength() const { return fLength; }
+
+private:
+	void *fData;
+	size_t fLength;
+	bool fOwned;
+};
+
+#endif
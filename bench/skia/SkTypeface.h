@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef SkTypeface_DEFINED
+#define SkTypeface_DEFINED
+
+#include "SkTypes.h"
+
+class SkStream;
+
+/*
+ * Typeface which holds the font data it was created from.
+ */
+class SkTypeface : public SkRefCnt {
+public:
+	enum Style {
+		kNormal = 0,
+		kBold = 1,
+		kItalic = 2,
+		kBoldItalic = 3
+	};
+
+	static SkTypeface *CreateFromName(const char *name, Style style);
+	static SkTypeface *CreateFromStream(SkStream *stream);
+
+	virtual ~SkTypeface();
+
+private:
+	SkTypeface(SkStream *stream);
+
+	SkStream *fStream;
+};
+
+#endif
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+/*
+ * Host stand-in for the part of Skia used by AndroidOutputDev, so the
+ * render pipeline can be built and measured off the device. Bitmaps
+ * own real pixels, drawing is only counted, see SkCanvas.h.
+ */
+#ifndef SkTypes_DEFINED
+#define SkTypes_DEFINED
+
+#include <stdint.h>
+#include <stddef.h>
+
+typedef float SkScalar;
+typedef uint32_t SkColor;
+typedef uint32_t SkPMColor;
+typedef unsigned U8CPU;
+
+#define SK_ColorTRANSPARENT	0x00000000
+#define SK_ColorBLACK		0xFF000000
+#define SK_ColorWHITE		0xFFFFFFFF
+
+#define SkIntToScalar(x)	((SkScalar)(x))
+#define SkFloatToScalar(x)	((SkScalar)(x))
+#define SkDoubleToScalar(x)	((SkScalar)(x))
+#define SkScalarRound(x)	((int)((x) + 0.5f))
+
+static inline SkColor SkColorSetARGB(U8CPU a, U8CPU r, U8CPU g, U8CPU b)
+{
+	return (a << 24) | (r << 16) | (g << 8) | b;
+}
+
+#define SkColorSetRGB(r, g, b)	SkColorSetARGB(0xFF, r, g, b)
+#define SkColorGetA(c)		(((c) >> 24) & 0xFF)
+#define SkColorGetR(c)		(((c) >> 16) & 0xFF)
+#define SkColorGetG(c)		(((c) >> 8) & 0xFF)
+#define SkColorGetB(c)		(((c) >> 0) & 0xFF)
+
+class SkRefCnt {
+public:
+	SkRefCnt() : fRefCnt(1) {}
+	virtual ~SkRefCnt() {}
+
+	int getRefCnt() const { return fRefCnt; }
+	void ref() const { ++fRefCnt; }
+	void unref() const
+	{
+		if (--fRefCnt == 0)
+			delete this;
+	}
+
+private:
+	mutable int fRefCnt;
+};
+
+template <typename T> static inline T *SkSafeRef(T *obj)
+{
+	if (obj)
+		obj->ref();
+	return obj;
+}
+
+static inline void SkSafeUnref(const SkRefCnt *obj)
+{
+	if (obj)
+		obj->unref();
+}
+
+struct SkPoint {
+	SkScalar fX, fY;
+
+	void set(SkScalar x, SkScalar y) { fX = x; fY = y; }
+};
+
+struct SkIRect {
+	int fLeft, fTop, fRight, fBottom;
+
+	void set(int l, int t, int r, int b)
+	{
+		fLeft = l; fTop = t; fRight = r; fBottom = b;
+	}
+	int width() const { return fRight - fLeft; }
+	int height() const { return fBottom - fTop; }
+};
+
+struct SkRect {
+	SkScalar fLeft, fTop, fRight, fBottom;
+
+	void set(SkScalar l, SkScalar t, SkScalar r, SkScalar b)
+	{
+		fLeft = l; fTop = t; fRight = r; fBottom = b;
+	}
+	void setEmpty() { set(0, 0, 0, 0); }
+	bool isEmpty() const { return fLeft >= fRight || fTop >= fBottom; }
+	SkScalar width() const { return fRight - fLeft; }
+	SkScalar height() const { return fBottom - fTop; }
+	void join(const SkRect &r);
+	void roundOut(SkIRect *dst) const;
+};
+
+#endif
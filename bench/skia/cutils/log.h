@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+#ifndef _CUTILS_LOG_H
+#define _CUTILS_LOG_H
+
+#include <stdio.h>
+
+/*
+ * Verbose and debug logs would be timed with the render, so they are
+ * dropped. Set BENCH_LOG to see them on stderr.
+ */
+#ifdef BENCH_LOG
+#define LOGV(...)	(fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+#define LOGD(...)	(fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+#else
+#define LOGV(...)	((void)0)
+#define LOGD(...)	((void)0)
+#endif
+#define LOGI(...)	(fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+#define LOGW(...)	(fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+#define LOGE(...)	(fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+
+#endif
@@ -7,7 +7,10 @@ LOCAL_MODULE := libpoppler_jni
 LOCAL_CPP_EXTENSION := .cc
 
 LOCAL_SRC_FILES :=      \
-	PDFDocument.cc
+	PDFDocument.cc		\
+	MappedStream.cc		\
+	DocumentIndex.cc	\
+	RenderProfile.cc
 
 LOCAL_C_INCLUDES :=         	\
 	$(LOCAL_PATH)/../poppler	\
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#include <stdio.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/types.h>
+#include <sys/stat.h>
+
+#include <goo/gmem.h>
+#include <goo/GooString.h>
+#include <poppler/Object.h>
+#include <poppler/Array.h>
+#include <poppler/Dict.h>
+#include <poppler/Stream.h>
+#include <poppler/Catalog.h>
+#include <poppler/PDFDoc.h>
+
+#include "DocumentIndex.h"
+
+#define LOG_NDEBUG 0
+#define LOG_TAG "PDFDocument"
+#include <cutils/log.h>
+
+// bump when the layout changes
+static const char kMagic[8] = { 'A', 'P', 'D', 'F', 'I', 'D', 'X', 1 };
+
+// bytes hashed at each end of the file
+#define HASH_SPAN 65536
+
+// nesting limit of the trailer objects
+#define MAX_OBJECT_DEPTH 16
+
+// ----------------------------------------------------------------------------
+
+static bool writeInt(FILE *f, int i)
+{
+	return fwrite(&i, sizeof(i), 1, f) == 1;
+}
+
+static bool readInt(FILE *f, int *i)
+{
+	return fread(i, sizeof(*i), 1, f) == 1;
+}
+
+static bool writeBytes(FILE *f, const char *s, int len)
+{
+	return writeInt(f, len) && (int)fwrite(s, 1, len, f) == len;
+}
+
+static char *readBytes(FILE *f, int *len)
+{
+	if (!readInt(f, len) || *len < 0 || *len > 0xFFFF)
+		return NULL;
+
+	char *s = (char *)gmalloc(*len + 1);
+	if ((int)fread(s, 1, *len, f) != *len) {
+		gfree(s);
+		return NULL;
+	}
+	s[*len] = '\0';
+	return s;
+}
+
+/*
+ * Write a direct object of the trailer, streams are not supported.
+ */
+static bool writeObject(FILE *f, Object *obj)
+{
+	Object o;
+	int i;
+
+	if (!writeInt(f, obj->getType()))
+		return false;
+
+	switch (obj->getType()) {
+	case objNull:
+		return true;
+	case objBool:
+		return writeInt(f, obj->getBool());
+	case objInt:
+		return writeInt(f, obj->getInt());
+	case objReal: {
+		double d = obj->getReal();
+		return fwrite(&d, sizeof(d), 1, f) == 1;
+	}
+	case objString:
+		return writeBytes(f, obj->getString()->getCString(),
+				obj->getString()->getLength());
+	case objName:
+		return writeBytes(f, obj->getName(), strlen(obj->getName()));
+	case objRef:
+		return writeInt(f, obj->getRefNum()) && writeInt(f, obj->getRefGen());
+	case objArray:
+		if (!writeInt(f, obj->arrayGetLength()))
+			return false;
+		for (i = 0; i < obj->arrayGetLength(); i++) {
+			bool ok = writeObject(f, obj->arrayGetNF(i, &o));
+			o.free();
+			if (!ok)
+				return false;
+		}
+		return true;
+	case objDict:
+		if (!writeInt(f, obj->dictGetLength()))
+			return false;
+		for (i = 0; i < obj->dictGetLength(); i++) {
+			char *key = obj->dictGetKey(i);
+			if (!writeBytes(f, key, strlen(key)))
+				return false;
+			bool ok = writeObject(f, obj->dictGetValNF(i, &o));
+			o.free();
+			if (!ok)
+				return false;
+		}
+		return true;
+	default:
+		return false;
+	}
+}
+
+static bool readObject(FILE *f, Object *obj, int depth)
+{
+	Object o;
+	int type, i, n, len;
+	char *s;
+
+	obj->initNull();
+	if (depth > MAX_OBJECT_DEPTH || !readInt(f, &type))
+		return false;
+
+	switch (type) {
+	case objNull:
+		return true;
+	case objBool:
+		if (!readInt(f, &i))
+			return false;
+		obj->initBool(i != 0);
+		return true;
+	case objInt:
+		if (!readInt(f, &i))
+			return false;
+		obj->initInt(i);
+		return true;
+	case objReal: {
+		double d;
+		if (fread(&d, sizeof(d), 1, f) != 1)
+			return false;
+		obj->initReal(d);
+		return true;
+	}
+	case objString:
+		if (!(s = readBytes(f, &len)))
+			return false;
+		obj->initString(new GooString(s, len));
+		gfree(s);
+		return true;
+	case objName:
+		if (!(s = readBytes(f, &len)))
+			return false;
+		obj->initName(s);
+		gfree(s);
+		return true;
+	case objRef:
+		if (!readInt(f, &i) || !readInt(f, &n))
+			return false;
+		obj->initRef(i, n);
+		return true;
+	case objArray:
+		if (!readInt(f, &n) || n < 0)
+			return false;
+		obj->initArray((XRef *)NULL);
+		for (i = 0; i < n; i++) {
+			if (!readObject(f, &o, depth + 1)) {
+				o.free();
+				return false;
+			}
+			obj->arrayAdd(&o);
+		}
+		return true;
+	case objDict:
+		if (!readInt(f, &n) || n < 0)
+			return false;
+		obj->initDict((XRef *)NULL);
+		for (i = 0; i < n; i++) {
+			if (!(s = readBytes(f, &len)))
+				return false;
+			if (!readObject(f, &o, depth + 1)) {
+				gfree(s);
+				o.free();
+				return false;
+			}
+			obj->dictAdd(s, &o);
+		}
+		return true;
+	default:
+		return false;
+	}
+}
+
+/*
+ * Point the dictionaries and arrays read from the index to the xref.
+ */
+static void setXRef(Object *obj, XRef *xref)
+{
+	Object o;
+	int i;
+
+	if (obj->isDict()) {
+		obj->getDict()->setXRef(xref);
+		for (i = 0; i < obj->dictGetLength(); i++) {
+			setXRef(obj->dictGetValNF(i, &o), xref);
+			o.free();
+		}
+	} else if (obj->isArray()) {
+		obj->getArray()->setXRef(xref);
+		for (i = 0; i < obj->arrayGetLength(); i++) {
+			setXRef(obj->arrayGetNF(i, &o), xref);
+			o.free();
+		}
+	}
+}
+
+// ----------------------------------------------------------------------------
+
+GooString *DocumentIndex::fingerprint(int fd)
+{
+	struct stat st;
+	if (fstat(fd, &st) < 0 || !S_ISREG(st.st_mode))
+		return NULL;
+
+	// FNV-1a over the head and the tail of the file.
+	unsigned long long hash = 0xcbf29ce484222325ULL;
+	char *buf = (char *)gmalloc(HASH_SPAN);
+	off_t offsets[2] = { 0, st.st_size > HASH_SPAN ? st.st_size - HASH_SPAN : 0 };
+	for (int i = 0; i < 2; i++) {
+		ssize_t n = pread(fd, buf, HASH_SPAN, offsets[i]);
+		for (ssize_t j = 0; j < n; j++) {
+			hash ^= (unsigned char)buf[j];
+			hash *= 0x100000001b3ULL;
+		}
+	}
+	gfree(buf);
+
+	char s[64];
+	snprintf(s, sizeof(s), "%llx-%lx-%016llx", (unsigned long long)st.st_size,
+			(unsigned long)st.st_mtime, hash);
+	return new GooString(s);
+}
+
+DocumentIndex::DocumentIndex()
+{
+	m_entries = NULL;
+	m_size = 0;
+	m_stream_ends = NULL;
+	m_stream_ends_len = 0;
+	m_trailer.initNull();
+	m_last_xref_pos = 0;
+	m_page_refs = NULL;
+	m_num_pages = 0;
+}
+
+DocumentIndex::~DocumentIndex()
+{
+	gfree(m_entries);
+	gfree(m_stream_ends);
+	m_trailer.free();
+	gfree(m_page_refs);
+}
+
+DocumentIndex *DocumentIndex::load(const char *path, GooString *fingerprint)
+{
+	FILE *f = fopen(path, "rb");
+	if (!f)
+		return NULL;
+
+	DocumentIndex *index = new DocumentIndex();
+	bool ok = false;
+	char magic[sizeof(kMagic)];
+	char *s = NULL;
+	int len, i, type;
+
+	if (fread(magic, sizeof(magic), 1, f) != 1 || memcmp(magic, kMagic, sizeof(magic)))
+		goto done;
+	if (!(s = readBytes(f, &len)) || fingerprint->cmp(s))
+		goto done;
+
+	// xref entries
+	if (!readInt(f, &index->m_size) || index->m_size <= 0 || index->m_size > 0x1000000)
+		goto done;
+	index->m_entries = (XRefEntry *)gmallocn(index->m_size, sizeof(XRefEntry));
+	for (i = 0; i < index->m_size; i++) {
+		XRefEntry *e = &index->m_entries[i];
+		e->obj.initNull();
+		e->updated = false;
+		if (!readInt(f, (int *)&e->offset) || !readInt(f, &e->gen) || !readInt(f, &type))
+			goto done;
+		if (type != xrefEntryFree && type != xrefEntryUncompressed
+				&& type != xrefEntryCompressed)
+			goto done;
+		e->type = (XRefEntryType)type;
+	}
+
+	// stream ends of damaged files
+	if (!readInt(f, &index->m_stream_ends_len) || index->m_stream_ends_len < 0
+			|| index->m_stream_ends_len > index->m_size)
+		goto done;
+	if (index->m_stream_ends_len > 0) {
+		index->m_stream_ends = (Guint *)gmallocn(index->m_stream_ends_len, sizeof(Guint));
+		if ((int)fread(index->m_stream_ends, sizeof(Guint), index->m_stream_ends_len, f)
+				!= index->m_stream_ends_len)
+			goto done;
+	}
+
+	// trailer
+	if (!readInt(f, (int *)&index->m_last_xref_pos))
+		goto done;
+	if (!readObject(f, &index->m_trailer, 0) || !index->m_trailer.isDict())
+		goto done;
+
+	// page references
+	if (!readInt(f, &index->m_num_pages) || index->m_num_pages < 0
+			|| index->m_num_pages > index->m_size)
+		goto done;
+	if (index->m_num_pages > 0) {
+		index->m_page_refs = (Ref *)gmallocn(index->m_num_pages, sizeof(Ref));
+		if ((int)fread(index->m_page_refs, sizeof(Ref), index->m_num_pages, f)
+				!= index->m_num_pages)
+			goto done;
+	}
+
+	ok = true;
+
+done:
+	gfree(s);
+	fclose(f);
+	if (!ok) {
+		LOGV("Invalid index: %s", path);
+		delete index;
+		unlink(path);
+		return NULL;
+	}
+	return index;
+}
+
+bool DocumentIndex::save(const char *path, GooString *fingerprint, PDFDoc *doc)
+{
+	XRef *xref = doc->getXRef();
+	Catalog *catalog = doc->getCatalog();
+	int n = catalog->readAllPages();
+
+	GooString tmp(path);
+	tmp.append(".tmp");
+	FILE *f = fopen(tmp.getCString(), "wb");
+	if (!f)
+		return false;
+
+	bool ok = fwrite(kMagic, sizeof(kMagic), 1, f) == 1
+		&& writeBytes(f, fingerprint->getCString(), fingerprint->getLength())
+		&& writeInt(f, xref->getSize());
+	for (int i = 0; ok && i < xref->getSize(); i++) {
+		XRefEntry *e = xref->getEntry(i);
+		ok = writeInt(f, (int)e->offset) && writeInt(f, e->gen) && writeInt(f, e->type);
+	}
+
+	int len = xref->getStreamEndsLen();
+	ok = ok && writeInt(f, len)
+		&& (len == 0 || (int)fwrite(xref->getStreamEnds(), sizeof(Guint), len, f) == len)
+		&& writeInt(f, (int)xref->getLastXRefPos())
+		&& writeObject(f, xref->getTrailerDict())
+		&& writeInt(f, n);
+	for (int i = 1; ok && i <= n; i++) {
+		Ref *ref = catalog->getPageRef(i);
+		Ref none = { -1, -1 };
+		ok = fwrite(ref ? ref : &none, sizeof(Ref), 1, f) == 1;
+	}
+
+	if (fclose(f) != 0)
+		ok = false;
+	if (ok && rename(tmp.getCString(), path) == 0)
+		return true;
+
+	unlink(tmp.getCString());
+	return false;
+}
+
+XRef *DocumentIndex::createXRef(BaseStream *str)
+{
+	if (!m_entries)
+		return NULL;
+
+	XRef *xref = new XRef(str, m_entries, m_size, m_stream_ends, m_stream_ends_len,
+			&m_trailer, m_last_xref_pos);
+	setXRef(xref->getTrailerDict(), xref);
+
+	// owned by the xref now
+	m_entries = NULL;
+	m_stream_ends = NULL;
+	m_trailer.initNull();
+	return xref;
+}
+
+void DocumentIndex::setPageRefs(Catalog *catalog)
+{
+	catalog->setPageRefs(m_page_refs, m_num_pages);
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#ifndef DOCUMENTINDEX_H
+#define DOCUMENTINDEX_H
+
+#include <poppler/Object.h>
+#include <poppler/XRef.h>
+
+class GooString;
+class BaseStream;
+class Catalog;
+class PDFDoc;
+
+/*
+ * The parsed xref table and page references of a document, saved on
+ * disk so that opening the same file again skips the parsing.
+ *
+ * Index files are named by the fingerprint of the document, which
+ * changes with its size, mtime and content.
+ */
+class DocumentIndex {
+public:
+	/*
+	 * Fingerprint of a regular file: size, mtime and a hash of its head
+	 * and tail. Return NULL if fd is not a regular file.
+	 */
+	static GooString *fingerprint(int fd);
+
+	/*
+	 * Read an index file written for the fingerprint.
+	 * Return NULL if there is none, an invalid one is deleted.
+	 */
+	static DocumentIndex *load(const char *path, GooString *fingerprint);
+
+	/*
+	 * Write the index of a document, reading its whole page tree.
+	 */
+	static bool save(const char *path, GooString *fingerprint, PDFDoc *doc);
+
+	~DocumentIndex();
+
+	/*
+	 * Create the xref table for the document stream, once.
+	 */
+	XRef *createXRef(BaseStream *str);
+
+	/*
+	 * Give the page references to the catalog.
+	 */
+	void setPageRefs(Catalog *catalog);
+
+private:
+	DocumentIndex();
+
+	XRefEntry *m_entries;
+	int m_size;
+	Guint *m_stream_ends;
+	int m_stream_ends_len;
+	Object m_trailer;
+	Guint m_last_xref_pos;
+	Ref *m_page_refs;
+	int m_num_pages;
+};
+
+#endif
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#include <sys/types.h>
+#include <sys/stat.h>
+#include <sys/mman.h>
+
+#include "MappedStream.h"
+
+#define LOG_NDEBUG 0
+#define LOG_TAG "PDFDocument"
+#include <cutils/log.h>
+
+MappedStream *MappedStream::create(int fd, Object *dict)
+{
+	struct stat st;
+	if (fstat(fd, &st) < 0 || !S_ISREG(st.st_mode) || st.st_size <= 0)
+		return NULL;
+
+	// Guint positions
+	if ((off_t)(Guint)st.st_size != st.st_size)
+		return NULL;
+
+	void *map = mmap(NULL, st.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
+	if (map == MAP_FAILED) {
+		LOGV("mmap failed: %d", fd);
+		return NULL;
+	}
+
+	return new MappedStream((char *)map, (Guint)st.st_size, dict);
+}
+
+MappedStream::MappedStream(char *map, Guint length, Object *dict):
+	MemStream(map, 0, length, dict)
+{
+	m_map = map;
+	m_length = length;
+	m_fetched = 0;
+}
+
+MappedStream::~MappedStream()
+{
+	munmap(m_map, m_length);
+}
+
+/*
+ * A window of the mapping. XRef and Parser read objects through such
+ * windows and make the streams of the objects from them, so they count
+ * the fetched bytes of the MappedStream too.
+ */
+class MappedSubStream: public MemStream {
+public:
+	MappedSubStream(char *map, Guint start, Guint length, Object *dict,
+			Guint *fetched):
+		MemStream(map, start, length, dict),
+		m_map(map), m_end(start + length), m_fetched(fetched)
+	{
+	}
+
+	virtual Stream *makeSubStream(Guint start, GBool limited,
+			Guint lengthA, Object *dictA)
+	{
+		return makeWindow(m_map, m_end, m_fetched, start, limited, lengthA, dictA);
+	}
+
+	static Stream *makeWindow(char *map, Guint end, Guint *fetched,
+			Guint start, GBool limited, Guint lengthA, Object *dictA)
+	{
+		Guint length = end - start;
+		if (limited) {
+			if (start + lengthA <= end)
+				length = lengthA;
+			*fetched += length;
+		}
+		return new MappedSubStream(map, start, length, dictA, fetched);
+	}
+
+private:
+	char *m_map;
+	Guint m_end;
+	Guint *m_fetched;
+};
+
+Stream *MappedStream::makeSubStream(Guint start, GBool limited,
+		Guint lengthA, Object *dictA)
+{
+	return MappedSubStream::makeWindow(m_map, m_length, &m_fetched,
+			start, limited, lengthA, dictA);
+}
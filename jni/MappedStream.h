@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#ifndef MAPPEDSTREAM_H
+#define MAPPEDSTREAM_H
+
+#include <poppler/Object.h>
+#include <poppler/Stream.h>
+
+/*
+ * A stream over a read-only memory mapping of a whole file, seeking is
+ * a pointer move and reading is a memory load. The mapping is released
+ * with the stream, sub streams must not outlive it.
+ */
+class MappedStream: public MemStream {
+public:
+	/*
+	 * Map a regular file.
+	 * Return NULL if fd is not a regular file or can not be mapped.
+	 */
+	static MappedStream *create(int fd, Object *dict);
+
+	virtual ~MappedStream();
+
+	virtual Stream *makeSubStream(Guint start, GBool limited,
+			Guint lengthA, Object *dictA);
+
+	/*
+	 * Bytes of the streams with a known length made from the file, that
+	 * is the content, image, font and object stream data asked for.
+	 */
+	Guint getFetchedBytes() { return m_fetched; }
+
+private:
+	MappedStream(char *map, Guint length, Object *dict);
+
+	char *m_map;
+	Guint m_length;
+	Guint m_fetched;
+};
+
+#endif
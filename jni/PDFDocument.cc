@@ -16,12 +16,18 @@
 #include <assert.h>
 #include <unistd.h>
 #include <fcntl.h>
+#include <utime.h>
 
 #include <jni.h>
 
 #include <poppler/PDFDoc.h>
 #include <poppler/GlobalParams.h>
 #include <poppler/AndroidOutputDev.h>
+#include <poppler/AndroidRenderCache.h>
+
+#include "MappedStream.h"
+#include "DocumentIndex.h"
+#include "RenderProfile.h"
 
 #include <SkCanvas.h>
 
@@ -31,6 +37,9 @@
 
 struct fields_t {
 	jfieldID nativePDF;
+	jfieldID nativeCache;
+	jfieldID nativeFile;
+	jfieldID renderStats;
 	jfieldID useMediaBox;
 	jfieldID crop;
 	jfieldID hDPI;
@@ -38,6 +47,7 @@ struct fields_t {
 	jfieldID rotate;
 	jfieldID nativeCanvas;
 	jfieldID fd;
+	jfieldID cancelled;
 };
 static fields_t fields;
 
@@ -78,53 +88,82 @@ static PDFDoc* getDoc(JNIEnv* env, jobject clazz) {
 	return (PDFDoc*) env->GetIntField(clazz, fields.nativePDF);
 }
 
-static SkCanvas* getCanvas(JNIEnv* env, jobject jcanvas) {
-	return (SkCanvas*) env->GetIntField(jcanvas, fields.nativeCanvas);
+static AndroidRenderCache* getCache(JNIEnv* env, jobject clazz) {
+	return (AndroidRenderCache*) env->GetIntField(clazz, fields.nativeCache);
 }
 
-/*
- * Method:    getPageMediaWidth
- * Signature: (I)D
- */
-static jdouble getPageMediaWidth(JNIEnv *env, jobject clazz, jint page) {
-	PDFDoc *doc = getDoc(env, clazz);
-	return doc->getPageMediaWidth(page);
+static FILE* getFile(JNIEnv* env, jobject clazz) {
+	return (FILE*) env->GetIntField(clazz, fields.nativeFile);
 }
 
-/*
- * Method:    getPageMediaHeight
- * Signature: (I)D
- */
-static jdouble getPageMediaHeight(JNIEnv *env, jobject clazz, jint page) {
-	PDFDoc *doc = getDoc(env, clazz);
-	return doc->getPageMediaHeight(page);
+static SkCanvas* getCanvas(JNIEnv* env, jobject jcanvas) {
+	return (SkCanvas*) env->GetIntField(jcanvas, fields.nativeCanvas);
 }
 
-/*
- * Method:    getPageCropWidth
- * Signature: (I)D
- */
-static jdouble getPageCropWidth(JNIEnv *env, jobject clazz, jint page) {
-	PDFDoc *doc = getDoc(env, clazz);
-	return doc->getPageCropWidth(page);
+//
+// data of the abort check callback
+//
+struct abort_data_t {
+	JNIEnv *env;
+	jobject token;
+};
+
+//
+// abort check callback of poppler, poll the RenderToken
+//
+static GBool checkAbort(void *data) {
+	abort_data_t *abort = (abort_data_t *) data;
+	if (!abort->token)
+		return gFalse;
+	return abort->env->GetBooleanField(abort->token, fields.cancelled);
 }
 
-/*
- * Method:    getPageCropHeight
- * Signature: (I)D
- */
-static jdouble getPageCropHeight(JNIEnv *env, jobject clazz, jint page) {
-	PDFDoc *doc = getDoc(env, clazz);
-	return doc->getPageCropHeight(page);
+//
+// stop profiling a render and keep its stats in mRenderStats
+//
+static void saveStats(JNIEnv *env, jobject clazz, RenderProfile *profile) {
+	jdouble stats[RenderProfile::STATS_SIZE];
+	profile->finish(stats);
+
+	jdoubleArray array = (jdoubleArray) env->GetObjectField(clazz, fields.renderStats);
+	if (array) {
+		env->SetDoubleArrayRegion(array, 0, RenderProfile::STATS_SIZE, stats);
+		env->DeleteLocalRef(array);
+	}
 }
 
 /*
- * Method:    getPageRotate
- * Signature: (I)I
+ * Method:    native_getPageGeometry
+ * Signature: (II[D[I)V
  */
-static jint getPageRotate(JNIEnv *env, jobject clazz, jint page) {
+static void native_getPageGeometry(JNIEnv *env, jobject clazz, jint firstPage,
+		jint count, jdoubleArray boxes, jintArray rotates) {
 	PDFDoc *doc = getDoc(env, clazz);
-	return doc->getPageRotate(page);
+	if (!doc || !doc->isOk() || count <= 0)
+		return;
+
+	Catalog *catalog = doc->getCatalog();
+	jdouble *b = new jdouble[count * 4];
+	jint *r = new jint[count];
+	for (int i = 0; i < count; ++i) {
+		// one lookup per page, instead of one per value.
+		Page *page = catalog->getPage(firstPage + i);
+		if (page) {
+			b[i * 4] = page->getMediaWidth();
+			b[i * 4 + 1] = page->getMediaHeight();
+			b[i * 4 + 2] = page->getCropWidth();
+			b[i * 4 + 3] = page->getCropHeight();
+			r[i] = page->getRotate();
+		} else {
+			b[i * 4] = b[i * 4 + 1] = b[i * 4 + 2] = b[i * 4 + 3] = 0;
+			r[i] = 0;
+		}
+	}
+
+	env->SetDoubleArrayRegion(boxes, (firstPage - 1) * 4, count * 4, b);
+	env->SetIntArrayRegion(rotates, firstPage - 1, count, r);
+	delete[] b;
+	delete[] r;
 }
 
 /*
@@ -133,31 +172,48 @@ static jint getPageRotate(JNIEnv *env, jobject clazz, jint page) {
  */
 static jboolean isOk(JNIEnv *env, jobject clazz) {
 	PDFDoc *doc = getDoc(env, clazz);
-	return doc->isOk();
+	return doc && doc->isOk();
 }
 
 /*
- * Method:    getNumPages
+ * Method:    native_getNumPages
  * Signature: ()I
  */
-static jint getNumPages(JNIEnv *env, jobject clazz) {
+static jint native_getNumPages(JNIEnv *env, jobject clazz) {
 	PDFDoc *doc = getDoc(env, clazz);
 	return doc->getNumPages();
 }
 
+/*
+ * Method:    native_isPageTreeRead
+ * Signature: ()Z
+ */
+static jboolean native_isPageTreeRead(JNIEnv *env, jobject clazz) {
+	PDFDoc *doc = getDoc(env, clazz);
+	return doc->getCatalog()->isPageTreeRead();
+}
+
 /*
  * Method:    drawPage
- * Signature: (Landroid/graphics/Canvas;I)V
+ * Signature: (Landroid/graphics/Canvas;ILcom/googlecode/apdfviewer/RenderToken;)Z
  */
-static void drawPage(JNIEnv *env, jobject clazz, jobject jcanvas, jint page) {
+static jboolean drawPage(JNIEnv *env, jobject clazz, jobject jcanvas, jint page,
+		jobject token) {
 	PDFDoc *doc = getDoc(env, clazz);
 
-	if (!doc || !doc->isOk())
-		return;
+	// nothing is drawn, the canvas keeps what it had.
+	if (!doc || !doc->isOk() || !doc->getCatalog()->getPage(page))
+		return JNI_FALSE;
 
 	SkCanvas *canvas = getCanvas(env, jcanvas);
+	abort_data_t abort = { env, token };
+	if (checkAbort(&abort))
+		return JNI_FALSE;
 
-	AndroidOutputDev out(canvas, doc->getXRef());
+	AndroidRenderCache *cache = getCache(env, clazz);
+	AndroidOutputDev out(canvas, doc->getXRef(), cache);
+	out.setAbortCheck(checkAbort, &abort);
+	RenderProfile profile(doc, &out, cache);
 	double hDPI = gethDPI(env, clazz);
 	double vDPI = getvDPI(env, clazz);
 	int rotate = getRotate(env, clazz);
@@ -167,23 +223,33 @@ static void drawPage(JNIEnv *env, jobject clazz, jobject jcanvas, jint page) {
 	LOGV("page: %d", page);
 
 	doc->displayPage(&out, (int)page, hDPI, vDPI, rotate, useMediaBox, crop,
-			0, NULL, NULL, NULL, NULL);
+			0, checkAbort, &abort, NULL, NULL);
+	saveStats(env, clazz, &profile);
+
+	return !checkAbort(&abort);
 }
 
 /*
  * Method:    drawPages
- * Signature: (Landroid/graphics/Canvas;II)V
+ * Signature: (Landroid/graphics/Canvas;IILcom/googlecode/apdfviewer/RenderToken;)Z
  */
-static void drawPages(JNIEnv *env, jobject clazz, jobject jcanvas,
-		jint firstPage, jint lastPage) {
+static jboolean drawPages(JNIEnv *env, jobject clazz, jobject jcanvas,
+		jint firstPage, jint lastPage, jobject token) {
 	PDFDoc *doc = getDoc(env, clazz);
 
-	if (!doc || !doc->isOk())
-		return;
+	// nothing is drawn, the canvas keeps what it had.
+	if (!doc || !doc->isOk() || !doc->getCatalog()->getPage(firstPage))
+		return JNI_FALSE;
 
 	SkCanvas *canvas = getCanvas(env, jcanvas);
+	abort_data_t abort = { env, token };
+	if (checkAbort(&abort))
+		return JNI_FALSE;
 
-	AndroidOutputDev out(canvas, doc->getXRef());
+	AndroidRenderCache *cache = getCache(env, clazz);
+	AndroidOutputDev out(canvas, doc->getXRef(), cache);
+	out.setAbortCheck(checkAbort, &abort);
+	RenderProfile profile(doc, &out, cache);
 	double hDPI = gethDPI(env, clazz);
 	double vDPI = getvDPI(env, clazz);
 	int rotate = getRotate(env, clazz);
@@ -191,23 +257,34 @@ static void drawPages(JNIEnv *env, jobject clazz, jobject jcanvas,
 	int crop = getCrop(env, clazz);
 
 	doc->displayPages(&out, (int)firstPage, (int)lastPage, hDPI, vDPI, rotate,
-			useMediaBox, crop, 0, NULL, NULL, NULL, NULL);
+			useMediaBox, crop, 0, checkAbort, &abort, NULL, NULL);
+	saveStats(env, clazz, &profile);
+
+	return !checkAbort(&abort);
 }
 
 /*
  * Method:    drawPageSlice
- * Signature: (Landroid/graphics/Canvas;IIIII)V
+ * Signature: (Landroid/graphics/Canvas;IIIIILcom/googlecode/apdfviewer/RenderToken;)Z
  */
-static void drawPageSlice(JNIEnv *env, jobject clazz, jobject jcanvas,
-		jint page, jint sliceX, jint sliceY, jint sliceW, jint sliceH) {
+static jboolean drawPageSlice(JNIEnv *env, jobject clazz, jobject jcanvas,
+		jint page, jint sliceX, jint sliceY, jint sliceW, jint sliceH,
+		jobject token) {
 	PDFDoc *doc = getDoc(env, clazz);
 
-	if (!doc || !doc->isOk())
-		return;
+	// nothing is drawn, the canvas keeps what it had.
+	if (!doc || !doc->isOk() || !doc->getCatalog()->getPage(page))
+		return JNI_FALSE;
 
 	SkCanvas *canvas = getCanvas(env, jcanvas);
+	abort_data_t abort = { env, token };
+	if (checkAbort(&abort))
+		return JNI_FALSE;
 
-	AndroidOutputDev out(canvas, doc->getXRef());
+	AndroidRenderCache *cache = getCache(env, clazz);
+	AndroidOutputDev out(canvas, doc->getXRef(), cache);
+	out.setAbortCheck(checkAbort, &abort);
+	RenderProfile profile(doc, &out, cache);
 	double hDPI = gethDPI(env, clazz);
 	double vDPI = getvDPI(env, clazz);
 	int rotate = getRotate(env, clazz);
@@ -215,38 +292,245 @@ static void drawPageSlice(JNIEnv *env, jobject clazz, jobject jcanvas,
 	int crop = getCrop(env, clazz);
 
 	doc->displayPageSlice(&out, (int) page, hDPI, vDPI, rotate, useMediaBox, crop, 0,
-			sliceX, sliceY, sliceW, sliceH, NULL, NULL, NULL, NULL);
+			sliceX, sliceY, sliceW, sliceH, checkAbort, &abort, NULL, NULL);
+	saveStats(env, clazz, &profile);
+
+	return !checkAbort(&abort);
 }
 
 /*
- * Method:    init_native
- * Signature: (Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)I
+ * Create the base stream of a document, map regular files and read
+ * others through stdio. *file is opened once and reused, it has a
+ * descriptor of its own and is closed with the document.
  */
-static jint native_init(JNIEnv *env, jobject clazz, jobject descriptor,
-		jstring ownerPassword, jstring userPassword) {
-	int fd = env->GetIntField(descriptor, fields.fd);
-	FILE *file = fdopen(fd, "r");
-	if (!file) {
-		LOGV("Open fd failed: %d", fd);
+static BaseStream *openStream(int fd, jboolean reopen, FILE **file) {
+	Object obj;
+	obj.initNull();
+	BaseStream *stream = MappedStream::create(fd, &obj);
+	if (stream)
+		return stream;
+
+	// not a regular file, read through stdio.
+	if (!*file) {
+		if (reopen) {
+			// a new open file description, so the file offset is not
+			// shared with documents rendering on other threads.
+			char path[32];
+			snprintf(path, sizeof(path), "/proc/self/fd/%d", fd);
+			*file = fopen(path, "r");
+			if (!*file) {
+				LOGV("Reopen fd failed: %d", fd);
+				return NULL;
+			}
+		} else {
+			// the descriptor itself belongs to the caller.
+			int own = dup(fd);
+			if (own >= 0)
+				*file = fdopen(own, "r");
+			if (!*file) {
+				LOGV("Open fd failed: %d", fd);
+				if (own >= 0)
+					close(own);
+				return NULL;
+			}
+		}
 	}
 
-	Object obj;
 	obj.initNull();
-	FileStream *stream = new FileStream(file, 0, gFalse, 0, &obj);
-	if (!stream) {
-		LOGV("Create stream failed: %d", fd);
+	return new FileStream(*file, 0, gFalse, 0, &obj);
+}
+
+/*
+ * Open a document through its index.
+ * Return NULL if there is no valid index. If the index did not work the
+ * stream is deleted and *stream is set to NULL.
+ */
+static PDFDoc *openIndexed(JNIEnv *env, BaseStream **stream,
+		jstring indexPath, jstring fingerprint) {
+	const char *path = env->GetStringUTFChars(indexPath, NULL);
+	const char *fp = env->GetStringUTFChars(fingerprint, NULL);
+	GooString fpStr(fp);
+	PDFDoc *doc = NULL;
+
+	DocumentIndex *index = DocumentIndex::load(path, &fpStr);
+	if (index) {
+		doc = new PDFDoc(*stream, index->createXRef(*stream));
+		if (doc->isOk()) {
+			index->setPageRefs(doc->getCatalog());
+			// recently used, indexes are deleted oldest first.
+			utime(path, NULL);
+		} else {
+			LOGV("Open with index failed: %s", path);
+			delete doc;
+			doc = NULL;
+			*stream = NULL;
+			unlink(path);
+		}
+		delete index;
 	}
 
-	PDFDoc *doc = new PDFDoc(stream);
-	if (!doc->isOk()) {
-		LOGV("Open failed: %d", doc->getErrorCode());
+	env->ReleaseStringUTFChars(fingerprint, fp);
+	env->ReleaseStringUTFChars(indexPath, path);
+	return doc;
+}
+
+/*
+ * Method:    init_native
+ * Signature: (Ljava/io/FileDescriptor;Ljava/lang/String;Ljava/lang/String;ZLjava/lang/String;Ljava/lang/String;)I
+ */
+static jint native_init(JNIEnv *env, jobject clazz, jobject descriptor,
+		jstring ownerPassword, jstring userPassword, jboolean reopen,
+		jstring indexPath, jstring fingerprint) {
+	int fd = env->GetIntField(descriptor, fields.fd);
+	FILE *file = NULL;
+	PDFDoc *doc = NULL;
+
+	BaseStream *stream = openStream(fd, reopen, &file);
+	if (!stream)
+		return 0;
+
+	// a known document, skip parsing the xref table and the page tree.
+	if (indexPath && fingerprint) {
+		doc = openIndexed(env, &stream, indexPath, fingerprint);
+		if (!doc && !stream && !(stream = openStream(fd, reopen, &file))) {
+			if (file)
+				fclose(file);
+			return 0;
+		}
 	}
 
+	if (!doc) {
+		doc = new PDFDoc(stream);
+		if (!doc->isOk()) {
+			LOGV("Open failed: %d", doc->getErrorCode());
+			if (reopen) {
+				delete doc;
+				if (file)
+					fclose(file);
+				return 0;
+			}
+		}
+	}
+
+	env->SetIntField(clazz, fields.nativeFile, (jint) file);
 	return (jint) doc;
 }
 
+/*
+ * Method:    native_fingerprint
+ * Signature: (Ljava/io/FileDescriptor;)Ljava/lang/String;
+ */
+static jstring native_fingerprint(JNIEnv *env, jclass clazz, jobject descriptor) {
+	int fd = env->GetIntField(descriptor, fields.fd);
+	GooString *fp = DocumentIndex::fingerprint(fd);
+	if (!fp)
+		return NULL;
+
+	jstring s = env->NewStringUTF(fp->getCString());
+	delete fp;
+	return s;
+}
+
+/*
+ * Method:    native_saveIndex
+ * Signature: (Ljava/lang/String;Ljava/lang/String;)Z
+ */
+static jboolean native_saveIndex(JNIEnv *env, jobject clazz, jstring indexPath,
+		jstring fingerprint) {
+	PDFDoc *doc = getDoc(env, clazz);
+	if (!doc || !doc->isOk())
+		return JNI_FALSE;
+
+	const char *path = env->GetStringUTFChars(indexPath, NULL);
+	const char *fp = env->GetStringUTFChars(fingerprint, NULL);
+	GooString fpStr(fp);
+	bool ok = DocumentIndex::save(path, &fpStr, doc);
+	if (!ok)
+		LOGV("Save index failed: %s", path);
+
+	env->ReleaseStringUTFChars(fingerprint, fp);
+	env->ReleaseStringUTFChars(indexPath, path);
+	return ok;
+}
+
+/*
+ * Method:    native_createCache
+ * Signature: (I)I
+ */
+static jint native_createCache(JNIEnv *env, jobject clazz, jint imageBytes) {
+	return (jint) new AndroidRenderCache(imageBytes);
+}
+
+/*
+ * Method:    native_trimCache
+ * Signature: (I)V
+ */
+static void native_trimCache(JNIEnv *env, jobject clazz, jint imageBytes) {
+	AndroidRenderCache *cache = getCache(env, clazz);
+	if (!cache)
+		return;
+
+	if (imageBytes < 0)
+		cache->clear();
+	else
+		cache->trim(imageBytes);
+}
+
+/*
+ * Method:    native_destroy
+ * Signature: ()V
+ */
+static void native_destroy(JNIEnv *env, jobject clazz) {
+	PDFDoc *doc = getDoc(env, clazz);
+	delete doc;
+	env->SetIntField(clazz, fields.nativePDF, 0);
+
+	// the streams of the document read it until now.
+	FILE *file = getFile(env, clazz);
+	if (file)
+		fclose(file);
+	env->SetIntField(clazz, fields.nativeFile, 0);
+}
+
+/*
+ * Method:    native_destroyCache
+ * Signature: ()V
+ */
+static void native_destroyCache(JNIEnv *env, jobject clazz) {
+	AndroidRenderCache *cache = getCache(env, clazz);
+	delete cache;
+	env->SetIntField(clazz, fields.nativeCache, 0);
+}
+
+/*
+ * Method:    getImageCacheStats
+ * Signature: ()[I
+ */
+static jintArray getImageCacheStats(JNIEnv *env, jobject clazz) {
+	AndroidRenderCache *cache = getCache(env, clazz);
+	jint stats[5] = { 0, 0, 0, 0, 0 };
+	if (cache)
+		cache->getImageStats(&stats[0], &stats[1], &stats[2], &stats[3], &stats[4]);
+
+	jintArray result = env->NewIntArray(5);
+	if (result)
+		env->SetIntArrayRegion(result, 0, 5, stats);
+	return result;
+}
+
+/*
+ * Method:    setProfiling
+ * Signature: (Z)V
+ */
+static void setProfiling(JNIEnv *env, jclass clazz, jboolean profiling) {
+	RenderProfile::setProfiling(profiling);
+}
+
 static void native_class_init(JNIEnv* env, jclass clazz) {
 	fields.nativePDF = env->GetFieldID(clazz, "mNativePDF", "I");
+	fields.nativeCache = env->GetFieldID(clazz, "mNativeCache", "I");
+	fields.nativeFile = env->GetFieldID(clazz, "mNativeFile", "I");
+	fields.renderStats = env->GetFieldID(clazz, "mRenderStats", "[D");
 	fields.useMediaBox = env->GetFieldID(clazz, "mUseMediaBox", "Z");
 	fields.crop = env->GetFieldID(clazz, "mCrop", "Z");
 	fields.hDPI = env->GetFieldID(clazz, "mH_DPI", "D");
@@ -259,6 +543,9 @@ static void native_class_init(JNIEnv* env, jclass clazz) {
 	jclass fd = env->FindClass("java/io/FileDescriptor");
 	fields.fd = env->GetFieldID(fd, "descriptor", "I");
 
+	jclass token = env->FindClass("com/googlecode/apdfviewer/RenderToken");
+	fields.cancelled = env->GetFieldID(token, "mCancelled", "Z");
+
 	globalParams = new GlobalParams();
 
 }
@@ -267,17 +554,28 @@ static void native_class_init(JNIEnv* env, jclass clazz) {
 
 static JNINativeMethod gMethods[] = {
 		{ "native_class_init", "()V", (void*) native_class_init },
-		{ "getPageMediaWidth", "(I)D", (void*) getPageMediaWidth },
-		{ "getPageMediaHeight", "(I)D",	(void*) getPageMediaHeight },
-		{ "getPageCropWidth", "(I)D", (void*) getPageCropWidth },
-		{ "getPageCropHeight", "(I)D", (void*) getPageCropHeight },
-		{ "getPageRotate", "(I)I", (void*) getPageRotate },
+		{ "native_getPageGeometry", "(II[D[I)V", (void*) native_getPageGeometry },
 		{ "isOk", "()Z", (void*) isOk },
-		{"getNumPages", "()I", (void*) getNumPages },
-		{ "drawPage", "(Landroid/graphics/Canvas;I)V", (void*) drawPage },
-		{ "drawPages", "(Landroid/graphics/Canvas;II)V", (void*) drawPages },
-		{"drawPageSlice", "(Landroid/graphics/Canvas;IIIII)V", (void*) drawPageSlice },
-		{ "native_init", "(Ljava/io/FileDescriptor;Ljava/lang/String;Ljava/lang/String;)I", (void*) native_init }
+		{ "native_getNumPages", "()I", (void*) native_getNumPages },
+		{ "native_isPageTreeRead", "()Z", (void*) native_isPageTreeRead },
+		{ "drawPage", "(Landroid/graphics/Canvas;ILcom/googlecode/apdfviewer/RenderToken;)Z",
+				(void*) drawPage },
+		{ "drawPages", "(Landroid/graphics/Canvas;IILcom/googlecode/apdfviewer/RenderToken;)Z",
+				(void*) drawPages },
+		{"drawPageSlice", "(Landroid/graphics/Canvas;IIIIILcom/googlecode/apdfviewer/RenderToken;)Z",
+				(void*) drawPageSlice },
+		{ "native_init", "(Ljava/io/FileDescriptor;Ljava/lang/String;Ljava/lang/String;ZLjava/lang/String;Ljava/lang/String;)I",
+			(void*) native_init },
+		{ "native_fingerprint", "(Ljava/io/FileDescriptor;)Ljava/lang/String;",
+			(void*) native_fingerprint },
+		{ "native_saveIndex", "(Ljava/lang/String;Ljava/lang/String;)Z",
+			(void*) native_saveIndex },
+		{ "native_createCache", "(I)I", (void*) native_createCache },
+		{ "getImageCacheStats", "()[I", (void*) getImageCacheStats },
+		{ "native_trimCache", "(I)V", (void*) native_trimCache },
+		{ "native_destroy", "()V", (void*) native_destroy },
+		{ "native_destroyCache", "()V", (void*) native_destroyCache },
+		{ "setProfiling", "(Z)V", (void*) setProfiling }
 };
 
 static int registerNativeMethods(JNIEnv* env, const char* className,
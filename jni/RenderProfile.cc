@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#include <string.h>
+
+#include <goo/GooHash.h>
+#include <goo/GooString.h>
+#include <poppler/PDFDoc.h>
+#include <poppler/GlobalParams.h>
+#include <poppler/ProfileData.h>
+#include <poppler/AndroidOutputDev.h>
+#include <poppler/AndroidRenderCache.h>
+
+#include "MappedStream.h"
+#include "RenderProfile.h"
+
+// operators by class, the others count as OTHER_TIME
+static const char *pathOps[] = {
+	"m", "l", "c", "v", "y", "h", "re", "S", "s", "f", "F", "f*",
+	"B", "B*", "b", "b*", "n", "W", "W*", NULL
+};
+
+static const char *textOps[] = {
+	"BT", "ET", "Tc", "Tw", "Tz", "TL", "Tf", "Tr", "Ts", "Td", "TD",
+	"Tm", "T*", "Tj", "TJ", "'", "\"", "d0", "d1", NULL
+};
+
+static const char *imageOps[] = {
+	"Do", "BI", "ID", "EI", NULL
+};
+
+static const char *stateOps[] = {
+	"q", "Q", "cm", "w", "J", "j", "M", "d", "ri", "i", "gs",
+	"CS", "cs", "SC", "SCN", "sc", "scn", "G", "g", "RG", "rg", "K", "k",
+	NULL
+};
+
+static bool isOp(const char **ops, const char *name)
+{
+	for (; *ops; ops++) {
+		if (!strcmp(*ops, name))
+			return true;
+	}
+	return false;
+}
+
+static double elapsedMs(const struct timeval *start)
+{
+	struct timeval now;
+	gettimeofday(&now, NULL);
+	return (now.tv_sec - start->tv_sec) * 1000.0
+			+ (now.tv_usec - start->tv_usec) / 1000.0;
+}
+
+RenderProfile::RenderProfile(PDFDoc *doc, AndroidOutputDev *out,
+		AndroidRenderCache *cache):
+	m_out(out), m_cache(cache), m_stream(NULL), m_fetched(0),
+	m_hits(0), m_misses(0)
+{
+	gettimeofday(&m_start, NULL);
+
+	// documents are opened on a MappedStream or a FileStream, only the
+	// former is a strWeird stream.
+	BaseStream *base = doc->getBaseStream();
+	if (base && base->getKind() == strWeird) {
+		m_stream = (MappedStream *)base;
+		m_fetched = m_stream->getFetchedBytes();
+	}
+
+	// other renders may use the cache meanwhile, the counts are shared.
+	if (m_cache) {
+		int evictions, bytes, count;
+		m_cache->getImageStats(&m_hits, &m_misses, &evictions, &bytes, &count);
+	}
+
+	m_profiling = globalParams->getProfileCommands();
+	if (m_profiling)
+		m_out->startProfile();
+}
+
+void RenderProfile::finish(double *stats)
+{
+	memset(stats, 0, STATS_SIZE * sizeof(double));
+	stats[TOTAL_TIME] = elapsedMs(&m_start);
+
+	GooHash *hash = m_profiling ? m_out->endProfile() : NULL;
+	if (hash) {
+		GooHashIter *iter;
+		GooString *name;
+		void *p;
+
+		hash->startIter(&iter);
+		while (hash->getNext(&iter, &name, &p)) {
+			ProfileData *data = (ProfileData *)p;
+			double ms = data->getTotal() * 1000.0;
+			const char *op = name->getCString();
+
+			if (isOp(pathOps, op))
+				stats[PATH_TIME] += ms;
+			else if (isOp(textOps, op))
+				stats[TEXT_TIME] += ms;
+			else if (isOp(imageOps, op))
+				stats[IMAGE_TIME] += ms;
+			else if (isOp(stateOps, op))
+				stats[STATE_TIME] += ms;
+			else
+				stats[OTHER_TIME] += ms;
+			stats[OPERATORS] += data->getCount();
+		}
+		deleteGooHash(hash, ProfileData);
+	}
+
+	stats[IMAGE_DECODE_TIME] = m_out->getImageDecodeTime() * 1000.0;
+	stats[FONT_LOAD_TIME] = m_out->getFontLoadTime() * 1000.0;
+	stats[GLYPHS] = m_out->getGlyphCount();
+	stats[DRAW_CALLS] = m_out->getDrawCallCount();
+
+	if (m_stream)
+		stats[BYTES_FETCHED] = m_stream->getFetchedBytes() - m_fetched;
+
+	if (m_cache) {
+		int hits, misses, evictions, bytes, count;
+		m_cache->getImageStats(&hits, &misses, &evictions, &bytes, &count);
+		stats[CACHE_HITS] = hits - m_hits;
+		stats[CACHE_MISSES] = misses - m_misses;
+	}
+}
+
+void RenderProfile::setProfiling(bool profiling)
+{
+	globalParams->setProfileCommands(profiling);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#ifndef RENDERPROFILE_H
+#define RENDERPROFILE_H
+
+#include <sys/time.h>
+
+#include <poppler/Stream.h>
+
+class PDFDoc;
+class AndroidOutputDev;
+class AndroidRenderCache;
+class MappedStream;
+
+/*
+ * Statistics of one render, measured from construction to finish().
+ * The layout of the stats array matches RenderStats.java.
+ */
+class RenderProfile {
+public:
+	enum {
+		TOTAL_TIME,		// milliseconds
+		PATH_TIME,		// operators, when profiling is on
+		TEXT_TIME,
+		IMAGE_TIME,		// Do and inline images, includes forms
+		STATE_TIME,
+		OTHER_TIME,
+		OPERATORS,
+		IMAGE_DECODE_TIME,
+		FONT_LOAD_TIME,
+		BYTES_FETCHED,
+		GLYPHS,
+		DRAW_CALLS,
+		CACHE_HITS,
+		CACHE_MISSES,
+		STATS_SIZE
+	};
+
+	/*
+	 * Start measuring a render of doc on out, start operator profiling
+	 * if it is enabled.
+	 */
+	RenderProfile(PDFDoc *doc, AndroidOutputDev *out, AndroidRenderCache *cache);
+
+	/*
+	 * Stop measuring and fill the STATS_SIZE stats.
+	 */
+	void finish(double *stats);
+
+	/*
+	 * Turn operator profiling on or off, it times every operator.
+	 */
+	static void setProfiling(bool profiling);
+
+private:
+	struct timeval m_start;
+	AndroidOutputDev *m_out;
+	AndroidRenderCache *m_cache;
+	MappedStream *m_stream;
+	Guint m_fetched;
+	int m_hits;
+	int m_misses;
+	bool m_profiling;
+};
+
+#endif
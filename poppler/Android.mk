@@ -54,6 +54,8 @@ LOCAL_SRC_FILES :=      \
 	poppler/Outline.cc		\
 	poppler/OutputDev.cc 		\
 	poppler/AndroidOutputDev.cc	\
+	poppler/AndroidColorConverter.cc	\
+	poppler/AndroidRenderCache.cc	\
 	poppler/Page.cc 		\
 	poppler/PageTransition.cc	\
 	poppler/Parser.cc 		\
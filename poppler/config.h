@@ -97,7 +97,7 @@
 /* #define POPPLER_WITH_GDK 1 */
 
 /* Enable multithreading support. */
-/* #define MULTITHREADED 1 */
+#define MULTITHREADED 1
 
 /* Generate OPI comments in PS output. */
 #define OPI_SUPPORT 1
@@ -21,6 +21,9 @@
 // gUnlockMutex(&m);
 // ...
 // gDestroyMutex(&m);
+//
+// gInitRecursiveMutex(&m) initializes a mutex which may be locked
+// again by the thread holding it.
 
 #ifdef WIN32
 
@@ -29,6 +32,7 @@
 typedef CRITICAL_SECTION GooMutex;
 
 #define gInitMutex(m) InitializeCriticalSection(m)
+#define gInitRecursiveMutex(m) InitializeCriticalSection(m)
 #define gDestroyMutex(m) DeleteCriticalSection(m)
 #define gLockMutex(m) EnterCriticalSection(m)
 #define gUnlockMutex(m) LeaveCriticalSection(m)
@@ -40,6 +44,14 @@ typedef CRITICAL_SECTION GooMutex;
 typedef pthread_mutex_t GooMutex;
 
 #define gInitMutex(m) pthread_mutex_init(m, NULL)
+#define gInitRecursiveMutex(m) \
+  do { \
+    pthread_mutexattr_t attr; \
+    pthread_mutexattr_init(&attr); \
+    pthread_mutexattr_settype(&attr, PTHREAD_MUTEX_RECURSIVE); \
+    pthread_mutex_init(m, &attr); \
+    pthread_mutexattr_destroy(&attr); \
+  } while (0)
 #define gDestroyMutex(m) pthread_mutex_destroy(m)
 #define gLockMutex(m) pthread_mutex_lock(m)
 #define gUnlockMutex(m) pthread_mutex_unlock(m)
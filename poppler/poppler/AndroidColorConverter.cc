@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#ifdef USE_GCC_PRAGMAS
+#pragma implementation
+#endif
+
+#include <config.h>
+
+#include <string.h>
+
+#include <goo/gmem.h>
+
+#include <SkColorPriv.h>
+
+#include "AndroidColorConverter.h"
+#include "GfxState_helpers.h"
+
+// the color space which actually converts to RGB.
+static GfxColorSpaceMode deviceMode(GfxColorSpace *cs)
+{
+#ifndef USE_CMS
+	if (cs->getMode() == csICCBased)
+		return ((GfxICCBasedColorSpace *)cs)->getAlt()->getMode();
+#endif
+	return cs->getMode();
+}
+
+static inline SkPMColor packRGB(GfxRGB *rgb)
+{
+	return SkPackARGB32(0xFF, colToByte(rgb->r), colToByte(rgb->g),
+			colToByte(rgb->b));
+}
+
+AndroidColorConverter::AndroidColorConverter(GfxImageColorMap *colorMap):
+	m_color_map(colorMap), m_mode(modeGeneric),
+	m_ncomps(colorMap->getNumPixelComps()),
+	m_palette(NULL), m_palette16(NULL), m_line(NULL), m_line_size(0),
+	m_gray(NULL), m_lut(NULL), m_cmyk(NULL)
+{
+	// ImageStream gives 16 bit components as 8 bit ones, the color map
+	// tables are built for that, getColor() is not.
+	int bits = colorMap->getBits();
+	if (bits > 8)
+		return;
+
+	int n = 1 << bits;
+	Guchar pix[gfxColorMaxComps];
+	GfxRGB rgb;
+	GfxGray gray;
+	int i, k;
+
+	if (m_ncomps == 1) {
+		m_palette = (SkPMColor *)gmallocn(256, sizeof(SkPMColor));
+		m_gray = (Guchar *)gmalloc(256);
+		for (i = 0; i < 256; i++) {
+			pix[0] = i < n ? i : n - 1;
+			colorMap->getRGB(pix, &rgb);
+			m_palette[i] = packRGB(&rgb);
+			colorMap->getGray(pix, &gray);
+			m_gray[i] = colToByte(gray);
+		}
+		m_mode = modePalette;
+	} else if (m_ncomps == 3 && deviceMode(colorMap->getColorSpace()) == csDeviceRGB) {
+		// the components are independent, getRGB() of a gray pixel gives
+		// the byte of each component at once.
+		m_lut = (Guchar *)gmallocn(3, 256);
+		for (i = 0; i < 256; i++) {
+			pix[0] = pix[1] = pix[2] = i < n ? i : n - 1;
+			colorMap->getRGB(pix, &rgb);
+			m_lut[i] = colToByte(rgb.r);
+			m_lut[256 + i] = colToByte(rgb.g);
+			m_lut[512 + i] = colToByte(rgb.b);
+		}
+		m_mode = modeRGB;
+	} else if (m_ncomps == 4 && deviceMode(colorMap->getColorSpace()) == csDeviceCMYK) {
+		GfxColor color;
+		m_cmyk = (double *)gmallocn(4 * 256, sizeof(double));
+		for (i = 0; i < 256; i++) {
+			pix[0] = pix[1] = pix[2] = pix[3] = i < n ? i : n - 1;
+			colorMap->getColor(pix, &color);
+			for (k = 0; k < 4; k++)
+				m_cmyk[k * 256 + i] = colToDbl(color.c[k]);
+		}
+		m_mode = modeCMYK;
+	}
+}
+
+AndroidColorConverter::~AndroidColorConverter()
+{
+	gfree(m_palette);
+	gfree(m_palette16);
+	gfree(m_line);
+	gfree(m_gray);
+	gfree(m_lut);
+	gfree(m_cmyk);
+}
+
+void AndroidColorConverter::convertLine(Guchar *in, SkPMColor *out, int width,
+		int step)
+{
+	int x;
+
+	switch (m_mode) {
+	case modePalette:
+		if (step == 1) {
+			for (x = 0; x < width; x++)
+				out[x] = m_palette[in[x]];
+		} else {
+			for (x = 0; x < width; x++, in += step)
+				out[x] = m_palette[in[0]];
+		}
+		break;
+	case modeRGB: {
+		const Guchar *r = m_lut, *g = m_lut + 256, *b = m_lut + 512;
+		int stride = 3 * step;
+		for (x = 0; x < width; x++, in += stride)
+			out[x] = SkPackARGB32(0xFF, r[in[0]], g[in[1]], b[in[2]]);
+		break;
+	}
+	case modeCMYK:
+		convertCMYK(in, out, width, step);
+		break;
+	default:
+		convertGeneric(in, out, width, step);
+		break;
+	}
+}
+
+void AndroidColorConverter::convertLine16(Guchar *in, uint16_t *out, int width,
+		int step)
+{
+	int x;
+
+	switch (m_mode) {
+	case modePalette:
+		if (!m_palette16) {
+			m_palette16 = (uint16_t *)gmallocn(256, sizeof(uint16_t));
+			for (x = 0; x < 256; x++)
+				m_palette16[x] = SkPixel32ToPixel16(m_palette[x]);
+		}
+		for (x = 0; x < width; x++, in += step)
+			out[x] = m_palette16[in[0]];
+		break;
+	case modeRGB: {
+		const Guchar *r = m_lut, *g = m_lut + 256, *b = m_lut + 512;
+		int stride = 3 * step;
+		for (x = 0; x < width; x++, in += stride)
+			out[x] = SkPack888ToRGB16(r[in[0]], g[in[1]], b[in[2]]);
+		break;
+	}
+	default:
+		// through a line of 32 bit colors.
+		if (m_line_size < width) {
+			gfree(m_line);
+			m_line = (SkPMColor *)gmallocn(width, sizeof(SkPMColor));
+			m_line_size = width;
+		}
+		convertLine(in, m_line, width, step);
+		for (x = 0; x < width; x++)
+			out[x] = SkPixel32ToPixel16(m_line[x]);
+		break;
+	}
+}
+
+void AndroidColorConverter::getPalette(SkPMColor *colors)
+{
+	memcpy(colors, m_palette, 256 * sizeof(SkPMColor));
+}
+
+void AndroidColorConverter::convertIndexLine(Guchar *in, Guchar *out, int width,
+		int step)
+{
+	if (step == 1) {
+		memcpy(out, in, width);
+	} else {
+		for (int x = 0; x < width; x++, in += step)
+			out[x] = in[0];
+	}
+}
+
+void AndroidColorConverter::convertGrayLine(Guchar *in, Guchar *out, int width,
+		int step)
+{
+	int x;
+
+	if (m_gray) {
+		for (x = 0; x < width; x++, in += step)
+			out[x] = m_gray[in[0]];
+	} else {
+		GfxGray gray;
+		int stride = m_ncomps * step;
+		for (x = 0; x < width; x++, in += stride) {
+			m_color_map->getGray(in, &gray);
+			out[x] = colToByte(gray);
+		}
+	}
+}
+
+void AndroidColorConverter::convertGeneric(Guchar *in, SkPMColor *out, int width,
+		int step)
+{
+	GfxRGB rgb;
+	int stride = m_ncomps * step;
+
+	for (int x = 0; x < width; x++, in += stride) {
+		m_color_map->getRGB(in, &rgb);
+		out[x] = packRGB(&rgb);
+	}
+}
+
+void AndroidColorConverter::convertCMYK(Guchar *in, SkPMColor *out, int width,
+		int step)
+{
+	// same as GfxDeviceCMYKColorSpace::getRGB(). Scanned pages have long
+	// runs of one color, so the last result is reused.
+	Guint last = 0;
+	SkPMColor lastColor = 0;
+	GBool haveLast = gFalse;
+	int stride = 4 * step;
+
+	for (int x = 0; x < width; x++, in += stride) {
+		Guint key = (in[0] << 24) | (in[1] << 16) | (in[2] << 8) | in[3];
+		if (haveLast && key == last) {
+			out[x] = lastColor;
+			continue;
+		}
+
+		double c = m_cmyk[in[0]], m = m_cmyk[256 + in[1]];
+		double y = m_cmyk[512 + in[2]], k = m_cmyk[768 + in[3]];
+		double r, g, b;
+		cmykToRGBMatrixMultiplication(c, m, y, k, 1 - c, 1 - m, 1 - y, 1 - k,
+				r, g, b);
+
+		GfxRGB rgb;
+		rgb.r = clip01(dblToCol(r));
+		rgb.g = clip01(dblToCol(g));
+		rgb.b = clip01(dblToCol(b));
+
+		last = key;
+		lastColor = out[x] = packRGB(&rgb);
+		haveLast = gTrue;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#ifndef ANDROIDCOLORCONVERTER_H
+#define ANDROIDCOLORCONVERTER_H
+
+#ifdef USE_GCC_PRAGMAS
+#pragma interface
+#endif
+
+#include <poppler/GfxState.h>
+
+#include <SkTypes.h>
+
+/*
+ * Convert lines of image pixels to opaque SkPMColors, or to RGB_565
+ * pixels.
+ *
+ * Single component images (gray, indexed, separation) go through a
+ * table of the final colors, RGB through per component tables and CMYK
+ * through decoded component tables, so the conversion makes no virtual
+ * call per pixel. Other images use GfxImageColorMap::getRGB().
+ */
+class AndroidColorConverter {
+public:
+	// Constructor, the tables are built for colorMap.
+	AndroidColorConverter(GfxImageColorMap *colorMap);
+
+	// Destructor.
+	~AndroidColorConverter();
+
+	// Convert width pixels from an ImageStream line, taking every
+	// step-th pixel of it.
+	void convertLine(Guchar *in, SkPMColor *out, int width, int step = 1);
+
+	// Convert width pixels to RGB_565.
+	void convertLine16(Guchar *in, uint16_t *out, int width, int step = 1);
+
+	// Convert width pixels to gray levels, for soft masks.
+	void convertGrayLine(Guchar *in, Guchar *out, int width, int step = 1);
+
+	// Whether the pixels are indexes of a palette of 256 colors, so
+	// they can be kept as they are in an Index8 bitmap.
+	bool hasPalette() const { return m_mode == modePalette; }
+
+	// Copy the palette, 256 colors.
+	void getPalette(SkPMColor *colors);
+
+	// Copy width pixels of a palette image, taking every step-th one.
+	void convertIndexLine(Guchar *in, Guchar *out, int width, int step = 1);
+
+private:
+	enum Mode {
+		modeGeneric,	// getRGB() per pixel
+		modePalette,	// one component, m_palette
+		modeRGB,		// three components, m_lut
+		modeCMYK		// four components, m_cmyk
+	};
+
+	void convertGeneric(Guchar *in, SkPMColor *out, int width, int step);
+	void convertCMYK(Guchar *in, SkPMColor *out, int width, int step);
+
+	GfxImageColorMap *m_color_map;
+	Mode m_mode;
+	int m_ncomps;
+	SkPMColor *m_palette;		// color of each pixel value
+	uint16_t *m_palette16;		// RGB_565 color of each pixel value
+	SkPMColor *m_line;		// line of converted pixels for RGB_565
+	int m_line_size;
+	Guchar *m_gray;			// gray level of each pixel value
+	Guchar *m_lut;			// 3 x 256 bytes, component value to byte
+	double *m_cmyk;			// 4 x 256 decoded components
+};
+
+#endif
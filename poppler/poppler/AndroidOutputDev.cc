@@ -18,28 +18,42 @@
 #pragma implementation
 #endif
 
+#include <math.h>
+
 #include <poppler/GfxState.h>
 #include <poppler/GfxFont.h>
 
 #include <goo/GooString.h>
-#include <goo/GooHash.h>
+#include <goo/gmem.h>
+#include <goo/GooTimer.h>
 #include <goo/GooVector.h>
 
 #include <SkTypeface.h>
 #include <SkStream.h>
 #include <SkColorPriv.h>
+#include <SkShader.h>
+#include <SkColorTable.h>
+#include <SkDevice.h>
 
 #define LOG_NDEBUG 0
 #define LOG_TAG "PDFDocument"
 #include <cutils/log.h>
 
 #include "AndroidOutputDev.h"
+#include "AndroidColorConverter.h"
+#include "AndroidRenderCache.h"
 
 
-#define GfxRGB2SkColor(rgb) (SkColorSetRGB(colToByte(rgb.r),colToByte(rgb.g),colToByte(rgb.b)))
+// coarsest decimation of images, 1/64 of the lines and columns
+#define MAX_IMAGE_STEP 64
+
+// stencil masks up to this many pixels are drawn in batches
+#define STENCIL_BATCH_AREA (128 * 128)
 
-// global table to cache fonts
-static GooHash g_font_table(gTrue);
+// largest ALPHA_8 layer a batch of stencils is drawn into
+#define STENCIL_LAYER_BYTES (1024 * 1024)
+
+#define GfxRGB2SkColor(rgb) (SkColorSetRGB(colToByte(rgb.r),colToByte(rgb.g),colToByte(rgb.b)))
 
 // helper functions
 static SkPaint::Join getLineJoin(GfxState *state)
@@ -80,49 +94,36 @@ static SkPaint::Cap getLineCap(GfxState *state)
 	return cap;
 }
 
-static SkTypeface *getFont(GfxState *state, XRef *xref)
+// Create the typeface of a font, referenced for the caller.
+static SkTypeface *createFont(GfxFont *gfxFont, XRef *xref)
 {
-	GfxFont *gfxFont;
-	GfxFontType fontType;
-	GooString *fileName;
 	Ref embRef;
 	char *tmpBuf = NULL;
 	int tmpBufLen;
 	SkTypeface *typeface = 0;
 
-	if (!(gfxFont = state->getFont())) {
-		return 0;
-	}
-
-	// cached?
-	GooString *font_id_str = GooString::fromInt(gfxFont->getID()->num);
-	typeface = (SkTypeface *)g_font_table.lookupInt(font_id_str);
-
-	// create font
-	if (!typeface) {
-		if (gfxFont->getEmbeddedFontID(&embRef)) {
-			tmpBuf = gfxFont->readEmbFontFile(xref, &tmpBufLen);
-			if (!tmpBuf)
-				return 0;
-
-			SkMemoryStream *fs = new SkMemoryStream(tmpBuf, tmpBufLen);
-			typeface = SkTypeface::CreateFromStream(fs);
-		} else {
-			LOGV("Not embed font!");
-			SkTypeface::Style style = SkTypeface::kNormal;
-			if(gfxFont->isItalic())
-				style = SkTypeface::kItalic;
-			if(gfxFont->isBold())
-				style = SkTypeface::kBold;
-			if(gfxFont->isBold() && gfxFont->isItalic())
-				style = SkTypeface::kBoldItalic;
-
-			typeface = SkTypeface::CreateFromName(gfxFont->getName()->getCString(),style);
-		}
-
-		g_font_table.add(font_id_str, (int)typeface);
+	if (gfxFont->getEmbeddedFontID(&embRef)) {
+		tmpBuf = gfxFont->readEmbFontFile(xref, &tmpBufLen);
+		if (!tmpBuf)
+			return 0;
+
+		// the stream keeps a copy of the font file, and the typeface
+		// keeps the stream.
+		SkMemoryStream *fs = new SkMemoryStream(tmpBuf, tmpBufLen, true);
+		gfree(tmpBuf);
+		typeface = SkTypeface::CreateFromStream(fs);
+		fs->unref();
 	} else {
-		delete font_id_str;
+		LOGV("Not embed font!");
+		SkTypeface::Style style = SkTypeface::kNormal;
+		if(gfxFont->isItalic())
+			style = SkTypeface::kItalic;
+		if(gfxFont->isBold())
+			style = SkTypeface::kBold;
+		if(gfxFont->isBold() && gfxFont->isItalic())
+			style = SkTypeface::kBoldItalic;
+
+		typeface = SkTypeface::CreateFromName(gfxFont->getName()->getCString(),style);
 	}
 
 	return typeface;
@@ -189,13 +190,53 @@ static void doFill(SkCanvas *canvas, GfxState *state, SkPath::FillType type)
 
 // AndroidOutputDev
 
-AndroidOutputDev::AndroidOutputDev(SkCanvas *canvas, XRef *xref):
-	m_canvas(canvas), m_xref(xref)
+AndroidOutputDev::AndroidOutputDev(SkCanvas *canvas, XRef *xref,
+		AndroidRenderCache *cache):
+	m_canvas(canvas), m_xref(xref), m_cache(cache), m_abortCheckCbk(NULL), m_abortCheckCbkData(NULL),
+	m_stencil_color(0), m_font(NULL), m_typeface(NULL),
+	m_run_typeface(NULL), m_run_size(0), m_run_color(0), m_run_len(0),
+	m_glyphs(0), m_draw_calls(0),
+	m_image_time(0), m_font_time(0)
 {
+	m_stencil_bounds.setEmpty();
+
+	// images drawn on RGB_565 pages are decoded to at most 16 bits.
+	m_image_config = canvas->getDevice()->accessBitmap(false).config();
+	if (m_image_config != SkBitmap::kRGB_565_Config)
+		m_image_config = SkBitmap::kARGB_8888_Config;
 }
 
 AndroidOutputDev::~AndroidOutputDev()
 {
+	if (m_font)
+		m_font->decRefCnt();
+	SkSafeUnref(m_typeface);
+	SkSafeUnref(m_run_typeface);
+}
+
+SkTypeface *AndroidOutputDev::getFont(GfxState *state)
+{
+	GfxFont *gfxFont = state->getFont();
+	SkTypeface *typeface;
+
+	if (!gfxFont)
+		return 0;
+
+	// fonts are loaded once per document, as every glyph asks.
+	Ref ref = *gfxFont->getID();
+	if (m_cache && m_cache->lookupTypeface(ref, &typeface))
+		return typeface;
+
+	GooTimer timer;
+	typeface = createFont(gfxFont, m_xref);
+	m_font_time += timer.getElapsed();
+	if (m_cache) {
+		SkTypeface *cached = m_cache->putTypeface(ref, typeface);
+		SkSafeUnref(typeface);
+		typeface = cached;
+	}
+
+	return typeface;
 }
 
 void AndroidOutputDev::startPage(int pageNum, GfxState *state)
@@ -205,6 +246,7 @@ void AndroidOutputDev::startPage(int pageNum, GfxState *state)
 }
 
 void AndroidOutputDev::endPage() {
+	flush();
 }
 
 void AndroidOutputDev::drawLink(Link *link, Catalog *catalog)
@@ -218,11 +260,14 @@ void AndroidOutputDev::saveState(GfxState *state)
 
 void AndroidOutputDev::restoreState(GfxState *state)
 {
+	flush();
 	m_canvas->restore();
 }
 
 void AndroidOutputDev::stroke(GfxState *state)
 {
+	flush();
+
 	// path
 	SkPath path = getPath(state, state->getPath(), SkPath::kEvenOdd_FillType);
 
@@ -249,20 +294,27 @@ void AndroidOutputDev::stroke(GfxState *state)
 
 	// draw
 	m_canvas->drawPath(path, paint);
+	m_draw_calls++;
 }
 
 void AndroidOutputDev::fill(GfxState *state)
 {
+	flush();
 	doFill(m_canvas, state, SkPath::kWinding_FillType);
+	m_draw_calls++;
 }
 
 void AndroidOutputDev::eoFill(GfxState *state)
 {
+	flush();
 	doFill(m_canvas, state, SkPath::kEvenOdd_FillType);
+	m_draw_calls++;
 }
 
 void AndroidOutputDev::clip(GfxState *state)
 {
+	flush();
+
 	// path
 	SkPath path = getPath(state, state->getPath(), SkPath::kWinding_FillType);
 
@@ -272,6 +324,8 @@ void AndroidOutputDev::clip(GfxState *state)
 
 void AndroidOutputDev::eoClip(GfxState *state)
 {
+	flush();
+
 	// path
 	SkPath path = getPath(state, state->getPath(), SkPath::kEvenOdd_FillType);
 
@@ -285,39 +339,31 @@ void AndroidOutputDev::drawChar(GfxState *state, double x, double y,
 				CharCode code, int nBytes, Unicode *u, int uLen) {
 
 	double x1, y1;
-	SkPaint paint;
 	GfxRGB rgb;
+	SkColor color = SK_ColorBLACK;
 
 //	LOGV("Char: %d, %d, %d, %d", code, nBytes, *u, uLen);
 
-	// font
-	paint.setTextEncoding(SkPaint::kUTF16_TextEncoding);
-	paint.setTypeface(getFont(state, m_xref));
-	paint.setTextSize(state->getTransformedFontSize());
-	paint.setAntiAlias(true);
-
 	int render = state->getRender();
 	if (render == 3) {
 		// invisible text
 		return;
 	}
 
-	x -= originX;
-	y -= originY;
-	state->transform(x, y, &x1, &y1);
+	flushStencils();
 
 	// fill
 	if (!(render & 1)) {
 		// color
 		state->getFillRGB(&rgb);
-		paint.setColor(GfxRGB2SkColor(rgb));
+		color = GfxRGB2SkColor(rgb);
 	}
 
 	// stroke
 	if ((render & 3) == 1 || (render & 3) == 2) {
 		// color
 		state->getStrokeRGB(&rgb);
-		paint.setColor(GfxRGB2SkColor(rgb));
+		color = GfxRGB2SkColor(rgb);
 	}
 
 	// clip
@@ -325,67 +371,521 @@ void AndroidOutputDev::drawChar(GfxState *state, double x, double y,
 		clip(state);
 	}
 
-	// draw
-	m_canvas->drawText(u, uLen*sizeof(Unicode), x1, y1, paint);
+	if ((render & 3) == 3 || !u || uLen <= 0)
+		return;
+	if (uLen > MAX_GLYPH_RUN / 2)
+		uLen = MAX_GLYPH_RUN / 2;
+
+	// font, looked up again only when it changes.
+	GfxFont *gfxFont = state->getFont();
+	if (gfxFont != m_font) {
+		if (m_font)
+			m_font->decRefCnt();
+		SkSafeUnref(m_typeface);
+		m_font = gfxFont;
+		if (m_font)
+			m_font->incRefCnt();
+		m_typeface = getFont(state);
+	}
+
+	SkScalar size = SkDoubleToScalar(state->getTransformedFontSize());
+	if (m_run_len > 0 && (m_typeface != m_run_typeface || size != m_run_size
+			|| color != m_run_color || m_run_len + 2 * uLen > MAX_GLYPH_RUN))
+		flushText();
+
+	if (m_run_len == 0) {
+		SkSafeUnref(m_run_typeface);
+		m_run_typeface = SkSafeRef(m_typeface);
+		m_run_size = size;
+		m_run_color = color;
+	}
+
+	// one position per character, the characters of a ligature share
+	// its advance.
+	x -= originX;
+	y -= originY;
+	for (int i = 0; i < uLen; i++) {
+		state->transform(x + dx * i / uLen, y + dy * i / uLen, &x1, &y1);
+		Unicode c = u[i];
+		if (c >= 0x10000 && c <= 0x10FFFF) {
+			// a surrogate pair is one character.
+			c -= 0x10000;
+			m_run_text[m_run_len] = 0xD800 + (c >> 10);
+			m_run_pos[m_run_len].set(SkDoubleToScalar(x1), SkDoubleToScalar(y1));
+			m_run_len++;
+			c = 0xDC00 + (c & 0x3FF);
+		} else if (c > 0xFFFF) {
+			c = 0xFFFD;
+		}
+		m_run_text[m_run_len] = c;
+		m_run_pos[m_run_len].set(SkDoubleToScalar(x1), SkDoubleToScalar(y1));
+		m_run_len++;
+	}
+	m_glyphs++;
 }
 
-void AndroidOutputDev::drawImageMask(GfxState *state, Object *ref, Stream *str,
-				     int width, int height, GBool invert,
-				     GBool interpolate, GBool inlineImg)
+void AndroidOutputDev::flushText()
 {
+	if (m_run_len == 0)
+		return;
+
+	SkPaint paint;
+	paint.setTextEncoding(SkPaint::kUTF16_TextEncoding);
+	paint.setTypeface(m_run_typeface);
+	paint.setTextSize(m_run_size);
+	paint.setAntiAlias(true);
+	paint.setColor(m_run_color);
+
+	m_canvas->drawPosText(m_run_text, m_run_len * sizeof(uint16_t), m_run_pos, paint);
+	m_draw_calls++;
+	m_run_len = 0;
 }
 
-void AndroidOutputDev::drawImage(GfxState *state, Object *ref, Stream *str,
-		int width, int height, GfxImageColorMap *colorMap, GBool interpolate,
-		int *maskColors, GBool inlineImg) {
-	// create bitmap
-	SkBitmap bitmap;
-	unsigned int *pixels;
+void AndroidOutputDev::flush()
+{
+	flushText();
+	flushStencils();
+}
+
+// Largest power of two step at which an image still has at least one
+// pixel per device pixel. The CTM maps the unit square to the image.
+static int imageStep(GfxState *state, int width, int height)
+{
+	double *ctm = state->getCTM();
+	double dw = sqrt(ctm[0] * ctm[0] + ctm[1] * ctm[1]);
+	double dh = sqrt(ctm[2] * ctm[2] + ctm[3] * ctm[3]);
+	int step = 1;
+
+	if (dw < 1)
+		dw = 1;
+	if (dh < 1)
+		dh = 1;
+	while (step < MAX_IMAGE_STEP && width / (2.0 * step) >= dw
+			&& height / (2.0 * step) >= dh)
+		step *= 2;
+
+	return step;
+}
+
+static void getImageMatrix(GfxState *state, int width, int height, SkMatrix *matrix)
+{
+	double *ctm = state->getCTM();
+
+	matrix->reset();
+	matrix->postScale(ctm[0]/width, -ctm[3]/height);
+	matrix->postTranslate(ctm[4], ctm[3]+ctm[5]);
+	// TODO: rotate
+}
+
+// Clear the pixels of a line whose components are all in the ranges.
+static void maskColorLine(Guchar *in, SkPMColor *out, int width, int step,
+		int nComps, int *maskColors)
+{
+	int stride = nComps * step;
+
+	for (int x = 0; x < width; x++, in += stride) {
+		int i;
+		for (i = 0; i < nComps; i++) {
+			if (in[i] < maskColors[2*i] || in[i] > maskColors[2*i+1])
+				break;
+		}
+		if (i == nComps)
+			out[x] = 0;
+	}
+}
+
+GBool AndroidOutputDev::decodeImage(SkBitmap *bitmap, Stream *str,
+		int width, int height, int step, GfxImageColorMap *colorMap,
+		int *maskColors)
+{
+	int nComps = colorMap->getNumPixelComps();
+	int bitmapWidth = (width + step - 1) / step;
+	int bitmapHeight = (height + step - 1) / step;
+
+	AndroidColorConverter converter(colorMap);
+
+	// for RGB_565 pages, palette images keep their indexes and others
+	// are reduced to 16 bits. Color key masking needs the alpha.
+	SkBitmap::Config config = SkBitmap::kARGB_8888_Config;
+	if (m_image_config == SkBitmap::kRGB_565_Config && !maskColors)
+		config = converter.hasPalette() ? SkBitmap::kIndex8_Config
+				: SkBitmap::kRGB_565_Config;
+
+	SkColorTable *ctable = NULL;
+	if (config == SkBitmap::kIndex8_Config) {
+		ctable = new SkColorTable(256);
+		converter.getPalette(ctable->lockColors());
+		ctable->unlockColors(true);
+		ctable->setFlags(ctable->getFlags() | SkColorTable::kColorsAreOpaque_Flag);
+	}
 
-	bitmap.setConfig(SkBitmap::kARGB_8888_Config, width, height);
-	if (!bitmap.allocPixels()) {
+	bitmap->setConfig(config, bitmapWidth, bitmapHeight);
+	GBool ok = bitmap->allocPixels(ctable);
+	SkSafeUnref(ctable);
+	if (!ok) {
 		//TODO: show error
-		return;
+		return gFalse;
 	}
 
-	pixels = (unsigned int *)bitmap.getPixels();
+	Guchar *pixels = (Guchar *)bitmap->getPixels();
+	int rowBytes = bitmap->rowBytes();
 
-	ImageStream *stream = new ImageStream(str, width, colorMap->getNumPixelComps(),
+	ImageStream *stream = new ImageStream(str, width, nComps,
 			colorMap->getBits());
 	stream->reset();
 
-	int x, y, i;
-	Guchar *pix;
-	for (y = 0; y < height; y++) {
-		pix = stream->getLine();
+	// decimate, the skipped lines are still decoded but not converted.
+	for (int y = 0; y < height; y++) {
+		// large images take long to decode, give up early if aborted.
+		if (m_abortCheckCbk && (y & 15) == 0
+				&& (*m_abortCheckCbk)(m_abortCheckCbkData)) {
+			delete stream;
+			return gFalse;
+		}
+
+		if (y % step) {
+			stream->skipLine();
+			continue;
+		}
 
-		for (x = 0; x < width; x++) {
-			GfxRGB rgb;
-			colorMap->getRGB(pix, &rgb);
+		Guchar *line = stream->getLine();
+		Guchar *dest = pixels + (y / step) * rowBytes;
+		switch (config) {
+		case SkBitmap::kIndex8_Config:
+			converter.convertIndexLine(line, dest, bitmapWidth, step);
+			break;
+		case SkBitmap::kRGB_565_Config:
+			converter.convertLine16(line, (uint16_t *)dest, bitmapWidth, step);
+			break;
+		default:
+			converter.convertLine(line, (SkPMColor *)dest, bitmapWidth, step);
+			if (maskColors)
+				maskColorLine(line, (SkPMColor *)dest, bitmapWidth, step,
+						nComps, maskColors);
+			break;
+		}
+	}
+	delete stream;
 
-			Guchar a = 0xFF;
+	return gTrue;
+}
 
-			Guchar *dest = (Guchar*)(pixels + y*width + x);
-			dest[0] = colToByte(rgb.r);
-			dest[1] = colToByte(rgb.g);
-			dest[2] = colToByte(rgb.b);
-			dest[3] = a;
+GBool AndroidOutputDev::decodeMask(SkBitmap *bitmap, Stream *str,
+		int width, int height, int step, GBool invert)
+{
+	int bitmapWidth = (width + step - 1) / step;
+	int bitmapHeight = (height + step - 1) / step;
 
-			pix += colorMap->getNumPixelComps();
+	bitmap->setConfig(SkBitmap::kA8_Config, bitmapWidth, bitmapHeight);
+	if (!bitmap->allocPixels())
+		return gFalse;
+
+	Guchar *pixels = (Guchar *)bitmap->getPixels();
+	int rowBytes = bitmap->rowBytes();
+
+	ImageStream *stream = new ImageStream(str, width, 1, 1);
+	stream->reset();
+
+	// samples equal to invert are painted.
+	Guchar paint = invert ? 1 : 0;
+	for (int y = 0; y < height; y++) {
+		if (m_abortCheckCbk && (y & 15) == 0
+				&& (*m_abortCheckCbk)(m_abortCheckCbkData)) {
+			delete stream;
+			return gFalse;
+		}
+
+		if (y % step) {
+			stream->skipLine();
+			continue;
 		}
+
+		Guchar *line = stream->getLine();
+		Guchar *dest = pixels + (y / step) * rowBytes;
+		for (int x = 0; x < bitmapWidth; x++, line += step)
+			dest[x] = *line == paint ? 0xFF : 0;
 	}
 	delete stream;
 
-	// draw
-	double *ctm;
+	return gTrue;
+}
+
+GBool AndroidOutputDev::decodeSoftMask(SkBitmap *bitmap, Stream *str,
+		int width, int height, int step, GfxImageColorMap *colorMap)
+{
+	int bitmapWidth = (width + step - 1) / step;
+	int bitmapHeight = (height + step - 1) / step;
+
+	bitmap->setConfig(SkBitmap::kA8_Config, bitmapWidth, bitmapHeight);
+	if (!bitmap->allocPixels())
+		return gFalse;
+
+	Guchar *pixels = (Guchar *)bitmap->getPixels();
+	int rowBytes = bitmap->rowBytes();
+
+	ImageStream *stream = new ImageStream(str, width, colorMap->getNumPixelComps(),
+			colorMap->getBits());
+	stream->reset();
+
+	AndroidColorConverter converter(colorMap);
+
+	for (int y = 0; y < height; y++) {
+		if (m_abortCheckCbk && (y & 15) == 0
+				&& (*m_abortCheckCbk)(m_abortCheckCbkData)) {
+			delete stream;
+			return gFalse;
+		}
+
+		if (y % step) {
+			stream->skipLine();
+			continue;
+		}
+
+		converter.convertGrayLine(stream->getLine(), pixels + (y / step) * rowBytes,
+				bitmapWidth, step);
+	}
+	delete stream;
+
+	return gTrue;
+}
+
+GBool AndroidOutputDev::getImage(SkBitmap *bitmap, GfxState *state, Object *ref,
+		Stream *str, int width, int height, GfxImageColorMap *colorMap,
+		int *maskColors, GBool inlineImg)
+{
+	// images shown smaller than their resolution, such as scans in a
+	// thumbnail, are decoded to about the device size.
+	int step = imageStep(state, width, height);
+
+	// image XObjects are often drawn on many pages, or on the same page
+	// again at another zoom. Inline images have no ref to key them.
+	GBool cacheable = m_cache && !inlineImg && ref && ref->isRef();
+
+	if (cacheable && m_cache->lookupImage(ref->getRef(), step, m_image_config, bitmap))
+		return gTrue;
+
+	GooTimer timer;
+	GBool ok = decodeImage(bitmap, str, width, height, step, colorMap, maskColors);
+	m_image_time += timer.getElapsed();
+	if (!ok)
+		return gFalse;
+	if (cacheable)
+		m_cache->putImage(ref->getRef(), step, m_image_config, *bitmap);
+
+	return gTrue;
+}
+
+void AndroidOutputDev::drawMasked(GfxState *state, const SkBitmap &image,
+		const SkBitmap &mask)
+{
+	// the mask is drawn with the image as its color, so the shader maps
+	// the image onto the mask.
+	SkShader *shader = SkShader::CreateBitmapShader(image,
+			SkShader::kClamp_TileMode, SkShader::kClamp_TileMode);
+	if (!shader)
+		return;
+
+	SkMatrix local;
+	local.setScale(SkIntToScalar(mask.width()) / image.width(),
+			SkIntToScalar(mask.height()) / image.height());
+	shader->setLocalMatrix(local);
+
+	SkPaint paint;
+	paint.setShader(shader)->unref();
+	paint.setFilterBitmap(true);
+	paint.setAlpha((U8CPU)(state->getFillOpacity()*255));
+
 	SkMatrix matrix;
-	matrix.reset();
+	getImageMatrix(state, mask.width(), mask.height(), &matrix);
+	m_canvas->drawBitmapMatrix(mask, matrix, &paint);
+	m_draw_calls++;
+}
 
-	ctm = state->getCTM();
-	matrix.postScale(ctm[0]/width, -ctm[3]/height);
-	matrix.postTranslate(ctm[4], ctm[3]+ctm[5]);
-	// TODO: rotate
+void AndroidOutputDev::addStencil(const SkBitmap &mask, const SkMatrix &matrix,
+		SkColor color)
+{
+	SkRect bounds;
+	bounds.set(0, 0, SkIntToScalar(mask.width()), SkIntToScalar(mask.height()));
+	matrix.mapRect(&bounds);
+
+	if (!m_stencils.isEmpty()) {
+		SkRect joined = m_stencil_bounds;
+		joined.join(bounds);
+		if (color != m_stencil_color
+				|| (joined.width() + 1) * (joined.height() + 1) > STENCIL_LAYER_BYTES)
+			flushStencils();
+		else
+			m_stencil_bounds = joined;
+	}
+
+	if (m_stencils.isEmpty()) {
+		m_stencil_color = color;
+		m_stencil_bounds = bounds;
+	}
 
+	m_stencils.push_back(mask);
+	m_stencil_matrices.push_back(matrix);
+}
+
+void AndroidOutputDev::flushStencils()
+{
+	if (m_stencils.isEmpty())
+		return;
+
+	SkPaint paint;
+	paint.setColor(m_stencil_color);
+
+	int n = m_stencils.size();
+	SkIRect bounds;
+	m_stencil_bounds.roundOut(&bounds);
+
+	// one stencil is drawn as is. More are drawn into one ALPHA_8 layer
+	// which is then painted with the color, so the canvas is blended
+	// once. This assumes the canvas is not scaled, as the page is
+	// rendered to device pixels by poppler.
+	SkBitmap layer;
+	if (n > 1 && bounds.width() > 0 && bounds.height() > 0) {
+		layer.setConfig(SkBitmap::kA8_Config, bounds.width(), bounds.height());
+		if (!layer.allocPixels())
+			layer.reset();
+	}
+
+	if (!layer.isNull()) {
+		layer.eraseColor(0);
+		SkCanvas canvas(layer);
+		canvas.translate(SkIntToScalar(-bounds.fLeft), SkIntToScalar(-bounds.fTop));
+		for (int i = 0; i < n; i++)
+			canvas.drawBitmapMatrix(m_stencils[i], m_stencil_matrices[i]);
+		m_canvas->drawBitmap(layer, SkIntToScalar(bounds.fLeft),
+				SkIntToScalar(bounds.fTop), &paint);
+		m_draw_calls++;
+	} else {
+		for (int i = 0; i < n; i++)
+			m_canvas->drawBitmapMatrix(m_stencils[i], m_stencil_matrices[i], &paint);
+		m_draw_calls += n;
+	}
+
+	// drop the references to the pixels.
+	for (GooVector<SkBitmap>::iterator it = m_stencils.begin();
+			it != m_stencils.end(); ++it)
+		it->reset();
+	m_stencils.reset();
+	m_stencil_matrices.reset();
+}
+
+void AndroidOutputDev::drawImageMask(GfxState *state, Object *ref, Stream *str,
+				     int width, int height, GBool invert,
+				     GBool interpolate, GBool inlineImg)
+{
+	SkBitmap mask;
+	int step = imageStep(state, width, height);
+	GBool cacheable = m_cache && !inlineImg && ref && ref->isRef();
+
+	if (!cacheable || !m_cache->lookupMask(ref->getRef(), step, &mask)) {
+		GooTimer timer;
+		GBool ok = decodeMask(&mask, str, width, height, step, invert);
+		m_image_time += timer.getElapsed();
+		if (!ok)
+			return;
+		if (cacheable)
+			m_cache->putMask(ref->getRef(), step, mask);
+	}
+
+	GfxRGB rgb;
+	state->getFillRGB(&rgb);
+	SkColor color = SkColorSetARGB((U8CPU)(state->getFillOpacity()*255),
+			colToByte(rgb.r), colToByte(rgb.g), colToByte(rgb.b));
+
+	SkMatrix matrix;
+	getImageMatrix(state, mask.width(), mask.height(), &matrix);
+
+	// scanned and OCRed pages draw their text as many small stencils.
+	if (mask.width() * mask.height() <= STENCIL_BATCH_AREA) {
+		flushText();
+		addStencil(mask, matrix, color);
+		return;
+	}
+
+	flush();
+
+	SkPaint paint;
+	paint.setColor(color);
+	m_canvas->drawBitmapMatrix(mask, matrix, &paint);
+	m_draw_calls++;
+}
+
+void AndroidOutputDev::drawImage(GfxState *state, Object *ref, Stream *str,
+		int width, int height, GfxImageColorMap *colorMap, GBool interpolate,
+		int *maskColors, GBool inlineImg) {
+	SkBitmap bitmap;
+
+	flush();
+
+	if (!getImage(&bitmap, state, ref, str, width, height, colorMap,
+			maskColors, inlineImg))
+		return;
+
+	// draw
+	SkMatrix matrix;
+	getImageMatrix(state, bitmap.width(), bitmap.height(), &matrix);
 	m_canvas->drawBitmapMatrix(bitmap, matrix);
+	m_draw_calls++;
 }
 
+void AndroidOutputDev::drawMaskedImage(GfxState *state, Object *ref, Stream *str,
+		int width, int height, GfxImageColorMap *colorMap, GBool interpolate,
+		Stream *maskStr, int maskWidth, int maskHeight,
+		GBool maskInvert, GBool maskInterpolate)
+{
+	SkBitmap image, mask;
+
+	flush();
+
+	if (!getImage(&image, state, ref, str, width, height, colorMap, NULL, gFalse))
+		return;
+
+	// the mask is cached under the ref of the image.
+	int step = imageStep(state, maskWidth, maskHeight);
+	GBool cacheable = m_cache && ref && ref->isRef();
+
+	if (!cacheable || !m_cache->lookupMask(ref->getRef(), step, &mask)) {
+		GooTimer timer;
+		GBool ok = decodeMask(&mask, maskStr, maskWidth, maskHeight, step, maskInvert);
+		m_image_time += timer.getElapsed();
+		if (!ok)
+			return;
+		if (cacheable)
+			m_cache->putMask(ref->getRef(), step, mask);
+	}
+
+	drawMasked(state, image, mask);
+}
+
+void AndroidOutputDev::drawSoftMaskedImage(GfxState *state, Object *ref, Stream *str,
+		int width, int height, GfxImageColorMap *colorMap, GBool interpolate,
+		Stream *maskStr, int maskWidth, int maskHeight,
+		GfxImageColorMap *maskColorMap, GBool maskInterpolate)
+{
+	SkBitmap image, mask;
+
+	flush();
+
+	if (!getImage(&image, state, ref, str, width, height, colorMap, NULL, gFalse))
+		return;
+
+	int step = imageStep(state, maskWidth, maskHeight);
+	GBool cacheable = m_cache && ref && ref->isRef();
+
+	if (!cacheable || !m_cache->lookupMask(ref->getRef(), step, &mask)) {
+		GooTimer timer;
+		GBool ok = decodeSoftMask(&mask, maskStr, maskWidth, maskHeight, step,
+				maskColorMap);
+		m_image_time += timer.getElapsed();
+		if (!ok)
+			return;
+		if (cacheable)
+			m_cache->putMask(ref->getRef(), step, mask);
+	}
+
+	drawMasked(state, image, mask);
+}
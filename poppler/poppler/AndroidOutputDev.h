@@ -22,15 +22,18 @@
 #include <poppler/GfxState.h>
 #include <poppler/OutputDev.h>
 
+#include <SkBitmap.h>
 #include <SkCanvas.h>
 #include <SkPaint.h>
 
+class AndroidRenderCache;
+class SkTypeface;
 
 class AndroidOutputDev: public OutputDev {
 public:
 
-	// Constructor.
-	AndroidOutputDev(SkCanvas *canvas, XRef *xref);
+	// Constructor, decoded resources are shared through the cache if any.
+	AndroidOutputDev(SkCanvas *canvas, XRef *xref, AndroidRenderCache *cache = NULL);
 
 	// Destructor.
 	virtual ~AndroidOutputDev();
@@ -55,12 +58,28 @@ public:
 
 	//----- initialization and control
 
+	// Set the callback polled during long operations such as image
+	// decoding, a true result abandons the operation.
+	void setAbortCheck(GBool (*abortCheckCbkA)(void *data), void *abortCheckCbkDataA)
+	{
+		m_abortCheckCbk = abortCheckCbkA;
+		m_abortCheckCbkData = abortCheckCbkDataA;
+	}
+
 	// Start a page.
 	virtual void startPage(int pageNum, GfxState *state);
 
 	// End a page.
 	virtual void endPage();
 
+	// Glyphs and Skia draw calls since the device was created.
+	int getGlyphCount() { return m_glyphs; }
+	int getDrawCallCount() { return m_draw_calls; }
+
+	// Seconds spent decoding images and masks, and loading fonts.
+	double getImageDecodeTime() { return m_image_time; }
+	double getFontLoadTime() { return m_font_time; }
+
 	//----- link borders
 	virtual void drawLink(Link *link, Catalog *catalog);
 
@@ -90,11 +109,88 @@ public:
 	virtual void drawImage(GfxState *state, Object *ref, Stream *str,
 			       int width, int height, GfxImageColorMap *colorMap,
 			       GBool interpolate, int *maskColors, GBool inlineImg);
+	virtual void drawMaskedImage(GfxState *state, Object *ref, Stream *str,
+				     int width, int height,
+				     GfxImageColorMap *colorMap, GBool interpolate,
+				     Stream *maskStr, int maskWidth, int maskHeight,
+				     GBool maskInvert, GBool maskInterpolate);
+	virtual void drawSoftMaskedImage(GfxState *state, Object *ref, Stream *str,
+					 int width, int height,
+					 GfxImageColorMap *colorMap,
+					 GBool interpolate,
+					 Stream *maskStr,
+					 int maskWidth, int maskHeight,
+					 GfxImageColorMap *maskColorMap,
+					 GBool maskInterpolate);
    
 private:
+	// UTF-16 units of text drawn at once
+	enum { MAX_GLYPH_RUN = 512 };
+
+	// Get the typeface of the current font, referenced for the caller.
+	SkTypeface *getFont(GfxState *state);
+
+	// Decode an image to a bitmap taking every step-th pixel and line,
+	// false if failed or aborted. Pixels in the maskColors ranges are
+	// transparent. The bitmap is ARGB, or for RGB_565 pages RGB_565 or
+	// INDEX_8 when it has no mask colors.
+	GBool decodeImage(SkBitmap *bitmap, Stream *str, int width, int height,
+			int step, GfxImageColorMap *colorMap, int *maskColors);
+
+	// Decode a 1 bit mask to an ALPHA_8 bitmap, opaque where painted.
+	GBool decodeMask(SkBitmap *bitmap, Stream *str, int width, int height,
+			int step, GBool invert);
+
+	// Decode a soft mask to an ALPHA_8 bitmap of its gray levels.
+	GBool decodeSoftMask(SkBitmap *bitmap, Stream *str, int width, int height,
+			int step, GfxImageColorMap *colorMap);
+
+	// Get an image from the cache or decode it.
+	GBool getImage(SkBitmap *bitmap, GfxState *state, Object *ref, Stream *str,
+			int width, int height, GfxImageColorMap *colorMap,
+			int *maskColors, GBool inlineImg);
+
+	// Draw an image through the alpha of a mask.
+	void drawMasked(GfxState *state, const SkBitmap &image, const SkBitmap &mask);
+
+	// Stencil masks of one fill color are collected and drawn together,
+	// anything else drawn on the page flushes them first.
+	void addStencil(const SkBitmap &mask, const SkMatrix &matrix, SkColor color);
+	void flushStencils();
+
+	// Glyphs of one typeface, size and color are collected into a run
+	// drawn with one drawPosText().
+	void flushText();
+
+	// Draw the pending stencils and text.
+	void flush();
+
 	SkCanvas *m_canvas;
 	SkPaint m_paint;
 	XRef *m_xref;			// xref table for current document
+	AndroidRenderCache *m_cache;	// decoded resources of the document
+	SkBitmap::Config m_image_config;	// depth images are decoded for
+	GBool (*m_abortCheckCbk)(void *data);
+	void *m_abortCheckCbkData;
+
+	GooVector<SkBitmap> m_stencils;
+	GooVector<SkMatrix> m_stencil_matrices;
+	SkColor m_stencil_color;
+	SkRect m_stencil_bounds;	// in canvas coordinates
+
+	GfxFont *m_font;		// font of the last glyph
+	SkTypeface *m_typeface;		// and its typeface
+	SkTypeface *m_run_typeface;
+	SkScalar m_run_size;
+	SkColor m_run_color;
+	uint16_t m_run_text[MAX_GLYPH_RUN];
+	SkPoint m_run_pos[MAX_GLYPH_RUN];
+	int m_run_len;			// UTF-16 units in the run
+
+	int m_glyphs;			// glyphs drawn
+	int m_draw_calls;		// Skia draw calls
+	double m_image_time;
+	double m_font_time;
 };
 
 #endif
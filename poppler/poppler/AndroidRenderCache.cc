@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#ifdef USE_GCC_PRAGMAS
+#pragma implementation
+#endif
+
+#include <config.h>
+
+#include <limits.h>
+
+#include <poppler/PopplerCache.h>
+
+#include <SkTypeface.h>
+
+#include "AndroidRenderCache.h"
+
+#if MULTITHREADED
+#define LOCK() gLockMutex(&m_mutex)
+#define UNLOCK() gUnlockMutex(&m_mutex)
+#else
+#define LOCK()
+#define UNLOCK()
+#endif
+
+// kinds of cached bitmaps
+enum {
+	imageKind,
+	image16Kind,	// decoded for RGB_565 pages
+	maskKind
+};
+
+// cache key of an image or mask of an object decoded at a step
+class ImageKey: public PopplerCacheKey {
+public:
+	ImageKey(int kindA, Ref refA, int stepA): kind(kindA), ref(refA), step(stepA) {
+	}
+
+	bool operator==(const PopplerCacheKey &key) const {
+		const ImageKey *k = static_cast<const ImageKey *>(&key);
+		return k->ref.num == ref.num && k->ref.gen == ref.gen
+				&& k->step == step && k->kind == kind;
+	}
+
+	unsigned int hash() const {
+		return ((ref.num * 31 + ref.gen) * 31 + step) * 3 + kind;
+	}
+
+	int kind;
+	Ref ref;
+	int step;
+};
+
+// decoded image or mask, the pixels are shared with the bitmaps handed out
+class ImageItem: public PopplerCacheItem {
+public:
+	ImageItem(const SkBitmap &bitmapA): bitmap(bitmapA) {
+	}
+
+	int getSize() const {
+		return bitmap.getSize();
+	}
+
+	SkBitmap bitmap;
+};
+
+// cache key of a font object
+class FontKey: public PopplerCacheKey {
+public:
+	FontKey(Ref refA): ref(refA) {
+	}
+
+	bool operator==(const PopplerCacheKey &key) const {
+		const FontKey *k = static_cast<const FontKey *>(&key);
+		return k->ref.num == ref.num && k->ref.gen == ref.gen;
+	}
+
+	unsigned int hash() const {
+		return ref.num * 31 + ref.gen;
+	}
+
+	Ref ref;
+};
+
+// a typeface, referenced while cached
+class TypefaceItem: public PopplerCacheItem {
+public:
+	TypefaceItem(SkTypeface *typefaceA): typeface(typefaceA) {
+		SkSafeRef(typeface);
+	}
+
+	~TypefaceItem() {
+		SkSafeUnref(typeface);
+	}
+
+	SkTypeface *typeface;
+};
+
+AndroidRenderCache::AndroidRenderCache(int imageBytes, int typefaces)
+{
+	m_images = new PopplerCache(INT_MAX, imageBytes);
+	m_typefaces = new PopplerCache(typefaces);
+	m_hits = m_misses = 0;
+#if MULTITHREADED
+	gInitMutex(&m_mutex);
+#endif
+}
+
+AndroidRenderCache::~AndroidRenderCache()
+{
+	delete m_images;
+	delete m_typefaces;
+#if MULTITHREADED
+	gDestroyMutex(&m_mutex);
+#endif
+}
+
+static int imageKindOf(SkBitmap::Config config)
+{
+	return config == SkBitmap::kRGB_565_Config ? image16Kind : imageKind;
+}
+
+bool AndroidRenderCache::lookupImage(Ref ref, int step, SkBitmap::Config config,
+		SkBitmap *bitmap)
+{
+	return lookup(imageKindOf(config), ref, step, bitmap);
+}
+
+void AndroidRenderCache::putImage(Ref ref, int step, SkBitmap::Config config,
+		const SkBitmap &bitmap)
+{
+	put(imageKindOf(config), ref, step, bitmap);
+}
+
+bool AndroidRenderCache::lookupMask(Ref ref, int step, SkBitmap *bitmap)
+{
+	return lookup(maskKind, ref, step, bitmap);
+}
+
+void AndroidRenderCache::putMask(Ref ref, int step, const SkBitmap &bitmap)
+{
+	put(maskKind, ref, step, bitmap);
+}
+
+bool AndroidRenderCache::lookup(int kind, Ref ref, int step, SkBitmap *bitmap)
+{
+	ImageItem *item = NULL;
+
+	// the closest finer decode. One lookup counts once in the stats,
+	// however many steps were tried.
+	LOCK();
+	for (; step >= 1 && !item; step >>= 1)
+		item = static_cast<ImageItem *>(m_images->lookup(ImageKey(kind, ref, step)));
+	if (item) {
+		*bitmap = item->bitmap;
+		m_hits++;
+	} else {
+		m_misses++;
+	}
+	UNLOCK();
+
+	return item != NULL;
+}
+
+void AndroidRenderCache::put(int kind, Ref ref, int step, const SkBitmap &bitmap)
+{
+	// bigger than the whole budget, would only flush the others.
+	if (m_images->maxBytes() > 0 && (int)bitmap.getSize() > m_images->maxBytes())
+		return;
+
+	LOCK();
+	m_images->put(new ImageKey(kind, ref, step), new ImageItem(bitmap));
+	UNLOCK();
+}
+
+bool AndroidRenderCache::lookupTypeface(Ref ref, SkTypeface **typeface)
+{
+	LOCK();
+	TypefaceItem *item = static_cast<TypefaceItem *>(m_typefaces->lookup(FontKey(ref)));
+	if (item)
+		*typeface = SkSafeRef(item->typeface);
+	UNLOCK();
+
+	return item != NULL;
+}
+
+SkTypeface *AndroidRenderCache::putTypeface(Ref ref, SkTypeface *typeface)
+{
+	FontKey key(ref);
+
+	LOCK();
+	TypefaceItem *item = static_cast<TypefaceItem *>(m_typefaces->lookup(key));
+	if (!item) {
+		item = new TypefaceItem(typeface);
+		m_typefaces->put(new FontKey(ref), item);
+	}
+	typeface = SkSafeRef(item->typeface);
+	UNLOCK();
+
+	return typeface;
+}
+
+void AndroidRenderCache::getImageStats(int *hits, int *misses, int *evictions,
+		int *bytes, int *count)
+{
+	LOCK();
+	*hits = m_hits;
+	*misses = m_misses;
+	*evictions = m_images->evictions();
+	*bytes = m_images->bytes();
+	*count = m_images->numberOfItems();
+	UNLOCK();
+}
+
+void AndroidRenderCache::trim(int bytes)
+{
+	LOCK();
+	m_images->trim(bytes);
+	UNLOCK();
+}
+
+void AndroidRenderCache::clear()
+{
+	LOCK();
+	m_images->clear();
+	m_typefaces->clear();
+	UNLOCK();
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+#ifndef ANDROIDRENDERCACHE_H
+#define ANDROIDRENDERCACHE_H
+
+#ifdef USE_GCC_PRAGMAS
+#pragma interface
+#endif
+
+#include <poppler-config.h>
+#include <poppler/Object.h>
+
+#if MULTITHREADED
+#include <goo/GooMutex.h>
+#endif
+
+#include <SkBitmap.h>
+
+class PopplerCache;
+class SkTypeface;
+
+/*
+ * Decoded resources of one document, kept across pages and renders.
+ * It is shared by the AndroidOutputDevs of all render contexts of the
+ * document, which use the same object numbers.
+ */
+class AndroidRenderCache {
+public:
+	// Constructor, imageBytes is the budget for decoded images.
+	AndroidRenderCache(int imageBytes, int typefaces = DEFAULT_TYPEFACES);
+
+	// Destructor.
+	~AndroidRenderCache();
+
+	// Get a decoded image, the bitmap shares the cached pixels. An
+	// image decoded with a power of two step not larger than step is
+	// good enough. config is the page config the image was decoded for,
+	// RGB_565 pages get images of less depth.
+	bool lookupImage(Ref ref, int step, SkBitmap::Config config, SkBitmap *bitmap);
+
+	// Keep an image decoded by taking every step-th pixel.
+	void putImage(Ref ref, int step, SkBitmap::Config config, const SkBitmap &bitmap);
+
+	// Get a decoded ALPHA_8 mask, of a stencil mask object or of the
+	// image object ref.
+	bool lookupMask(Ref ref, int step, SkBitmap *bitmap);
+
+	// Keep a decoded mask.
+	void putMask(Ref ref, int step, const SkBitmap &bitmap);
+
+	// Get the typeface of a font object, a NULL one if the font could
+	// not be loaded. The typeface is referenced for the caller.
+	bool lookupTypeface(Ref ref, SkTypeface **typeface);
+
+	// Keep the typeface of a font object, or the existing one if another
+	// thread loaded it first. The returned typeface is referenced for
+	// the caller.
+	SkTypeface *putTypeface(Ref ref, SkTypeface *typeface);
+
+	// Image and mask cache statistics.
+	void getImageStats(int *hits, int *misses, int *evictions,
+			int *bytes, int *count);
+
+	// Drop cached images and masks until they use at most bytes.
+	void trim(int bytes);
+
+	// Drop all cached images, masks and typefaces.
+	void clear();
+
+	// number of typefaces kept by default
+	enum { DEFAULT_TYPEFACES = 32 };
+
+private:
+	bool lookup(int kind, Ref ref, int step, SkBitmap *bitmap);
+	void put(int kind, Ref ref, int step, const SkBitmap &bitmap);
+
+	PopplerCache *m_images;
+	PopplerCache *m_typefaces;
+	int m_hits;
+	int m_misses;
+#if MULTITHREADED
+	GooMutex m_mutex;
+#endif
+};
+
+#endif
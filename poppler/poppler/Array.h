@@ -59,6 +59,8 @@ public:
   Object *getNF(int i, Object *obj);
   GBool getString(int i, GooString *string);
 
+  void setXRef(XRef *xrefA) { xref = xrefA; }
+
 private:
 
   XRef *xref;			// the xref table for this PDF file
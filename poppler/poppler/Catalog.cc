@@ -36,6 +36,7 @@
 
 #include <stddef.h>
 #include <stdlib.h>
+#include <limits.h>
 #include "goo/gmem.h"
 #include "Object.h"
 #include "XRef.h"
@@ -49,6 +50,20 @@
 #include "Form.h"
 #include "OptionalContent.h"
 
+//------------------------------------------------------------------------
+// PageTreeFrame
+//------------------------------------------------------------------------
+
+// Deepest page tree followed up from a page.
+#define maxPageTreeDepth 64
+
+// A Pages node of the page tree being read.
+struct PageTreeFrame {
+  Object kids;			// the /Kids array
+  int next;			// index of the next kid to read
+  PageAttrs *attrs;		// attributes inherited by the kids
+};
+
 //------------------------------------------------------------------------
 // Catalog
 //------------------------------------------------------------------------
@@ -57,15 +72,19 @@ Catalog::Catalog(XRef *xrefA) {
   Object catDict, pagesDict, pagesDictRef;
   Object obj, obj2;
   Object optContentProps;
-  char *alreadyRead;
-  int numPages0;
   int i;
 
   ok = gTrue;
   xref = xrefA;
   pages = NULL;
   pageRefs = NULL;
-  numPages = pagesSize = 0;
+  numPages = pagesSize = pagesCount = 0;
+  walkStack = NULL;
+  walkDepth = walkStackSize = 0;
+  alreadyRead = NULL;
+#if MULTITHREADED
+  gInitMutex(&pagesMutex);
+#endif
   baseURI = NULL;
   pageLabelInfo = NULL;
   form = NULL;
@@ -101,8 +120,15 @@ Catalog::Catalog(XRef *xrefA) {
 	  obj.getTypeName());
     goto err3;
   }
-  pagesSize = numPages0 = (int)obj.getNum();
+  pagesSize = pagesCount = (int)obj.getNum();
   obj.free();
+  // a damaged or hostile /Count can not be trusted for allocations,
+  // every page takes an object at least.
+  if (pagesCount < 0 || pagesCount > xref->getNumObjects()) {
+    error(-1, "Page count in top-level pages object is out of range (%d)",
+	  pagesCount);
+    pagesSize = pagesCount = pagesCount < 0 ? 0 : xref->getNumObjects();
+  }
   pages = (Page **)gmallocn(pagesSize, sizeof(Page *));
   pageRefs = (Ref *)gmallocn(pagesSize, sizeof(Ref));
   for (i = 0; i < pagesSize; ++i) {
@@ -118,13 +144,20 @@ Catalog::Catalog(XRef *xrefA) {
     alreadyRead[pagesDictRef.getRefNum()] = 1;
   }
   pagesDictRef.free();
-  numPages = readPageTree(pagesDict.getDict(), NULL, 0, alreadyRead);
-  gfree(alreadyRead);
-  if (numPages != numPages0) {
-    error(-1, "Page count in top-level pages object is incorrect");
+  if (!pushPageTree(pagesDict.getDict(), NULL)) {
+    goto err2;
   }
   pagesDict.free();
 
+  // The pages are read on demand, so opening a large document does not
+  // wait for the whole page tree.  Form fields need all the widgets
+  // before postWidgetsLoad(), read everything in that case.
+  if (form) {
+    readPageTree(INT_MAX);
+  } else {
+    readPageTree(1);
+  }
+
   // read named destination dictionary
   catDict.dictLookup("Dests", &dests);
 
@@ -143,7 +176,7 @@ Catalog::Catalog(XRef *xrefA) {
   obj.free();
 
   if (catDict.dictLookup("PageLabels", &obj)->isDict())
-    pageLabelInfo = new PageLabelInfo(&obj, numPages);
+    pageLabelInfo = new PageLabelInfo(&obj, getNumPages());
   obj.free();
 
   // read page mode
@@ -229,6 +262,11 @@ Catalog::Catalog(XRef *xrefA) {
 Catalog::~Catalog() {
   int i;
 
+  clearPageTree();
+  gfree(walkStack);
+#if MULTITHREADED
+  gDestroyMutex(&pagesMutex);
+#endif
   if (pages) {
     for (i = 0; i < pagesSize; ++i) {
       if (pages[i]) {
@@ -278,24 +316,49 @@ GooString *Catalog::readMetadata() {
   return s;
 }
 
-int Catalog::readPageTree(Dict *pagesDict, PageAttrs *attrs, int start,
-			  char *alreadyRead) {
+GBool Catalog::pushPageTree(Dict *pagesDict, PageAttrs *attrs) {
+  PageTreeFrame *frame;
   Object kids;
-  Object kid;
-  Object kidRef;
-  PageAttrs *attrs1, *attrs2;
-  Page *page;
-  int i, j;
 
-  attrs1 = new PageAttrs(attrs, pagesDict);
   pagesDict->lookup("Kids", &kids);
   if (!kids.isArray()) {
     error(-1, "Kids object (page %d) is wrong type (%s)",
-	  start+1, kids.getTypeName());
-    goto err1;
+	  numPages+1, kids.getTypeName());
+    kids.free();
+    return gFalse;
+  }
+  if (walkDepth >= walkStackSize) {
+    walkStackSize += 8;
+    walkStack = (PageTreeFrame *)greallocn(walkStack, walkStackSize,
+					   sizeof(PageTreeFrame));
   }
-  for (i = 0; i < kids.arrayGetLength(); ++i) {
-    kids.arrayGetNF(i, &kidRef);
+  frame = &walkStack[walkDepth++];
+  frame->kids = kids;
+  frame->next = 0;
+  frame->attrs = new PageAttrs(attrs, pagesDict);
+  return gTrue;
+}
+
+// Read the page tree until page <n> is read or the tree is done.
+void Catalog::readPageTree(int n) {
+  PageTreeFrame *frame;
+  Object kid;
+  Object kidRef;
+  PageAttrs *attrs;
+  Page *page;
+  int i, j;
+
+  while (numPages < n && walkDepth > 0) {
+    frame = &walkStack[walkDepth - 1];
+    if (frame->next >= frame->kids.arrayGetLength()) {
+      frame->kids.free();
+      delete frame->attrs;
+      --walkDepth;
+      continue;
+    }
+
+    i = frame->next++;
+    frame->kids.arrayGetNF(i, &kidRef);
     if (kidRef.isRef() &&
 	kidRef.getRefNum() >= 0 &&
 	kidRef.getRefNum() < xref->getNumObjects()) {
@@ -306,15 +369,20 @@ int Catalog::readPageTree(Dict *pagesDict, PageAttrs *attrs, int start,
       }
       alreadyRead[kidRef.getRefNum()] = 1;
     }
-    kids.arrayGet(i, &kid);
+    frame->kids.arrayGet(i, &kid);
     if (kid.isDict("Page")) {
-      attrs2 = new PageAttrs(attrs1, kid.getDict());
-      page = new Page(xref, start+1, kid.getDict(), kidRef.getRef(), attrs2, form);
+      attrs = new PageAttrs(frame->attrs, kid.getDict());
+      page = new Page(xref, numPages+1, kid.getDict(), kidRef.getRef(), attrs, form);
       if (!page->isOk()) {
-	++start;
-	goto err3;
+	// the pages read so far are still good, stop here
+	error(-1, "Failed to read page %d", numPages+1);
+	delete page;
+	kid.free();
+	kidRef.free();
+	clearPageTree();
+	break;
       }
-      if (start >= pagesSize) {
+      if (numPages >= pagesSize) {
 	pagesSize += 32;
 	pages = (Page **)greallocn(pages, pagesSize, sizeof(Page *));
 	pageRefs = (Ref *)greallocn(pageRefs, pagesSize, sizeof(Ref));
@@ -324,49 +392,223 @@ int Catalog::readPageTree(Dict *pagesDict, PageAttrs *attrs, int start,
 	  pageRefs[j].gen = -1;
 	}
       }
-      pages[start] = page;
+      pages[numPages] = page;
       if (kidRef.isRef()) {
-	pageRefs[start].num = kidRef.getRefNum();
-	pageRefs[start].gen = kidRef.getRefGen();
+	pageRefs[numPages].num = kidRef.getRefNum();
+	pageRefs[numPages].gen = kidRef.getRefGen();
       }
-      ++start;
+      ++numPages;
     // This should really be isDict("Pages"), but I've seen at least one
     // PDF file where the /Type entry is missing.
     } else if (kid.isDict()) {
-      if ((start = readPageTree(kid.getDict(), attrs1, start, alreadyRead))
-	  < 0)
-	goto err2;
+      // <frame> is invalid once the stack grows
+      pushPageTree(kid.getDict(), walkStack[walkDepth - 1].attrs);
     } else {
       error(-1, "Kid object (page %d) is wrong type (%s)",
-	    start+1, kid.getTypeName());
+	    numPages+1, kid.getTypeName());
     }
     kid.free();
     kidRef.free();
   }
-  delete attrs1;
-  kids.free();
-  return start;
 
- err3:
-  delete page;
- err2:
-  kid.free();
-  kidRef.free();
- err1:
-  kids.free();
-  delete attrs1;
-  ok = gFalse;
-  return -1;
+  if (walkDepth == 0 && alreadyRead) {
+    gfree(alreadyRead);
+    alreadyRead = NULL;
+    if (numPages != pagesCount) {
+      error(-1, "Page count in top-level pages object is incorrect");
+    }
+  }
 }
 
-int Catalog::findPage(int num, int gen) {
+// Stop the page tree walk.
+void Catalog::clearPageTree() {
+  while (walkDepth > 0) {
+    --walkDepth;
+    walkStack[walkDepth].kids.free();
+    delete walkStack[walkDepth].attrs;
+  }
+  gfree(alreadyRead);
+  alreadyRead = NULL;
+}
+
+// Read page <i> from its reference, the inherited attributes are
+// collected through the /Parent links.
+Page *Catalog::readPage(int i) {
+  Object pageObj, nodes[maxPageTreeDepth];
+  PageAttrs *attrs, *attrs1;
+  Page *page;
+  int depth, j;
+
+  xref->fetch(pageRefs[i-1].num, pageRefs[i-1].gen, &pageObj);
+  if (!pageObj.isDict("Page")) {
+    error(-1, "Page object (page %d) is wrong type (%s)",
+	  i, pageObj.getTypeName());
+    pageObj.free();
+    return NULL;
+  }
+
+  depth = 0;
+  pageObj.dictLookup("Parent", &nodes[0]);
+  while (nodes[depth].isDict()) {
+    if (depth + 1 >= maxPageTreeDepth) {
+      error(-1, "Pages tree too deep (page %d)", i);
+      break;
+    }
+    nodes[depth].dictLookup("Parent", &nodes[depth + 1]);
+    ++depth;
+  }
+  nodes[depth].free();
+
+  attrs = NULL;
+  for (j = depth - 1; j >= 0; --j) {
+    attrs1 = new PageAttrs(attrs, nodes[j].getDict());
+    delete attrs;
+    attrs = attrs1;
+    nodes[j].free();
+  }
+  attrs1 = new PageAttrs(attrs, pageObj.getDict());
+  delete attrs;
+
+  page = new Page(xref, i, pageObj.getDict(), pageRefs[i-1], attrs1, form);
+  pageObj.free();
+  if (!page->isOk()) {
+    delete page;
+    return NULL;
+  }
+  return page;
+}
+
+int Catalog::readAllPages() {
+  int n;
+
+#if MULTITHREADED
+  gLockMutex(&pagesMutex);
+#endif
+  readPageTree(INT_MAX);
+  n = numPages;
+#if MULTITHREADED
+  gUnlockMutex(&pagesMutex);
+#endif
+  return n;
+}
+
+void Catalog::setPageRefs(Ref *refs, int n) {
   int i;
 
+  if (n <= 0) {
+    return;
+  }
+
+#if MULTITHREADED
+  gLockMutex(&pagesMutex);
+#endif
+  // nothing to gain once the tree is read
+  if (walkDepth > 0) {
+    clearPageTree();
+    if (n > pagesSize) {
+      pages = (Page **)greallocn(pages, n, sizeof(Page *));
+      pageRefs = (Ref *)greallocn(pageRefs, n, sizeof(Ref));
+      for (i = pagesSize; i < n; ++i) {
+	pages[i] = NULL;
+      }
+      pagesSize = n;
+    }
+    // keep the pages already read if they are the same
+    for (i = 0; i < pagesSize; ++i) {
+      if (pages[i] && (i >= n || pageRefs[i].num != refs[i].num ||
+		       pageRefs[i].gen != refs[i].gen)) {
+	delete pages[i];
+	pages[i] = NULL;
+      }
+    }
+    for (i = 0; i < n; ++i) {
+      pageRefs[i] = refs[i];
+    }
+    numPages = n;
+  }
+#if MULTITHREADED
+  gUnlockMutex(&pagesMutex);
+#endif
+}
+
+int Catalog::getNumPages() {
+  int n;
+
+#if MULTITHREADED
+  gLockMutex(&pagesMutex);
+#endif
+  n = walkDepth > 0 ? pagesCount : numPages;
+#if MULTITHREADED
+  gUnlockMutex(&pagesMutex);
+#endif
+  return n;
+}
+
+GBool Catalog::isPageTreeRead() {
+  GBool read;
+
+#if MULTITHREADED
+  gLockMutex(&pagesMutex);
+#endif
+  read = walkDepth == 0;
+#if MULTITHREADED
+  gUnlockMutex(&pagesMutex);
+#endif
+  return read;
+}
+
+Page *Catalog::getPage(int i) {
+  Page *page;
+
+#if MULTITHREADED
+  gLockMutex(&pagesMutex);
+#endif
+  readPageTree(i);
+  page = NULL;
+  if (i >= 1 && i <= numPages) {
+    if (!pages[i-1] && pageRefs[i-1].num >= 0) {
+      pages[i-1] = readPage(i);
+    }
+    page = pages[i-1];
+  }
+#if MULTITHREADED
+  gUnlockMutex(&pagesMutex);
+#endif
+  return page;
+}
+
+Ref *Catalog::getPageRef(int i) {
+  Ref *ref;
+
+#if MULTITHREADED
+  gLockMutex(&pagesMutex);
+#endif
+  readPageTree(i);
+  ref = (i >= 1 && i <= numPages) ? &pageRefs[i-1] : (Ref *)NULL;
+#if MULTITHREADED
+  gUnlockMutex(&pagesMutex);
+#endif
+  return ref;
+}
+
+int Catalog::findPage(int num, int gen) {
+  int i, page;
+
+  page = 0;
+#if MULTITHREADED
+  gLockMutex(&pagesMutex);
+#endif
+  readPageTree(INT_MAX);
   for (i = 0; i < numPages; ++i) {
-    if (pageRefs[i].num == num && pageRefs[i].gen == gen)
-      return i + 1;
+    if (pageRefs[i].num == num && pageRefs[i].gen == gen) {
+      page = i + 1;
+      break;
+    }
   }
-  return 0;
+#if MULTITHREADED
+  gUnlockMutex(&pagesMutex);
+#endif
+  return page;
 }
 
 LinkDest *Catalog::findDest(GooString *name) {
@@ -32,10 +32,17 @@
 #pragma interface
 #endif
 
+#include "poppler-config.h"
+
+#if MULTITHREADED
+#include "goo/GooMutex.h"
+#endif
+
 class XRef;
 class Object;
 class Page;
 class PageAttrs;
+struct PageTreeFrame;
 struct Ref;
 class LinkDest;
 class PageLabelInfo;
@@ -146,14 +153,27 @@ public:
   // Is catalog valid?
   GBool isOk() { return ok; }
 
-  // Get number of pages.
-  int getNumPages() { return numPages; }
+  // Get number of pages.  While the page tree is not completely read
+  // this is the /Count of the tree root, limited to the number of
+  // objects.
+  int getNumPages();
+
+  // Is the page tree completely read, so getNumPages() is exact?
+  GBool isPageTreeRead();
 
-  // Get a page.
-  Page *getPage(int i) { return pages[i-1]; }
+  // Get a page, reading the page tree up to it.  Returns NULL if
+  // there is no such page.
+  Page *getPage(int i);
 
   // Get the reference for a page object.
-  Ref *getPageRef(int i) { return &pageRefs[i-1]; }
+  Ref *getPageRef(int i);
+
+  // Read the whole page tree.  Returns the number of pages.
+  int readAllPages();
+
+  // Use page references read before, e.g. from a cache, instead of
+  // the page tree.  The pages are then read directly when needed.
+  void setPageRefs(Ref *refs, int n);
 
   // Return base URI, or NULL if none.
   GooString *getBaseURI() { return baseURI; }
@@ -227,8 +247,16 @@ private:
   Page **pages;			// array of pages
   Ref *pageRefs;		// object ID for each page
   Form *form;
-  int numPages;			// number of pages
+  int numPages;			// number of pages read so far
   int pagesSize;		// size of pages array
+  int pagesCount;		// /Count of the page tree root
+  PageTreeFrame *walkStack;	// page tree nodes being read
+  int walkDepth;		// number of nodes in <walkStack>
+  int walkStackSize;		// size of <walkStack> array
+  char *alreadyRead;		// objects seen by the page tree walk
+#if MULTITHREADED
+  GooMutex pagesMutex;		// guards the page tree walk
+#endif
   Object dests;			// named destination dictionary
   NameTree destNameTree;	// named destination name-tree
   NameTree embeddedFileNameTree;  // embedded file name-tree
@@ -244,8 +272,10 @@ private:
   PageMode pageMode;		// page mode
   PageLayout pageLayout;	// page layout
 
-  int readPageTree(Dict *pages, PageAttrs *attrs, int start,
-		   char *alreadyRead);
+  GBool pushPageTree(Dict *pagesDict, PageAttrs *attrs);
+  void readPageTree(int n);
+  void clearPageTree();
+  Page *readPage(int i);
   Object *findDestInTree(Object *tree, GooString *name, Object *obj);
 };
 
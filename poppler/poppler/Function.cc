@@ -1063,6 +1063,16 @@ class PostScriptFunctionKey : public PopplerCacheKey
         return false;
       }
     }
+
+    unsigned int hash() const
+    {
+      unsigned int h = size;
+      for (int i = 0; i < size; ++i) {
+        // 1/1024 steps, so that close inputs spread over buckets
+        h = h * 31 + (unsigned int)(int)(in[i] * 1024);
+      }
+      return h;
+    }
   
     bool copied;
     int size;
@@ -1093,6 +1103,11 @@ class PostScriptFunctionItem : public PopplerCacheItem
     {
       delete[] out;
     }
+
+    int getSize() const
+    {
+      return sizeof(*this) + size * sizeof(double);
+    }
     
     int size;
     double *out;
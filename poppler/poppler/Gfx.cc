@@ -655,29 +655,28 @@ void Gfx::go(GBool topLevel) {
 	printf("\n");
 	fflush(stdout);
       }
-      GooTimer timer;
+      GooTimer *timer = profileCommands ? new GooTimer() : NULL;
 
       // Run the operation
       execOp(&obj, args, numArgs);
 
       // Update the profile information
-      if (profileCommands) {
+      if (timer) {
 	GooHash *hash;
 
 	hash = out->getProfileHash ();
 	if (hash) {
-	  GooString *cmd_g;
 	  ProfileData *data_p;
 
-	  cmd_g = new GooString (obj.getCmd());
-	  data_p = (ProfileData *)hash->lookup (cmd_g);
+	  data_p = (ProfileData *)hash->lookup (obj.getCmd());
 	  if (data_p == NULL) {
 	    data_p = new ProfileData();
-	    hash->add (cmd_g, data_p);
+	    hash->add (new GooString (obj.getCmd()), data_p);
 	  }
 	  
-	  data_p->addElement(timer.getElapsed ());
+	  data_p->addElement(timer->getElapsed ());
 	}
+	delete timer;
       }
       obj.free();
       for (i = 0; i < numArgs; ++i)
@@ -687,7 +686,7 @@ void Gfx::go(GBool topLevel) {
       // periodically update display
       if (++updateLevel >= 20000) {
 	out->dump();
-	updateLevel = 0;
+	updateLevel = lastAbortCheck = 0;
       }
 
       // check for an abort
@@ -1329,6 +1329,11 @@ class GfxICCBasedColorSpaceKey : public PopplerCacheKey
       const GfxICCBasedColorSpaceKey *k = static_cast<const GfxICCBasedColorSpaceKey*>(&key);
       return k->num == num && k->gen == gen;
     }
+
+    unsigned int hash() const
+    {
+      return num * 31 + gen;
+    }
     
     int num, gen;
 };
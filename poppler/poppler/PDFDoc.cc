@@ -190,6 +190,26 @@ PDFDoc::PDFDoc(BaseStream *strA, GooString *ownerPassword,
   ok = setup(ownerPassword, userPassword);
 }
 
+PDFDoc::PDFDoc(BaseStream *strA, XRef *xrefA, GooString *ownerPassword,
+	       GooString *userPassword, void *guiDataA) {
+  ok = gFalse;
+  errCode = errNone;
+  guiData = guiDataA;
+  if (strA->getFileName()) {
+    fileName = strA->getFileName()->copy();
+  } else {
+    fileName = NULL;
+  }
+  file = NULL;
+  str = strA;
+  xref = xrefA;
+  catalog = NULL;
+#ifndef DISABLE_OUTLINE
+  outline = NULL;
+#endif
+  ok = setup(ownerPassword, userPassword);
+}
+
 GBool PDFDoc::setup(GooString *ownerPassword, GooString *userPassword) {
   str->setPos(0, -1);
   if (str->getPos() < 0)
@@ -208,7 +228,9 @@ GBool PDFDoc::setup(GooString *ownerPassword, GooString *userPassword) {
   checkHeader();
 
   // read xref table
-  xref = new XRef(str);
+  if (!xref) {
+    xref = new XRef(str);
+  }
   if (!xref->isOk()) {
     error(-1, "Couldn't read xref table");
     errCode = xref->getErrorCode();
@@ -371,13 +393,19 @@ void PDFDoc::displayPage(OutputDev *out, int page,
 			 void *abortCheckCbkData,
                          GBool (*annotDisplayDecideCbk)(Annot *annot, void *user_data),
                          void *annotDisplayDecideCbkData) {
+  Page *p;
+
   if (globalParams->getPrintCommands()) {
     printf("***** page %d *****\n", page);
   }
-  catalog->getPage(page)->display(out, hDPI, vDPI,
-				  rotate, useMediaBox, crop, printing, catalog,
-				  abortCheckCbk, abortCheckCbkData,
-				  annotDisplayDecideCbk, annotDisplayDecideCbkData);
+  if (!(p = catalog->getPage(page))) {
+    error(-1, "Invalid page %d", page);
+    return;
+  }
+  p->display(out, hDPI, vDPI,
+	     rotate, useMediaBox, crop, printing, catalog,
+	     abortCheckCbk, abortCheckCbkData,
+	     annotDisplayDecideCbk, annotDisplayDecideCbkData);
 }
 
 void PDFDoc::displayPages(OutputDev *out, int firstPage, int lastPage,
@@ -390,6 +418,9 @@ void PDFDoc::displayPages(OutputDev *out, int firstPage, int lastPage,
   int page;
 
   for (page = firstPage; page <= lastPage; ++page) {
+    if (abortCheckCbk && (*abortCheckCbk)(abortCheckCbkData)) {
+      break;
+    }
     displayPage(out, page, hDPI, vDPI, rotate, useMediaBox, crop, printing,
 		abortCheckCbk, abortCheckCbkData,
                 annotDisplayDecideCbk, annotDisplayDecideCbkData);
@@ -404,20 +435,32 @@ void PDFDoc::displayPageSlice(OutputDev *out, int page,
 			      void *abortCheckCbkData,
                               GBool (*annotDisplayDecideCbk)(Annot *annot, void *user_data),
                               void *annotDisplayDecideCbkData) {
-  catalog->getPage(page)->displaySlice(out, hDPI, vDPI,
-				       rotate, useMediaBox, crop,
-				       sliceX, sliceY, sliceW, sliceH,
-				       printing, catalog,
-				       abortCheckCbk, abortCheckCbkData,
-				       annotDisplayDecideCbk, annotDisplayDecideCbkData);
+  Page *p;
+
+  if (!(p = catalog->getPage(page))) {
+    error(-1, "Invalid page %d", page);
+    return;
+  }
+  p->displaySlice(out, hDPI, vDPI,
+		  rotate, useMediaBox, crop,
+		  sliceX, sliceY, sliceW, sliceH,
+		  printing, catalog,
+		  abortCheckCbk, abortCheckCbkData,
+		  annotDisplayDecideCbk, annotDisplayDecideCbkData);
 }
 
 Links *PDFDoc::getLinks(int page) {
-  return catalog->getPage(page)->getLinks(catalog);
+  Page *p = catalog->getPage(page);
+
+  return p ? p->getLinks(catalog) : (Links *)NULL;
 }
   
 void PDFDoc::processLinks(OutputDev *out, int page) {
-  catalog->getPage(page)->processLinks(out, catalog);
+  Page *p = catalog->getPage(page);
+
+  if (p) {
+    p->processLinks(out, catalog);
+  }
 }
 
 GBool PDFDoc::isLinearized() {
@@ -70,6 +70,11 @@ public:
 
   PDFDoc(BaseStream *strA, GooString *ownerPassword = NULL,
 	 GooString *userPassword = NULL, void *guiDataA = NULL);
+
+  // Use an xref table read before, e.g. from a cache, instead of
+  // reading it from the stream.  Takes ownership of <xrefA>.
+  PDFDoc(BaseStream *strA, XRef *xrefA, GooString *ownerPassword = NULL,
+	 GooString *userPassword = NULL, void *guiDataA = NULL);
   ~PDFDoc();
 
   // Was PDF document successfully opened?
@@ -97,17 +102,17 @@ public:
   // Get base stream.
   BaseStream *getBaseStream() { return str; }
 
-  // Get page parameters.
+  // Get page parameters, zero if there is no such page.
   double getPageMediaWidth(int page)
-    { return catalog->getPage(page)->getMediaWidth(); }
+    { Page *p = catalog->getPage(page); return p ? p->getMediaWidth() : 0; }
   double getPageMediaHeight(int page)
-    { return catalog->getPage(page)->getMediaHeight(); }
+    { Page *p = catalog->getPage(page); return p ? p->getMediaHeight() : 0; }
   double getPageCropWidth(int page)
-    { return catalog->getPage(page)->getCropWidth(); }
+    { Page *p = catalog->getPage(page); return p ? p->getCropWidth() : 0; }
   double getPageCropHeight(int page)
-    { return catalog->getPage(page)->getCropHeight(); }
+    { Page *p = catalog->getPage(page); return p ? p->getCropHeight() : 0; }
   int getPageRotate(int page)
-    { return catalog->getPage(page)->getRotate(); }
+    { Page *p = catalog->getPage(page); return p ? p->getRotate() : 0; }
 
   // Get number of pages.
   int getNumPages() { return catalog->getNumPages(); }
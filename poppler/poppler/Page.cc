@@ -476,6 +476,12 @@ void Page::displaySlice(OutputDev *out, double hDPI, double vDPI,
   }
   obj.free();
 
+  // don't draw annotations of an aborted page
+  if (abortCheckCbk && (*abortCheckCbk)(abortCheckCbkData)) {
+    delete gfx;
+    return;
+  }
+
   // draw annotations
   annotList = new Annots(xref, catalog, getAnnots(&obj));
   obj.free();
@@ -11,74 +11,185 @@
 
 #include "PopplerCache.h"
 
+struct PopplerCache::Entry
+{
+  PopplerCacheKey *key;
+  PopplerCacheItem *item;
+  unsigned int hash;
+  int size;
+  Entry *prev;			// towards the most recently used
+  Entry *next;			// towards the least recently used
+  Entry *chain;			// next entry in the bucket
+};
+
 PopplerCacheKey::~PopplerCacheKey()
 {
 }
 
+unsigned int PopplerCacheKey::hash() const
+{
+  return 0;
+}
+
 PopplerCacheItem::~PopplerCacheItem()
 {
 }
 
-PopplerCache::PopplerCache(int cacheSizeA)
+int PopplerCacheItem::getSize() const
+{
+  return 0;
+}
+
+PopplerCache::PopplerCache(int cacheSizeA, int maxBytesA)
 {
   cacheSize = cacheSizeA;
-  keys = new PopplerCacheKey*[cacheSize];
-  items = new PopplerCacheItem*[cacheSize];
-  lastValidCacheIndex = -1;
+  byteBudget = maxBytesA;
+  head = tail = 0;
+  bucketCount = 16;
+  buckets = new Entry*[bucketCount];
+  for (int i = 0; i < bucketCount; ++i) {
+    buckets[i] = 0;
+  }
+  numItems = 0;
+  totalBytes = 0;
+  resetStats();
 }
 
 PopplerCache::~PopplerCache()
 {
-  for (int i = 0; i <= lastValidCacheIndex; ++i) {
-    delete keys[i];
-    delete items[i];
+  clear();
+  delete[] buckets;
+}
+
+PopplerCache::Entry *PopplerCache::find(const PopplerCacheKey &key, unsigned int h)
+{
+  for (Entry *e = buckets[h & (bucketCount - 1)]; e; e = e->chain) {
+    if (e->hash == h && *e->key == key) {
+      return e;
+    }
   }
-  delete[] keys;
-  delete[] items;
+  return 0;
+}
+
+// Take an entry out of the LRU list.
+void PopplerCache::unlink(Entry *entry)
+{
+  if (entry->prev) {
+    entry->prev->next = entry->next;
+  } else {
+    head = entry->next;
+  }
+  if (entry->next) {
+    entry->next->prev = entry->prev;
+  } else {
+    tail = entry->prev;
+  }
+}
+
+// Take an entry out of the cache and delete it.
+void PopplerCache::remove(Entry *entry)
+{
+  Entry **p = &buckets[entry->hash & (bucketCount - 1)];
+  while (*p != entry) {
+    p = &(*p)->chain;
+  }
+  *p = entry->chain;
+  unlink(entry);
+
+  --numItems;
+  totalBytes -= entry->size;
+  delete entry->key;
+  delete entry->item;
+  delete entry;
+}
+
+// Double the buckets to keep the chains short.
+void PopplerCache::rehash()
+{
+  int newCount = bucketCount * 2;
+  Entry **newBuckets = new Entry*[newCount];
+  for (int i = 0; i < newCount; ++i) {
+    newBuckets[i] = 0;
+  }
+  for (Entry *e = head; e; e = e->next) {
+    Entry **b = &newBuckets[e->hash & (newCount - 1)];
+    e->chain = *b;
+    *b = e;
+  }
+  delete[] buckets;
+  buckets = newBuckets;
+  bucketCount = newCount;
 }
 
 PopplerCacheItem *PopplerCache::lookup(const PopplerCacheKey &key)
 {
-  if (lastValidCacheIndex < 0)
+  Entry *e = find(key, key.hash());
+  if (!e) {
+    ++missCount;
     return 0;
+  }
 
-  if (*keys[0] == key) {
-    return items[0];
-  }
-  for (int i = 1; i <= lastValidCacheIndex; i++) {
-    if (*keys[i] == key) {
-      PopplerCacheKey *keyHit = keys[i];
-      PopplerCacheItem *itemHit = items[i];
-
-      for (int j = i; j > 0; j--) {
-        keys[j] = keys[j - 1];
-        items[j] = items[j - 1];
-      }
-      
-      keys[0] = keyHit;
-      items[0] = itemHit;
-      return itemHit;
-    }
+  ++hitCount;
+  if (e != head) {
+    unlink(e);
+    e->prev = 0;
+    e->next = head;
+    head->prev = e;
+    head = e;
   }
-  return 0;
+  return e->item;
 }
 
 void PopplerCache::put(PopplerCacheKey *key, PopplerCacheItem *item)
 {
-  int movingStartIndex = lastValidCacheIndex + 1;
-  if (lastValidCacheIndex == cacheSize - 1) {
-    delete keys[lastValidCacheIndex];
-    delete items[lastValidCacheIndex];
-    movingStartIndex = cacheSize - 1;
+  unsigned int h = key->hash();
+  Entry *e = find(*key, h);
+  if (e) {
+    remove(e);
+  }
+
+  e = new Entry;
+  e->key = key;
+  e->item = item;
+  e->hash = h;
+  e->size = item->getSize();
+  e->prev = 0;
+  e->next = head;
+  if (head) {
+    head->prev = e;
   } else {
-    lastValidCacheIndex++;
+    tail = e;
+  }
+  head = e;
+  Entry **b = &buckets[h & (bucketCount - 1)];
+  e->chain = *b;
+  *b = e;
+  ++numItems;
+  totalBytes += e->size;
+
+  while (tail != head &&
+	 (numItems > cacheSize || (byteBudget > 0 && totalBytes > byteBudget))) {
+    remove(tail);
+    ++evictionCount;
   }
-  for (int i = movingStartIndex; i > 0; i--) {
-    keys[i] = keys[i - 1];
-    items[i] = items[i - 1];
+  if (numItems > bucketCount) {
+    rehash();
+  }
+}
+
+void PopplerCache::trim(int maxBytesA)
+{
+  while (tail && totalBytes > maxBytesA) {
+    remove(tail);
+    ++evictionCount;
+  }
+}
+
+void PopplerCache::clear()
+{
+  while (tail) {
+    remove(tail);
   }
-  keys[0] = key;
-  items[0] = item;
 }
 
 int PopplerCache::size()
@@ -88,15 +199,30 @@ int PopplerCache::size()
 
 int PopplerCache::numberOfItems()
 {
-  return lastValidCacheIndex + 1;
+  return numItems;
 }
     
 PopplerCacheItem *PopplerCache::item(int index)
 {
-  return items[index];
+  Entry *e = head;
+  for (int i = 0; e && i < index; ++i) {
+    e = e->next;
+  }
+  return e ? e->item : 0;
 }
     
 PopplerCacheKey *PopplerCache::key(int index)
 {
-  return keys[index];
+  Entry *e = head;
+  for (int i = 0; e && i < index; ++i) {
+    e = e->next;
+  }
+  return e ? e->key : 0;
+}
+
+void PopplerCache::resetStats()
+{
+  hitCount = 0;
+  missCount = 0;
+  evictionCount = 0;
 }
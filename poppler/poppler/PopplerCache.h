@@ -16,6 +16,9 @@ class PopplerCacheItem
 {
   public:
    virtual ~PopplerCacheItem();
+
+   /* The memory used by the item, in bytes */
+   virtual int getSize() const;
 };
 
 class PopplerCacheKey
@@ -23,39 +26,79 @@ class PopplerCacheKey
   public:
     virtual ~PopplerCacheKey();
     virtual bool operator==(const PopplerCacheKey &key) const = 0;
+
+    /* Equal keys must have equal hashes */
+    virtual unsigned int hash() const;
 };
 
+/* A hashed LRU cache, bounded by the number of items and optionally
+   by the sum of the item sizes */
 class PopplerCache
 {
   public:
-    PopplerCache(int cacheSizeA);
+    /* maxBytesA is the budget for the item sizes, 0 for none */
+    PopplerCache(int cacheSizeA, int maxBytesA = 0);
     ~PopplerCache();
     
     /* The item returned is owned by the cache */
     PopplerCacheItem *lookup(const PopplerCacheKey &key);
     
-    /* The key and item pointers ownership is taken by the cache */
+    /* The key and item pointers ownership is taken by the cache.
+       An equal key already cached is replaced.  The least recently
+       used items are evicted to fit the budgets, but the new item is
+       kept even if it is bigger than the byte budget alone */
     void put(PopplerCacheKey *key, PopplerCacheItem *item);
     
+    /* Evict least recently used items until the item sizes sum to at
+       most maxBytesA */
+    void trim(int maxBytesA);
+
+    /* Remove all items */
+    void clear();
+
     /* The max size of the cache */
     int size();
     
     /* The number of items in the cache */
     int numberOfItems();
     
-    /* The n-th item in the cache */
+    /* The n-th item in the cache, most recently used first */
     PopplerCacheItem *item(int index);
     
-    /* The n-th key in the cache */
+    /* The n-th key in the cache, most recently used first */
     PopplerCacheKey *key(int index);
+
+    /* The sum of the item sizes, and its budget */
+    int bytes() { return totalBytes; }
+    int maxBytes() { return byteBudget; }
+
+    /* Statistics since creation or the last resetStats() */
+    int hits() { return hitCount; }
+    int misses() { return missCount; }
+    int evictions() { return evictionCount; }
+    void resetStats();
   
   private:
     PopplerCache(const PopplerCache &cache); // not allowed
+
+    struct Entry;
+
+    Entry *find(const PopplerCacheKey &key, unsigned int h);
+    void unlink(Entry *entry);
+    void remove(Entry *entry);
+    void rehash();
   
-    PopplerCacheKey **keys;
-    PopplerCacheItem **items;
-    int lastValidCacheIndex;
+    Entry *head;		// most recently used
+    Entry *tail;		// least recently used
+    Entry **buckets;
+    int bucketCount;		// always a power of 2
+    int numItems;
     int cacheSize;
+    int totalBytes;
+    int byteBudget;
+    int hitCount;
+    int missCount;
+    int evictionCount;
 };
 
 #endif
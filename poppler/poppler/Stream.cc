@@ -2009,7 +2009,22 @@ GBool CCITTFaxStream::isBinary(GBool last) {
 // clip [-256,511] --> [0,255]
 #define dctClipOffset 256
 static Guchar dctClip[768];
-static int dctClipInit = 0;
+
+// Fill in dctClip at load time, so that DCTStreams created on
+// different threads never race on it.
+static class DCTClipInit {
+public:
+  DCTClipInit() {
+    int i;
+
+    for (i = -256; i < 0; ++i)
+      dctClip[dctClipOffset + i] = 0;
+    for (i = 0; i < 256; ++i)
+      dctClip[dctClipOffset + i] = i;
+    for (i = 256; i < 512; ++i)
+      dctClip[dctClipOffset + i] = 255;
+  }
+} dctClipInit;
 
 // zig zag decode map
 static const int dctZigZag[64] = {
@@ -2048,15 +2063,6 @@ DCTStream::DCTStream(Stream *strA, GBool colorXformA):
     frameBuf[i] = NULL;
   }
 
-  if (!dctClipInit) {
-    for (i = -256; i < 0; ++i)
-      dctClip[dctClipOffset + i] = 0;
-    for (i = 0; i < 256; ++i)
-      dctClip[dctClipOffset + i] = i;
-    for (i = 256; i < 512; ++i)
-      dctClip[dctClipOffset + i] = 255;
-    dctClipInit = 1;
-  }
 }
 
 DCTStream::~DCTStream() {
@@ -227,6 +227,9 @@ XRef::XRef() {
   streamEnds = NULL;
   streamEndsLen = 0;
   objStr = NULL;
+#if MULTITHREADED
+  gInitRecursiveMutex(&mutex);
+#endif
 }
 
 XRef::XRef(BaseStream *strA) {
@@ -240,6 +243,9 @@ XRef::XRef(BaseStream *strA) {
   streamEnds = NULL;
   streamEndsLen = 0;
   objStr = NULL;
+#if MULTITHREADED
+  gInitRecursiveMutex(&mutex);
+#endif
 
   encrypted = gFalse;
   permFlags = defPermFlags;
@@ -291,6 +297,45 @@ XRef::XRef(BaseStream *strA) {
   trailerDict.getDict()->setXRef(this);
 }
 
+XRef::XRef(BaseStream *strA, XRefEntry *entriesA, int sizeA,
+	   Guint *streamEndsA, int streamEndsLenA,
+	   Object *trailerDictA, Guint lastXRefPosA) {
+  Object obj;
+
+  ok = gTrue;
+  errCode = errNone;
+  size = sizeA;
+  entries = entriesA;
+  streamEnds = streamEndsA;
+  streamEndsLen = streamEndsLenA;
+  objStr = NULL;
+#if MULTITHREADED
+  gInitRecursiveMutex(&mutex);
+#endif
+
+  encrypted = gFalse;
+  permFlags = defPermFlags;
+  ownerPasswordOk = gFalse;
+
+  str = strA;
+  start = str->getStart();
+  lastXRefPos = lastXRefPosA;
+  trailerDict = *trailerDictA;
+
+  if (!trailerDict.isDict() ||
+      !trailerDict.dictLookupNF("Root", &obj)->isRef()) {
+    obj.free();
+    ok = gFalse;
+    errCode = errDamaged;
+    return;
+  }
+  rootNum = obj.getRefNum();
+  rootGen = obj.getRefGen();
+  obj.free();
+
+  trailerDict.getDict()->setXRef(this);
+}
+
 XRef::~XRef() {
   for(int i=0; i<size; i++) {
       entries[i].obj.free ();
@@ -304,6 +349,9 @@ XRef::~XRef() {
   if (objStr) {
     delete objStr;
   }
+#if MULTITHREADED
+  gDestroyMutex(&mutex);
+#endif
 }
 
 // Read the 'startxref' position.
@@ -892,6 +940,17 @@ GBool XRef::okToAssemble(GBool ignoreOwnerPW) {
 }
 
 Object *XRef::fetch(int num, int gen, Object *obj) {
+#if MULTITHREADED
+  gLockMutex(&mutex);
+#endif
+  fetchLocked(num, gen, obj);
+#if MULTITHREADED
+  gUnlockMutex(&mutex);
+#endif
+  return obj;
+}
+
+Object *XRef::fetchLocked(int num, int gen, Object *obj) {
   XRefEntry *e;
   Parser *parser;
   Object obj1, obj2, obj3;
@@ -30,9 +30,14 @@
 #pragma interface
 #endif
 
+#include "poppler-config.h"
 #include "goo/gtypes.h"
 #include "Object.h"
 
+#if MULTITHREADED
+#include "goo/GooMutex.h"
+#endif
+
 class Dict;
 class Stream;
 class Parser;
@@ -64,6 +69,12 @@ public:
   // Constructor.  Read xref table from stream.
   XRef(BaseStream *strA);
 
+  // Constructor.  Use an xref table read before, e.g. from a cache.
+  // Takes ownership of <entriesA>, <streamEndsA> and <trailerDictA>.
+  XRef(BaseStream *strA, XRefEntry *entriesA, int sizeA,
+       Guint *streamEndsA, int streamEndsLenA,
+       Object *trailerDictA, Guint lastXRefPosA);
+
   // Destructor.
   ~XRef();
 
@@ -123,6 +134,8 @@ public:
   int getSize() { return size; }
   XRefEntry *getEntry(int i) { return &entries[i]; }
   Object *getTrailerDict() { return &trailerDict; }
+  Guint *getStreamEnds() { return streamEnds; }
+  int getStreamEndsLen() { return streamEndsLen; }
 
   // Write access
   void setModifiedObject(Object* o, Ref r);
@@ -154,6 +167,12 @@ private:
   int permFlags;		// permission bits
   Guchar fileKey[16];		// file decryption key
   GBool ownerPasswordOk;	// true if owner password is correct
+#if MULTITHREADED
+  GooMutex mutex;		// guards the parser and <objStr>, fetch()
+				//   is reentrant so it is recursive
+#endif
+
+  Object *fetchLocked(int num, int gen, Object *obj);
 
   Guint getStartXref();
   GBool readXRef(Guint *pos);
@@ -16,7 +16,7 @@
 
 /* Enable multithreading support. */
 #ifndef MULTITHREADED
-#undef MULTITHREADED
+#define MULTITHREADED 1
 #endif
 
 /* Enable exceptions. */
@@ -31,12 +31,12 @@
 
 /* Include support for OPI comments. */
 #ifndef OPI_SUPPORT
-#undef OPI_SUPPORT
+#define OPI_SUPPORT 1
 #endif
 
 /* Enable word list support. */
 #ifndef TEXTOUT_WORD_LIST
-#undef TEXTOUT_WORD_LIST
+#define TEXTOUT_WORD_LIST 1
 #endif
 
 // Also, there's a couple of preprocessor symbols in the header files
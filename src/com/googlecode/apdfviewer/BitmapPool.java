@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+
+/**
+ * Bitmaps no longer used, kept by size and config to be drawn on again
+ * instead of allocating new ones. Idle bitmaps are bounded by a byte
+ * budget, the eldest are recycled beyond it.
+ *
+ * Pooled bitmaps keep their old pixels, the renderer clears the page
+ * before drawing.
+ * @author Li Wenhao
+ */
+public class BitmapPool {
+	/**
+	 * Identify a bucket of interchangeable bitmaps.
+	 */
+	private static final class Key {
+		final int width;
+		final int height;
+		final Bitmap.Config config;
+
+		Key(int width, int height, Bitmap.Config config) {
+			this.width = width;
+			this.height = height;
+			this.config = config;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+
+			Key k = (Key)o;
+			return width == k.width && height == k.height && config == k.config;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = width;
+			h = h*31 + height;
+			h = h*31 + config.hashCode();
+			return h;
+		}
+	}
+
+	/**
+	 * idle bitmaps by size and config.
+	 */
+	private final HashMap<Key, ArrayList<Bitmap>> m_buckets = new HashMap<Key, ArrayList<Bitmap>>();
+
+	/**
+	 * idle bitmaps, eldest first.
+	 */
+	private final LinkedList<Bitmap> m_idle = new LinkedList<Bitmap>();
+
+	/**
+	 * bytes of idle bitmaps.
+	 */
+	private int m_size = 0;
+
+	/**
+	 * budget of idle bitmaps.
+	 */
+	private int m_max_size;
+
+	/**
+	 * number of bitmaps reused, allocated, and recycled over budget.
+	 */
+	private int m_hits = 0;
+	private int m_misses = 0;
+	private int m_evictions = 0;
+
+	/**
+	 * @param maxBytes budget of idle bitmaps in bytes.
+	 */
+	public BitmapPool(int maxBytes) {
+		m_max_size = maxBytes;
+	}
+
+	private static int sizeOf(Bitmap bitmap) {
+		return bitmap.getRowBytes()*bitmap.getHeight();
+	}
+
+	/**
+	 * Get a bitmap from the pool, or allocate one if none matches. The
+	 * content of a pooled bitmap is undefined.
+	 */
+	public Bitmap get(int width, int height, Bitmap.Config config) {
+		synchronized (this) {
+			ArrayList<Bitmap> bucket = m_buckets.get(new Key(width, height, config));
+			if (bucket != null && !bucket.isEmpty()) {
+				Bitmap bitmap = bucket.remove(bucket.size() - 1);
+				m_idle.remove(bitmap);
+				m_size -= sizeOf(bitmap);
+				m_hits++;
+				return bitmap;
+			}
+			m_misses++;
+		}
+
+		try {
+			return Bitmap.createBitmap(width, height, config);
+		} catch (OutOfMemoryError e) {
+			// idle bitmaps of other sizes are in the way.
+			evictAll();
+			return Bitmap.createBitmap(width, height, config);
+		}
+	}
+
+	/**
+	 * Give a bitmap back to the pool, it must not be used any more.
+	 */
+	public void put(Bitmap bitmap) {
+		if (bitmap.isRecycled())
+			return;
+
+		synchronized (this) {
+			Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+			ArrayList<Bitmap> bucket = m_buckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<Bitmap>();
+				m_buckets.put(key, bucket);
+			}
+			bucket.add(bitmap);
+			m_idle.add(bitmap);
+			m_size += sizeOf(bitmap);
+		}
+
+		trimToSize(m_max_size);
+	}
+
+	/**
+	 * Recycle the eldest idle bitmaps until they take no more than
+	 * maxSize bytes.
+	 */
+	public void trimToSize(int maxSize) {
+		while (true) {
+			Bitmap bitmap;
+			synchronized (this) {
+				if (m_size <= maxSize || m_idle.isEmpty())
+					return;
+
+				bitmap = m_idle.removeFirst();
+				Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+				ArrayList<Bitmap> bucket = m_buckets.get(key);
+				bucket.remove(bitmap);
+				if (bucket.isEmpty())
+					m_buckets.remove(key);
+				m_size -= sizeOf(bitmap);
+				m_evictions++;
+			}
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Recycle all idle bitmaps.
+	 */
+	public void evictAll() {
+		trimToSize(-1);
+	}
+
+	/**
+	 * Change the budget of idle bitmaps.
+	 */
+	public void setMaxSize(int maxBytes) {
+		synchronized (this) {
+			m_max_size = maxBytes;
+		}
+		trimToSize(maxBytes);
+	}
+
+	/**
+	 * @return the budget of idle bitmaps.
+	 */
+	public synchronized int maxSize() {
+		return m_max_size;
+	}
+
+	/**
+	 * @return bytes of idle bitmaps.
+	 */
+	public synchronized int size() {
+		return m_size;
+	}
+
+	/**
+	 * @return number of bitmaps reused.
+	 */
+	public synchronized int getHits() {
+		return m_hits;
+	}
+
+	/**
+	 * @return number of bitmaps allocated because none matched.
+	 */
+	public synchronized int getMisses() {
+		return m_misses;
+	}
+
+	/**
+	 * @return number of idle bitmaps recycled to stay in budget.
+	 */
+	public synchronized int getEvictions() {
+		return m_evictions;
+	}
+
+	/**
+	 * @return fraction of requests served from the pool.
+	 */
+	public synchronized float getReuseRate() {
+		int requests = m_hits + m_misses;
+		return requests == 0 ? 0 : (float)m_hits/requests;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d reused, %d allocated (%.0f%%), %d recycled, %d/%dKB idle",
+				m_hits, m_misses, getReuseRate()*100, m_evictions,
+				m_size/1024, m_max_size/1024);
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import android.util.Log;
+
+/**
+ * Owner of everything kept for rendering: the page and tile caches, the
+ * bitmap pool, and the open document with its render contexts, decoded
+ * images and fonts. It shrinks them in steps under memory pressure and
+ * closes documents when they are replaced.
+ *
+ * All methods must be called on the UI thread.
+ * @author Li Wenhao
+ */
+public class CacheGovernor {
+	final static String TAG = "CacheGovernor";
+
+	/*
+	 * trim levels, the values of ComponentCallbacks2 so the level of
+	 * onTrimMemory() can be passed as is.
+	 */
+
+	/**
+	 * the system runs low on memory, drop what is cheap to get again.
+	 */
+	public final static int TRIM_RUNNING_MODERATE = 5;
+
+	/**
+	 * the system is about to kill background processes, keep little more
+	 * than what is on the screen.
+	 */
+	public final static int TRIM_RUNNING_CRITICAL = 15;
+
+	/**
+	 * the UI is not visible any more, drop everything but the document.
+	 */
+	public final static int TRIM_UI_HIDDEN = 20;
+
+	private final BitmapPool m_pool;
+	private final PageCache m_page_cache;
+	private final TileCache m_tile_cache;
+	private PDFDocument m_doc = null;
+
+	/**
+	 * @param maxBytes memory for the caches, a quarter each goes to pages
+	 * and tiles and an eighth to idle bitmaps.
+	 */
+	public CacheGovernor(long maxBytes) {
+		m_pool = new BitmapPool(budget(maxBytes/8));
+		m_page_cache = new PageCache(budget(maxBytes/4), m_pool);
+		m_tile_cache = new TileCache(budget(maxBytes/4), m_pool);
+	}
+
+	private static int budget(long bytes) {
+		return (int)Math.max(Math.min(bytes, Integer.MAX_VALUE), 1);
+	}
+
+	public BitmapPool getBitmapPool() {
+		return m_pool;
+	}
+
+	public PageCache getPageCache() {
+		return m_page_cache;
+	}
+
+	public TileCache getTileCache() {
+		return m_tile_cache;
+	}
+
+	public PDFDocument getDocument() {
+		return m_doc;
+	}
+
+	/**
+	 * Take over a document, the previous one is closed and its pages are
+	 * dropped.
+	 * @param doc may be null.
+	 */
+	public void setDocument(PDFDocument doc) {
+		if (doc == m_doc)
+			return;
+
+		if (m_doc != null)
+			m_doc.close();
+		m_doc = doc;
+		m_page_cache.evictAll();
+		m_tile_cache.evictAll();
+	}
+
+	/**
+	 * Shrink the caches for a level of memory pressure, higher levels
+	 * drop more.
+	 */
+	public void trimMemory(int level) {
+		if (level >= TRIM_RUNNING_MODERATE) {
+			m_pool.evictAll();
+			if (m_doc != null)
+				m_doc.trimRenderCache(m_doc.getImageCacheStats()[3]/2);
+		}
+
+		if (level >= TRIM_RUNNING_CRITICAL) {
+			m_page_cache.trimToSize(m_page_cache.size()/2);
+			m_tile_cache.trimToSize(m_tile_cache.size()/2);
+			m_pool.evictAll();
+			if (m_doc != null) {
+				m_doc.closeIdleContexts();
+				m_doc.trimRenderCache(0);
+			}
+		}
+
+		if (level >= TRIM_UI_HIDDEN) {
+			m_page_cache.evictAll();
+			m_tile_cache.evictAll();
+			m_pool.evictAll();
+			if (m_doc != null)
+				m_doc.clearRenderCache();
+		}
+
+		if (Log.isLoggable(TAG, Log.VERBOSE))
+			Log.v(TAG, "Trimmed to level " + level + ": pages " + m_page_cache.size()/1024
+					+ "KB, tiles " + m_tile_cache.size()/1024 + "KB, pool " + m_pool);
+	}
+
+	/**
+	 * Release everything but the document itself, when the UI is gone.
+	 */
+	public void release() {
+		trimMemory(TRIM_UI_HIDDEN);
+	}
+
+	/**
+	 * Release everything and close the document.
+	 */
+	public void close() {
+		release();
+		setDocument(null);
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Files on disk bounded by a byte budget, the least recently modified
+ * ones go first. Readers touch a file to keep it.
+ * @author Li Wenhao
+ */
+public class LruFiles {
+	private LruFiles() {
+	}
+
+	/**
+	 * Delete the least recently modified files until the rest take no
+	 * more than maxSize bytes.
+	 * @return bytes of the files left.
+	 */
+	public static long trimToSize(File[] files, long maxSize) {
+		long size = 0;
+		for (File f : files)
+			size += f.length();
+		if (size <= maxSize)
+			return size;
+
+		files = files.clone();
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long d = a.lastModified() - b.lastModified();
+				return d < 0 ? -1 : (d > 0 ? 1 : 0);
+			}
+		});
+		for (int i = 0; i < files.length && size > maxSize; i++) {
+			long length = files[i].length();
+			if (files[i].delete())
+				size -= length;
+		}
+		return size;
+	}
+}
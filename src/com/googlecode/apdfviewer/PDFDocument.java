@@ -13,7 +13,12 @@
  */
 package com.googlecode.apdfviewer;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileDescriptor;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
 
 import android.graphics.Canvas;
 
@@ -21,22 +26,361 @@ import android.graphics.Canvas;
  * @author Li Wenhao
  *
  */
-public class PDFDocument {
-	@SuppressWarnings("unused")
+public class PDFDocument implements PageSource {
 	private int mNativePDF = 0;
 	
+	/**
+	 * decoded images and other resources shared by the render contexts.
+	 */
+	private int mNativeCache = 0;
+	
+	/**
+	 * stdio file the document is read through if it can not be mapped,
+	 * closed by native_destroy().
+	 */
+	private int mNativeFile = 0;
+	
+	/**
+	 * stats of the last render, written by the native code.
+	 */
+	private final double[] mRenderStats = new double[RenderStats.SIZE];
+	
+	/**
+	 * budget of decoded images, in bytes.
+	 */
+	private final static int IMAGE_CACHE_BYTES = 8 * 1024 * 1024;
+	
+	/**
+	 * budget of the document indexes on disk, in bytes.
+	 */
+	private final static long INDEX_DIR_BYTES = 16 * 1024 * 1024;
+	
+	/**
+	 * pages of geometry loaded by one native call.
+	 */
+	private final static int GEOMETRY_BLOCK = 256;
+	
+	/**
+	 * values of a page in mPageBoxes.
+	 */
+	private final static int BOX_MEDIA_WIDTH = 0;
+	private final static int BOX_MEDIA_HEIGHT = 1;
+	private final static int BOX_CROP_WIDTH = 2;
+	private final static int BOX_CROP_HEIGHT = 3;
+	private final static int BOX_SIZE = 4;
+	
+	/**
+	 * number of pages, -1 until known.
+	 */
+	private int mNumPages = -1;
+	
+	/**
+	 * the page tree was read when mNumPages was, so it is exact. Until
+	 * then it is the /Count of the file, which may be wrong.
+	 */
+	private boolean mNumPagesExact = false;
+	
+	/**
+	 * media and crop box sizes and rotation of the pages, filled a block
+	 * at a time, so reading them needs no native call.
+	 */
+	private double[] mPageBoxes;
+	private int[] mPageRotates;
+	private boolean[] mGeometryLoaded;
+	
+	/**
+	 * number of pages in the loaded blocks.
+	 */
+	private int mLoadedPages = 0;
+	
+	/**
+	 * guards the geometry, the document itself may be locked by a worker
+	 * drawing on it. The native calls filling it lock the document too,
+	 * always after this lock.
+	 */
+	private final Object mGeometryLock = new Object();
+	
 	private boolean mUseMediaBox = false;
 	private boolean mCrop = false;
 	private double mH_DPI = 72.0;
 	private double mV_DPI = 72.0;
 	private int mRotate;
 	
+	private FileDescriptor mFd;
+	private String mOwnerPassword;
+	private String mUserPassword;
+	
+	/**
+	 * directory of document indexes, null to disable them.
+	 */
+	private static File sIndexDir = null;
+	
+	/**
+	 * identify the file content, null if it is not a regular file.
+	 */
+	private String mFingerprint;
+	
+	/**
+	 * idle render contexts, see acquireRenderContext().
+	 */
+	private final ArrayList<PDFDocument> mContexts = new ArrayList<PDFDocument>();
+	
+	/**
+	 * number of render contexts acquired and not released yet.
+	 */
+	private int mContextsOut = 0;
+	
+	/**
+	 * close() was called, the native state goes once no context is out.
+	 */
+	private boolean mClosed = false;
+	
+	/**
+	 * closed once the native state is freed, may be null.
+	 */
+	private Closeable mFile;
+	
 	//public PDFDocument(String fileName, String ownerPassword, String userPassword) {
 	//	mNativePDF = native_init(fileName, ownerPassword, userPassword);
 	//}
 	
 	public PDFDocument(FileDescriptor fd, String ownerPassword, String userPassword) {
-		mNativePDF = native_init(fd, ownerPassword, userPassword);
+		mFd = fd;
+		mOwnerPassword = ownerPassword;
+		mUserPassword = userPassword;
+		mFingerprint = native_fingerprint(fd);
+		mNativePDF = native_init(fd, ownerPassword, userPassword, false,
+				getIndexPath(), mFingerprint);
+		if (mNativePDF != 0)
+			mNativeCache = native_createCache(IMAGE_CACHE_BYTES);
+	}
+	
+	/**
+	 * Open another instance of the document on its own file offset.
+	 */
+	private PDFDocument(PDFDocument doc) {
+		mFingerprint = doc.mFingerprint;
+		mNativePDF = native_init(doc.mFd, doc.mOwnerPassword, doc.mUserPassword, true,
+				getIndexPath(), mFingerprint);
+		mNativeCache = doc.mNativeCache;
+	}
+	
+	/**
+	 * Set the directory to keep document indexes in. An index holds the
+	 * parsed xref table and page references, so opening a known file again
+	 * skips parsing them.
+	 * @param dir null to disable indexes.
+	 */
+	public static void setIndexDir(File dir) {
+		sIndexDir = dir;
+	}
+	
+	/**
+	 * @return a string which changes with the size, modification time and
+	 * content of the file, or null if it is not a regular file.
+	 */
+	public String getFingerprint() {
+		return mFingerprint;
+	}
+	
+	private String getIndexPath() {
+		if (sIndexDir == null || mFingerprint == null)
+			return null;
+		
+		return new File(sIndexDir, mFingerprint + ".idx").getPath();
+	}
+	
+	/**
+	 * Write the index of the document if it has none yet. This reads the
+	 * whole page tree on a render context, call it off the UI thread.
+	 * The indexes used least recently are deleted beyond their budget.
+	 */
+	public void saveIndex() {
+		String path = getIndexPath();
+		if (path == null || new File(path).exists())
+			return;
+		
+		PDFDocument ctx = acquireRenderContext();
+		boolean saved;
+		try {
+			synchronized (ctx) {
+				saved = ctx.native_saveIndex(path, mFingerprint);
+			}
+		} finally {
+			releaseRenderContext(ctx);
+		}
+		if (saved)
+			trimIndexes(INDEX_DIR_BYTES);
+	}
+	
+	/**
+	 * Delete the least recently opened indexes until they take no more
+	 * than maxSize bytes, other files of the directory are left alone.
+	 */
+	private static synchronized void trimIndexes(long maxSize) {
+		File dir = sIndexDir;
+		if (dir == null)
+			return;
+		
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.endsWith(".idx");
+			}
+		});
+		if (files != null)
+			LruFiles.trimToSize(files, maxSize);
+	}
+	
+	/**
+	 * Get a document to render on a worker thread. Every render context
+	 * parses the file by itself, so contexts can render at the same time.
+	 * The context gets the current settings of this document, return it
+	 * with releaseRenderContext() when done.
+	 * @return a context, or this document if the file can not be reopened,
+	 * lock the returned document while drawing.
+	 */
+	public PDFDocument acquireRenderContext() {
+		PDFDocument ctx = null;
+		synchronized (mContexts) {
+			// draws nothing once closed.
+			if (mClosed)
+				return this;
+			if (!mContexts.isEmpty())
+				ctx = mContexts.remove(mContexts.size() - 1);
+			mContextsOut++;
+		}
+		
+		if (ctx == null) {
+			ctx = new PDFDocument(this);
+			if (ctx.mNativePDF == 0) {
+				synchronized (mContexts) {
+					mContextsOut--;
+				}
+				freeIfUnused();
+				return this;
+			}
+		}
+		
+		ctx.mUseMediaBox = mUseMediaBox;
+		ctx.mCrop = mCrop;
+		ctx.mH_DPI = mH_DPI;
+		ctx.mV_DPI = mV_DPI;
+		ctx.mRotate = mRotate;
+		return ctx;
+	}
+	
+	/**
+	 * Return a context got from acquireRenderContext().
+	 */
+	public void releaseRenderContext(PDFDocument ctx) {
+		if (ctx == this)
+			return;
+		
+		synchronized (mContexts) {
+			mContextsOut--;
+			if (!mClosed) {
+				mContexts.add(ctx);
+				return;
+			}
+		}
+		
+		ctx.destroy();
+		freeIfUnused();
+	}
+	
+	/**
+	 * Free the idle render contexts, each holds a parsed copy of the
+	 * document. They are opened again when needed.
+	 */
+	public void closeIdleContexts() {
+		ArrayList<PDFDocument> idle;
+		synchronized (mContexts) {
+			idle = new ArrayList<PDFDocument>(mContexts);
+			mContexts.clear();
+		}
+		
+		for (PDFDocument ctx : idle)
+			ctx.destroy();
+	}
+	
+	/**
+	 * Drop decoded images until they use at most imageBytes.
+	 */
+	public void trimRenderCache(int imageBytes) {
+		synchronized (this) {
+			native_trimCache(Math.max(imageBytes, 0));
+		}
+	}
+	
+	/**
+	 * Drop all decoded images and loaded fonts.
+	 */
+	public void clearRenderCache() {
+		synchronized (this) {
+			native_trimCache(-1);
+		}
+	}
+	
+	/**
+	 * Free the native document, its render contexts and its caches. Renders
+	 * running on contexts finish first, the document draws nothing after.
+	 * The file descriptor is not closed.
+	 */
+	public void close() {
+		synchronized (mContexts) {
+			if (mClosed)
+				return;
+			mClosed = true;
+		}
+		
+		closeIdleContexts();
+		freeIfUnused();
+	}
+	
+	/**
+	 * Set the file the document was opened from, it is closed with the
+	 * document once no render context reads it any more.
+	 */
+	public void setFile(Closeable file) {
+		mFile = file;
+	}
+	
+	/**
+	 * Free the native state of a closed document once no render context
+	 * uses the shared cache any more.
+	 */
+	private void freeIfUnused() {
+		synchronized (mContexts) {
+			if (!mClosed || mContextsOut > 0)
+				return;
+		}
+		
+		// a worker may draw on this document if no context could be opened.
+		synchronized (this) {
+			if (mNativePDF != 0)
+				native_destroy();
+			if (mNativeCache != 0)
+				native_destroyCache();
+			
+			if (mFile != null) {
+				try {
+					mFile.close();
+				} catch (IOException e) {
+				}
+				mFile = null;
+			}
+		}
+	}
+	
+	/**
+	 * Free the native document of a render context, the cache belongs to
+	 * the document it was opened from.
+	 */
+	private void destroy() {
+		synchronized (this) {
+			native_destroy();
+			mNativeCache = 0;
+		}
 	}
 
 	public boolean ismUseMediaBox() {
@@ -79,22 +423,211 @@ public class PDFDocument {
 		this.mRotate = mRotate;
 	}
 	
-	public native double getPageMediaWidth(int page);
-	public native double getPageMediaHeight(int page);
-	public native double getPageCropWidth(int page);
-	public native double getPageCropHeight(int page);
-	public native int getPageRotate(int page);	
+	/**
+	 * @return stats of the last draw call on this document.
+	 */
+	public RenderStats getRenderStats() {
+		return new RenderStats(mRenderStats);
+	}
+	
+	/**
+	 * Time every content operator of the following renders, which slows
+	 * them down a little.
+	 */
+	public static native void setProfiling(boolean profiling);
+	
+	public double getPageMediaWidth(int page) {
+		return getPageBox(page, BOX_MEDIA_WIDTH);
+	}
+	
+	public double getPageMediaHeight(int page) {
+		return getPageBox(page, BOX_MEDIA_HEIGHT);
+	}
+	
+	public double getPageCropWidth(int page) {
+		return getPageBox(page, BOX_CROP_WIDTH);
+	}
+	
+	public double getPageCropHeight(int page) {
+		return getPageBox(page, BOX_CROP_HEIGHT);
+	}
+	
+	public int getPageRotate(int page) {
+		synchronized (mGeometryLock) {
+			return loadGeometry(page) ? mPageRotates[page - 1] : 0;
+		}
+	}
+	
 	public native boolean isOk();
-	public native int getNumPages();
 	
-	public native void drawPage(Canvas canvas, int page);
+	/**
+	 * Get the number of pages. It may change once, when the page tree
+	 * read for the geometry shows the /Count of the file was wrong.
+	 */
+	public int getNumPages() {
+		synchronized (mGeometryLock) {
+			if (mNumPages < 0)
+				readNumPages();
+			return mNumPages;
+		}
+	}
 	
-	public native void drawPages(Canvas canvas, int firstPage, int lastPage);
+	private void readNumPages() {
+		// a worker may draw on this document if no context could be opened.
+		synchronized (this) {
+			if (!isOk()) {
+				mNumPages = 0;
+				mNumPagesExact = true;
+				return;
+			}
+			
+			// asked first, a tree read meanwhile only leaves it inexact.
+			mNumPagesExact = native_isPageTreeRead();
+			mNumPages = native_getNumPages();
+		}
+	}
+	
+	/**
+	 * @return true if the geometry of the page is loaded, asking for it
+	 * then needs no native call.
+	 */
+	public boolean isPageLoaded(int page) {
+		synchronized (mGeometryLock) {
+			return mGeometryLoaded != null && page >= 1 && page <= mNumPages
+				&& mGeometryLoaded[(page - 1)/GEOMETRY_BLOCK];
+		}
+	}
+	
+	/**
+	 * @return number of pages whose geometry is loaded.
+	 */
+	public int getLoadedPages() {
+		synchronized (mGeometryLock) {
+			return mGeometryLoaded != null ? mLoadedPages : 0;
+		}
+	}
+	
+	private double getPageBox(int page, int value) {
+		synchronized (mGeometryLock) {
+			return loadGeometry(page) ? mPageBoxes[(page - 1)*BOX_SIZE + value] : 0;
+		}
+	}
+	
+	/**
+	 * Make sure the geometry of the block holding the page is loaded.
+	 * Small documents are loaded at once, huge ones only where they are
+	 * looked at. Call with mGeometryLock held.
+	 * @return false if there is no such page, its geometry is then 0.
+	 */
+	private boolean loadGeometry(int page) {
+		int n = getNumPages();
+		if (page < 1 || page > n)
+			return false;
+		
+		int block = (page - 1)/GEOMETRY_BLOCK;
+		if (mGeometryLoaded == null) {
+			mPageBoxes = new double[n*BOX_SIZE];
+			mPageRotates = new int[n];
+			mGeometryLoaded = new boolean[(n + GEOMETRY_BLOCK - 1)/GEOMETRY_BLOCK];
+			mLoadedPages = 0;
+		}
+		if (mGeometryLoaded[block])
+			return true;
+		
+		int first = block*GEOMETRY_BLOCK + 1;
+		int count = Math.min(GEOMETRY_BLOCK, n - first + 1);
+		synchronized (this) {
+			native_getPageGeometry(first, count, mPageBoxes, mPageRotates);
+		}
+		mGeometryLoaded[block] = true;
+		mLoadedPages += count;
+		
+		// the pages read may have finished the page tree, its real count
+		// replaces the /Count and the geometry is loaded again for it.
+		if (!mNumPagesExact) {
+			readNumPages();
+			if (mNumPages != n) {
+				mGeometryLoaded = null;
+				return loadGeometry(page);
+			}
+		}
+		return true;
+	}
+	
+	public void drawPage(Canvas canvas, int page) {
+		drawPage(canvas, page, null);
+	}
+	
+	public void drawPages(Canvas canvas, int firstPage, int lastPage) {
+		drawPages(canvas, firstPage, lastPage, null);
+	}
+
+	public void drawPageSlice(Canvas canvas, int page,
+			int sliceX, int sliceY, int sliceW, int sliceH) {
+		drawPageSlice(canvas, page, sliceX, sliceY, sliceW, sliceH, null);
+	}
+	
+	/**
+	 * Draw a page, stop early if the token is cancelled.
+	 * @param token may be null.
+	 * @return false if the rendering was cancelled, or if there is no such
+	 * page and nothing was drawn.
+	 */
+	public native boolean drawPage(Canvas canvas, int page, RenderToken token);
+	
+	/**
+	 * Draw a range of pages, stop early if the token is cancelled.
+	 * @param token may be null.
+	 * @return false if the rendering was cancelled, or if there is no first
+	 * page and nothing was drawn.
+	 */
+	public native boolean drawPages(Canvas canvas, int firstPage, int lastPage,
+			RenderToken token);
 
-	public native void drawPageSlice(Canvas canvas, int page,
-			int sliceX, int sliceY, int sliceW, int sliceH);
+	/**
+	 * Draw part of a page, stop early if the token is cancelled.
+	 * @param token may be null.
+	 * @return false if the rendering was cancelled, or if there is no such
+	 * page and nothing was drawn.
+	 */
+	public native boolean drawPageSlice(Canvas canvas, int page,
+			int sliceX, int sliceY, int sliceW, int sliceH, RenderToken token);
+	
+	/**
+	 * Statistics of the decoded image cache.
+	 * @return hits, misses, evictions, bytes and number of cached images.
+	 */
+	public native int[] getImageCacheStats();
+	
+	private native int native_init(FileDescriptor fd, String ownerPassword, String userPassword,
+			boolean reopen, String indexPath, String fingerprint);
+	
+	private static native String native_fingerprint(FileDescriptor fd);
+	
+	private native int native_getNumPages();
+	
+	private native boolean native_isPageTreeRead();
+	
+	/**
+	 * Read the media and crop box sizes and the rotation of count pages
+	 * from firstPage, into the arrays at the index of firstPage.
+	 */
+	private native void native_getPageGeometry(int firstPage, int count,
+			double[] boxes, int[] rotates);
+	
+	private native boolean native_saveIndex(String indexPath, String fingerprint);
+	
+	private native int native_createCache(int imageBytes);
+	
+	/**
+	 * @param imageBytes budget left to decoded images, -1 to drop them
+	 * and the fonts too.
+	 */
+	private native void native_trimCache(int imageBytes);
+	
+	private native void native_destroy();
 	
-	private native int native_init(FileDescriptor fd, String ownerPassword, String userPassword);
+	private native void native_destroyCache();
     
 	private static native void native_class_init();
 	
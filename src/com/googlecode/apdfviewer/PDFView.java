@@ -13,16 +13,23 @@
  */
 package com.googlecode.apdfviewer;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Point;
-import android.graphics.PointF;
+import android.graphics.Rect;
 import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -59,8 +66,9 @@ public class PDFView extends View {
 		
 		/**
 		 * Called when rendering is finished. 
+		 * @param stats stats of the renders since onRenderingStart().
 		 */
-		public void onRenderingEnd(PDFView v);
+		public void onRenderingEnd(PDFView v, RenderStats stats);
 		
 		/**
 		 * page changed.
@@ -96,30 +104,172 @@ public class PDFView extends View {
     private int m_current_page = 1;
     
     /**
-     * zoom factor.
+     * page to go to once the document is open, 0 for none.
      */
-    private float m_zoom_factor = 1.0F;
+    private int m_pending_page = 0;
     
     /**
-     * system DPI.
+     * zoom, page sizes and scroll limits.
      */
-    private PointF m_sys_dpi = new PointF();
+    private PageLayout m_layout = new PageLayout();
     
     /**
-     * bitmap as cache.
+     * owns the caches and the document, shrinks them under memory pressure.
      */
-    private Bitmap m_cache_bitmap = null;
+    private CacheGovernor m_governor = new CacheGovernor(Runtime.getRuntime().maxMemory());
     
     /**
-     * canvas to draw the cache.
+     * bitmaps of pages and tiles no longer shown, drawn on again by the
+     * next renders of the same size.
      */
-    private Canvas m_cache_canvas = new Canvas();
+    private BitmapPool m_bitmap_pool = m_governor.getBitmapPool();
+    
+    /**
+     * cache of rendered pages.
+     */
+    private PageCache m_page_cache = m_governor.getPageCache();
+    
+    /**
+     * number of pages rendered ahead on each side of the current page.
+     */
+    private final static int PREFETCH_PAGES = 2;
+    
+    /**
+     * fraction of the zoom factor for the quick first pass of a page.
+     */
+    private final static float PREVIEW_SCALE = 0.25F;
+    
+    /**
+     * paint to draw scaled previews.
+     */
+    private Paint m_preview_paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    
+    /**
+     * source and destination rectangle to draw previews.
+     */
+    private Rect m_preview_src = new Rect();
+    private Rect m_preview_dst = new Rect();
+    
+    /**
+     * the bitmap of current page could not be allocated, draw through tiles.
+     */
+    private boolean m_cache_failed = false;
     
     /**
      * bitmap configure
      */
     Bitmap.Config m_bitmap_config = Bitmap.Config.ARGB_8888;
     
+    /**
+     * bitmap configure of the display, used unless in low memory mode.
+     */
+    private Bitmap.Config m_display_config = Bitmap.Config.ARGB_8888;
+    
+    /**
+     * render pages and tiles in RGB_565, half the bytes of ARGB_8888.
+     */
+    private boolean m_low_memory = false;
+    
+    /**
+     * render the page through tiles even if it fits in one bitmap.
+     */
+    private boolean m_tiled = false;
+    
+    /**
+     * show all pages in one vertical strip, m_offset is then in the strip
+     * and the current page is the one in the middle of the view.
+     */
+    private boolean m_continuous = false;
+    
+    /**
+     * space between pages in continuous mode, in pixels.
+     */
+    private final static int PAGE_GAP = 8;
+    
+    /**
+     * number of tiles rendered ahead around the visible ones.
+     */
+    private final static int PREFETCH_MARGIN = 1;
+
+    /**
+     * number of render threads.
+     */
+    private final static int RENDER_THREADS =
+    	Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+
+    /**
+     * cache of rendered tiles.
+     */
+    private TileCache m_tile_cache = m_governor.getTileCache();
+    
+    /**
+     * source and destination rectangle to blit tiles.
+     */
+    private Rect m_tile_src = new Rect();
+    private Rect m_tile_dst = new Rect();
+    
+    /**
+     * tiles to draw, see PageLayout.getTileRange().
+     */
+    private int[] m_tile_range = new int[4];
+    
+    /**
+     * background renderer, onDraw only blits finished bitmaps.
+     */
+    private RenderScheduler m_scheduler;
+    
+    /**
+     * longest side of a thumbnail, in dips.
+     */
+    private final static int THUMBNAIL_SIZE = 96;
+    
+    /**
+     * budget of the thumbnails on disk and in memory.
+     */
+    private final static int THUMBNAIL_STORE_BYTES = 4*1024*1024;
+    private final static int THUMBNAIL_CACHE_BYTES = 1024*1024;
+    
+    /**
+     * thumbnails of all documents, kept across opens.
+     */
+    private ThumbnailStore m_thumbnail_store;
+    
+    /**
+     * thumbnails of the open document, null until it is open.
+     */
+    private Thumbnailer m_thumbnailer = null;
+    
+    /**
+     * longest side of a thumbnail in pixels.
+     */
+    private int m_thumbnail_size = THUMBNAIL_SIZE;
+    
+    /**
+     * paint for areas not rendered yet.
+     */
+    private Paint m_placeholder_paint = new Paint();
+    
+    /**
+     * number of the last openUri() call, documents opened by earlier calls
+     * are dropped.
+     */
+    private int m_open_serial = 0;
+    
+    /**
+     * uptime when openUri() was called, -1 once the first page is shown.
+     */
+    private long m_loading_start = -1;
+    
+    /**
+     * milliseconds from openUri() to the first page shown.
+     */
+    private long m_loading_time = 0;
+    
+    /**
+     * stats of the renders since the scheduler became busy.
+     */
+    private RenderStats m_render_stats = new RenderStats();
+    
 
 	/**
 	 * @see android.view.View#View(android.content.Context)
@@ -169,23 +319,25 @@ public class PDFView extends View {
 			return;
 		DisplayMetrics metrics = new DisplayMetrics();
 		manager.getDefaultDisplay().getMetrics(metrics);
-		m_sys_dpi.set(metrics.xdpi, metrics.ydpi);
+		m_layout.setDpi(metrics.xdpi, metrics.ydpi);
+		m_thumbnail_size = (int)(THUMBNAIL_SIZE*metrics.density);
 
 		// bitmap configure
 		switch (manager.getDefaultDisplay().getPixelFormat()) {
 		case PixelFormat.A_8:
-			m_bitmap_config = Bitmap.Config.ALPHA_8;
+			m_display_config = Bitmap.Config.ALPHA_8;
 			break;
 		case PixelFormat.RGB_565:
-			m_bitmap_config = Bitmap.Config.RGB_565;
+			m_display_config = Bitmap.Config.RGB_565;
 			break;
 		case PixelFormat.RGBA_4444:
-			m_bitmap_config = Bitmap.Config.ARGB_4444;
+			m_display_config = Bitmap.Config.ARGB_4444;
 			break;
 		case PixelFormat.RGBA_8888:
-			m_bitmap_config = Bitmap.Config.ARGB_8888;
+			m_display_config = Bitmap.Config.ARGB_8888;
 			break;
 		}
+		m_bitmap_config = m_low_memory ? Bitmap.Config.RGB_565 : m_display_config;
 	}
 	
 	private void initView() {
@@ -193,6 +345,34 @@ public class PDFView extends View {
 		
 		// initialize configure
 		initConfig();
+		m_layout.setPageGap(PAGE_GAP);
+		PDFDocument.setIndexDir(getContext().getCacheDir());
+		m_thumbnail_store = new ThumbnailStore(new File(getContext().getCacheDir(), "thumbnails"),
+				THUMBNAIL_STORE_BYTES);
+		
+		// background rendering, one worker per core, each renders on its own context.
+		m_scheduler = new RenderScheduler(RENDER_THREADS);
+		m_scheduler.setListener(new RenderScheduler.Listener() {
+			public void onRenderingStart() {
+				m_render_stats = new RenderStats();
+				if (m_thumbnailer != null)
+					m_thumbnailer.setPaused(true);
+				if (m_listener != null)
+					m_listener.onRenderingStart(PDFView.this);
+			}
+
+			public void onRenderingEnd() {
+				if (Log.isLoggable(TAG, Log.VERBOSE)) {
+					Log.v(TAG, "Rendered: " + m_render_stats);
+					Log.v(TAG, "Bitmap pool: " + m_bitmap_pool);
+				}
+				if (m_thumbnailer != null)
+					m_thumbnailer.setPaused(false);
+				if (m_listener != null)
+					m_listener.onRenderingEnd(PDFView.this, m_render_stats);
+			}
+		});
+		m_placeholder_paint.setColor(Color.LTGRAY);
 				
 		// touch scroll handler
 		OnTouchListener l = new View.OnTouchListener(){
@@ -205,6 +385,10 @@ public class PDFView extends View {
 						return false;
 					
 					m_offset.offset((int)distanceX, (int)distanceY);
+					if (m_continuous) {
+						ensureOffset();
+						updateCurrentPage();
+					}
 
 					postInvalidate();
 
@@ -224,23 +408,32 @@ public class PDFView extends View {
 		setOnTouchListener(l);
 	}
 
+	/**
+	 * @see android.view.View#onSizeChanged(int, int, int, int)
+	 */
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		m_layout.setViewSize(w, h);
+		
+		// the strip is laid out again, stay on the current page.
+		if (m_continuous && m_doc != null)
+			m_offset.set(0, m_layout.getPageTop(m_current_page));
+	}
+
 	private void ensureOffset() {
+		if (m_continuous) {
+			m_offset.x = m_layout.clampX(m_offset.x, m_layout.getStripWidth());
+			m_offset.y = m_layout.clampY(m_offset.y, m_layout.getStripHeight());
+			return;
+		}
+		
 		float zoom = getRealZoomFactor();
 
-		int w = (int)(m_doc.getPageMediaWidth(m_current_page)*m_sys_dpi.x*zoom/72.0F);
-		int h = (int)(m_doc.getPageMediaHeight(m_current_page)*m_sys_dpi.y*zoom/72.0F);
+		int w = m_layout.getPageWidth(m_current_page, zoom);
+		int h = m_layout.getPageHeight(m_current_page, zoom);
 
-		if (m_offset.x > w - getWidth())
-			m_offset.x = w - getWidth();
-
-		if (m_offset.x < 0)
-			m_offset.x = 0;
-
-		if (m_offset.y > h - getHeight())
-			m_offset.y = h - getHeight();
-
-		if (m_offset.y < 0)
-			m_offset.y = 0;
+		m_offset.x = m_layout.clampX(m_offset.x, w);
+		m_offset.y = m_layout.clampY(m_offset.y, h);
 	}
 
 	/**
@@ -248,41 +441,208 @@ public class PDFView extends View {
 	 * @param uri
 	 */
 	public void openUri(Uri uri) {
-		// reset
-		if (m_doc != null) {
-			// TODO: clean up?
-			m_doc = null;
-		}
+		// reset, the previous document is closed once its renders are done.
+		m_scheduler.cancelAll();
+		closeThumbnailer();
+		m_doc = null;
+		m_layout.setSource(null);
+		m_governor.setDocument(null);
 		m_current_page = 1;
+		m_pending_page = 0;
 		
 		// open uri
 		try {
 			m_descriptor = getContext().getContentResolver().openAssetFileDescriptor(uri, "r");
-			if (m_descriptor == null) {
-				Log.e(TAG, "File desciptor is null.");
-			}
 		} catch (FileNotFoundException e) {
 			Log.e(TAG, "Open file failed.");
+			m_descriptor = null;
+		}
+		if (m_descriptor == null) {
+			if (m_listener != null)
+				m_listener.onError(this, "Open file failed.");
+			return;
+		}
+		
+		// open document in the background, the page tree is read on demand
+		// so the first page shows up before the whole file is indexed.
+		final int serial = ++m_open_serial;
+		final AssetFileDescriptor descriptor = m_descriptor;
+		m_loading_start = SystemClock.uptimeMillis();
+		if (m_listener != null)
+			m_listener.onLoadingStart(this);
+		
+		new Thread(new Runnable() {
+			public void run() {
+				// the listener hears of the end of loading whatever happens.
+				PDFDocument opened = null;
+				try {
+					opened = new PDFDocument(descriptor.getFileDescriptor(), "", "");
+				} catch (Throwable e) {
+					Log.e(TAG, "Open document failed.", e);
+					try {
+						descriptor.close();
+					} catch (IOException x) {
+					}
+				}
+				
+				final PDFDocument doc = opened;
+				if (doc != null) {
+					doc.setFile(new Closeable() {
+						public void close() throws IOException {
+							descriptor.close();
+						}
+					});
+				}
+				post(new Runnable() {
+					public void run() {
+						documentOpened(serial, doc);
+					}
+				});
+				
+				// index the document for the next open, behind the rendering.
+				if (doc != null && doc.isOk()) {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					doc.saveIndex();
+				}
+			}
+		}, TAG + "-open").start();
+	}
+	
+	/**
+	 * @param doc the opened document, null if opening it failed.
+	 */
+	private void documentOpened(int serial, PDFDocument doc) {
+		// another document was opened meanwhile.
+		if (serial != m_open_serial) {
+			if (doc != null)
+				doc.close();
 			return;
 		}
 		
-		// open document
-		m_doc = new PDFDocument(m_descriptor.getFileDescriptor(), "", "");
-		if (!m_doc.isOk()) {
-			// TODO: report error.
+		if (doc == null || !doc.isOk()) {
+			if (doc != null)
+				doc.close();
+			m_loading_start = -1;
+			if (m_listener != null) {
+				m_listener.onError(this, "Open document failed.");
+				m_listener.onLoadingEnd(this);
+			}
 			return;
 		}
 		
+		m_doc = doc;
+		m_layout.setSource(doc);
+		m_governor.setDocument(doc);
+		m_thumbnailer = new Thumbnailer(doc, m_thumbnail_store, m_thumbnail_size,
+				THUMBNAIL_CACHE_BYTES);
+		m_thumbnailer.setPaused(m_scheduler.isBusy());
+		
+		// a page restored while opening, the zoom is in m_layout already.
+		if (m_pending_page > 0 && m_pending_page <= doc.getNumPages())
+			m_current_page = m_pending_page;
+		m_pending_page = 0;
 		pageChanged();
 	}
 	
+	/**
+	 * Called when a complete page is drawn, finish loading if it is the
+	 * first one.
+	 */
+	private void pageShown() {
+		if (m_loading_start < 0)
+			return;
+		
+		m_loading_time = SystemClock.uptimeMillis() - m_loading_start;
+		m_loading_start = -1;
+		Log.i(TAG, "First page shown in " + m_loading_time + "ms.");
+		if (m_listener != null)
+			m_listener.onLoadingEnd(this);
+	}
+	
+	/**
+	 * @return milliseconds from openUri() to the first page shown of the
+	 * last loaded document.
+	 */
+	public long getLoadingTime() {
+		return m_loading_time;
+	}
+	
+	/**
+	 * Go to the top of the current page.
+	 */
 	private void pageChanged() {
+		if (m_continuous)
+			m_offset.set(0, m_layout.getPageTop(m_current_page));
+		else
+			m_offset.set(0, 0);
+		
+		currentPageChanged();
+	}
+	
+	/**
+	 * In continuous mode, make the page in the middle of the view the
+	 * current one.
+	 */
+	private void updateCurrentPage() {
+		int page = m_layout.getPageAt(m_offset.y + getHeight()/2);
+		if (page > 0 && page != m_current_page) {
+			m_current_page = page;
+			currentPageChanged();
+		}
+	}
+	
+	private void currentPageChanged() {
 		if (m_listener != null) {
 			m_listener.onPageChanged(this, m_current_page);
 		}
 		
-		m_offset.set(0, 0);
-		dirty();
+		m_cache_failed = false;
+		
+		// keep the renders of pages still around the current one, and the
+		// tiles of the pages next to it which may be visible too.
+		final int current = m_current_page;
+		m_scheduler.cancel(new RenderScheduler.Filter() {
+			public boolean accept(RenderScheduler.Request r) {
+				if (r instanceof PageRequest)
+					return Math.abs(((PageRequest)r).m_key.page - current) > PREFETCH_PAGES;
+				if (m_continuous && r instanceof TileRequest)
+					return Math.abs(((TileRequest)r).m_key.page - current) > 1;
+				return true;
+			}
+		});
+		
+		requestPages();
+		invalidate();
+	}
+	
+	/**
+	 * Request the current page, then the pages around it nearest first.
+	 */
+	private void requestPages() {
+		// not laid out yet.
+		if (getWidth() == 0)
+			return;
+		
+		for (int i = 0; i <= PREFETCH_PAGES*2; i++) {
+			// current, next, previous, next + 1, previous - 1...
+			int delta = (i + 1)/2;
+			int page = m_current_page + ((i & 1) == 1 ? delta : -delta);
+			if (page < 1 || page > m_doc.getNumPages())
+				continue;
+			
+			float zoom = m_layout.getRealZoomFactor(page);
+			if (useTiles(page, zoom))
+				continue;
+			
+			// a pending prefetch of the current page gets promoted.
+			PageCache.Key key = new PageCache.Key(page, zoom);
+			if (m_page_cache.contains(key) || (i != 0 && m_scheduler.isPending(key)))
+				continue;
+			
+			m_scheduler.submit(new PageRequest(m_doc, key,
+					m_layout.getPageWidth(page, zoom), m_layout.getPageHeight(page, zoom),
+					i == 0 ? RenderScheduler.PRIORITY_VISIBLE : RenderScheduler.PRIORITY_PREFETCH));
+		}
 	}
 	
 	/**
@@ -312,9 +672,11 @@ public class PDFView extends View {
 	 * @param z the zoom factor, < 0 means fit width.
 	 */
 	public void setZoomFactor(float z) {
-		if (Float.compare(m_zoom_factor, z) != 0) {
-			m_zoom_factor = z;
+		if (Float.compare(m_layout.getZoomFactor(), z) != 0) {
+			m_layout.setZoomFactor(z);
 			// reset offset?
+			if (m_continuous && m_doc != null)
+				m_offset.set(0, m_layout.getPageTop(m_current_page));
 			dirty();
 		}
 	}
@@ -323,20 +685,14 @@ public class PDFView extends View {
 	 * Get real zoom factor.
 	 */
 	private float getRealZoomFactor() {
-		if (m_zoom_factor <= +0.0F) {
-			if (m_doc == null)
-				return 1.0F;
-			return (float) (getWidth()*72.0F/m_doc.getPageMediaWidth(m_current_page)/m_sys_dpi.x);
-		}
-		
-		return m_zoom_factor;
+		return m_layout.getRealZoomFactor(m_current_page);
 	}
 	
 	/**
 	 * Get current zoom factor.
 	 */
 	public float getZoomFactor() {
-		return m_zoom_factor;
+		return m_layout.getZoomFactor();
 	}
 	
 	/**
@@ -344,6 +700,12 @@ public class PDFView extends View {
 	 * @param page the page number.
 	 */
 	public void gotoPage(int page) {
+		// the document is opened in the background, go there once it is.
+		if (m_doc == null) {
+			m_pending_page = page;
+			return;
+		}
+		
 		if (page != m_current_page && page > 0 && m_doc != null && page <= m_doc.getNumPages()) {
 			m_current_page = page;
 			pageChanged();
@@ -351,49 +713,441 @@ public class PDFView extends View {
 	}
 	
 	private void dirty() {
-		if (m_cache_bitmap != null) {
-			m_cache_bitmap.recycle();
-			m_cache_bitmap = null;
+		m_scheduler.cancelAll();
+		m_cache_failed = false;
+		
+		invalidate();
+	}
+	
+	/**
+	 * Enable or disable tile rendering.
+	 * 
+	 * Pages which are too large for one bitmap at the current zoom are
+	 * always rendered through tiles.
+	 */
+	public void setTiledRendering(boolean tiled) {
+		if (m_tiled != tiled) {
+			m_tiled = tiled;
+			dirty();
+		}
+	}
+	
+	public boolean isTiledRendering() {
+		return m_tiled;
+	}
+	
+	/**
+	 * Enable or disable continuous scrolling.
+	 * 
+	 * In continuous mode all pages are laid out in one vertical strip and
+	 * scrolling moves from page to page. Only the visible pages and the
+	 * ones around the current page are rendered.
+	 */
+	public void setContinuousScrolling(boolean continuous) {
+		if (m_continuous == continuous)
+			return;
+		
+		// keep the same part of the current page in view.
+		if (m_doc != null) {
+			int top = m_layout.getPageTop(m_current_page);
+			m_offset.y += continuous ? top : -top;
 		}
+		m_continuous = continuous;
+		dirty();
+	}
+	
+	public boolean isContinuousScrolling() {
+		return m_continuous;
+	}
+	
+	/**
+	 * Enable or disable low memory mode.
+	 * 
+	 * In low memory mode pages and tiles are rendered in RGB_565 whatever
+	 * the display format, and the images on them are decoded to 16 or 8
+	 * bits, so twice as many pages fit in the caches at some loss of
+	 * color depth.
+	 */
+	public void setLowMemoryMode(boolean low) {
+		if (m_low_memory == low)
+			return;
+		
+		m_low_memory = low;
+		m_bitmap_config = low ? Bitmap.Config.RGB_565 : m_display_config;
 		
+		// the bitmaps of the other configure are of no use any more.
+		m_page_cache.evictAll();
+		m_tile_cache.evictAll();
+		m_bitmap_pool.evictAll();
+		dirty();
+	}
+	
+	public boolean isLowMemoryMode() {
+		return m_low_memory;
+	}
+	
+	/**
+	 * @return the pool of page and tile bitmaps, to read its statistics or
+	 * change its budget.
+	 */
+	public BitmapPool getBitmapPool() {
+		return m_bitmap_pool;
+	}
+	
+	/**
+	 * Shrink the caches for a level of memory pressure.
+	 * @param level a level of CacheGovernor or of onTrimMemory().
+	 */
+	public void trimMemory(int level) {
+		if (level >= CacheGovernor.TRIM_UI_HIDDEN) {
+			m_scheduler.cancelAll();
+			if (m_thumbnailer != null)
+				m_thumbnailer.cancel();
+		}
+		if (m_thumbnailer != null && level >= CacheGovernor.TRIM_RUNNING_CRITICAL)
+			m_thumbnailer.evictAll();
+		m_governor.trimMemory(level);
+		m_cache_failed = false;
 		invalidate();
 	}
 	
-	private boolean isCached() {
-		return (m_cache_bitmap != null);
+	/**
+	 * Release the caches when the view is not shown, the document stays
+	 * open and is rendered again when drawn.
+	 */
+	public void releaseCaches() {
+		trimMemory(CacheGovernor.TRIM_UI_HIDDEN);
+	}
+	
+	/**
+	 * Close the document and stop rendering, when the view is destroyed.
+	 */
+	public void close() {
+		++m_open_serial;
+		m_scheduler.quit();
+		closeThumbnailer();
+		m_doc = null;
+		m_layout.setSource(null);
+		m_governor.close();
+	}
+	
+	private void closeThumbnailer() {
+		if (m_thumbnailer != null) {
+			m_thumbnailer.close();
+			m_thumbnailer = null;
+		}
 	}
 	
-	private boolean ensureCache() {
-		float zoom = getRealZoomFactor();
+	/**
+	 * @return thumbnails of the open document, null while none is open.
+	 */
+	public Thumbnailer getThumbnailer() {
+		return m_thumbnailer;
+	}
+	
+	/**
+	 * Whether a page is on the screen.
+	 */
+	private boolean isPageVisible(int page) {
+		if (!m_continuous)
+			return page == m_current_page;
+		
+		int top = m_layout.getPageTop(page) - m_offset.y;
+		int h = m_layout.getPageHeight(page, m_layout.getRealZoomFactor(page));
+		return top < getHeight() && top + h > 0;
+	}
+	
+	private static int getBytesPerPixel(Bitmap.Config config) {
+		switch (config) {
+		case ALPHA_8:
+			return 1;
+		case RGB_565:
+		case ARGB_4444:
+			return 2;
+		default:
+			return 4;
+		}
+	}
+	
+	/**
+	 * Whether the page should be rendered through tiles.
+	 */
+	private boolean useTiles(int page, float zoom) {
+		if (m_tiled || (m_cache_failed && page == m_current_page))
+			return true;
+		
+		// a page bitmap larger than half of the tile budget is likely to
+		// fail allocation, or to push everything else out of memory.
+		return m_layout.getPageBytes(page, zoom, getBytesPerPixel(m_bitmap_config))
+				> m_tile_cache.maxSize()/2;
+	}
+	
+	/**
+	 * Render a whole page into a new bitmap.
+	 */
+	private class PageRequest extends RenderScheduler.Request {
+		private final PDFDocument m_document;
+		private final PageCache.Key m_key;
+		private final int m_width;
+		private final int m_height;
+		private Bitmap m_bitmap = null;
+		private boolean m_out_of_memory = false;
+		private RenderStats m_stats = null;
+		
+		PageRequest(PDFDocument doc, PageCache.Key key, int w, int h, int priority) {
+			super(key, priority);
+			m_document = doc;
+			m_key = key;
+			m_width = w;
+			m_height = h;
+		}
 
-		int w = (int)(m_doc.getPageMediaWidth(m_current_page)*m_sys_dpi.x*zoom/72.0F);
-		int h = (int)(m_doc.getPageMediaHeight(m_current_page)*m_sys_dpi.y*zoom/72.0F);
+		@Override
+		protected void render() {
+			try {
+				m_bitmap = m_bitmap_pool.get(m_width, m_height, m_bitmap_config);
+			} catch (OutOfMemoryError e) {
+				m_out_of_memory = true;
+				return;
+			}
+			
+			// a pooled bitmap still shows what it was drawn for last.
+			m_bitmap.eraseColor(Color.WHITE);
+			Canvas canvas = new Canvas(m_bitmap);
+			PDFDocument ctx = m_document.acquireRenderContext();
+			boolean done;
+			try {
+				synchronized (ctx) {
+					ctx.setXdpi(m_layout.getXdpi()*m_key.zoom);
+					ctx.setYdpi(m_layout.getYdpi()*m_key.zoom);
+					done = ctx.drawPage(canvas, m_key.page, getToken());
+					m_stats = ctx.getRenderStats();
+				}
+			} finally {
+				m_document.releaseRenderContext(ctx);
+			}
+			
+			if (!done) {
+				m_bitmap_pool.put(m_bitmap);
+				m_bitmap = null;
+			}
+		}
 
-		if (m_cache_bitmap == null || 
-				m_cache_bitmap.getWidth() != w || m_cache_bitmap.getHeight() != h) {
+		@Override
+		protected void deliver() {
+			addRenderStats(m_stats);
+			if (m_bitmap == null) {
+				// out of memory, draw current page through tiles.
+				if (m_out_of_memory && m_key.page == m_current_page) {
+					m_cache_failed = true;
+					invalidate();
+				}
+				return;
+			}
+			
+			m_page_cache.put(m_key, m_bitmap);
+			if (isPageVisible(m_key.page))
+				invalidate();
+		}
 
-			if (m_cache_bitmap != null)
-				m_cache_bitmap.recycle();
+		@Override
+		protected void discard() {
+			addRenderStats(m_stats);
+			if (m_bitmap != null)
+				m_bitmap_pool.put(m_bitmap);
+		}
+	}
+	
+	/**
+	 * Render one tile into a new bitmap.
+	 */
+	private class TileRequest extends RenderScheduler.Request {
+		private final PDFDocument m_document;
+		private final TileCache.Key m_key;
+		private final int m_width;
+		private final int m_height;
+		private Bitmap m_bitmap = null;
+		private boolean m_out_of_memory = false;
+		private RenderStats m_stats = null;
+		
+		/**
+		 * @param w width of the page in pixels.
+		 * @param h height of the page in pixels.
+		 */
+		TileRequest(PDFDocument doc, TileCache.Key key, int w, int h, int priority) {
+			super(key, priority);
+			m_document = doc;
+			m_key = key;
+			m_width = w;
+			m_height = h;
+		}
 
+		@Override
+		protected void render() {
+			int size = TileCache.TILE_SIZE;
 			try {
-				m_cache_bitmap = Bitmap.createBitmap(w, h, m_bitmap_config);
-			} catch (Throwable a) {
-				return false;
+				m_bitmap = m_bitmap_pool.get(size, size, m_bitmap_config);
+			} catch (OutOfMemoryError e) {
+				m_out_of_memory = true;
+				return;
+			}
+			
+			// a pooled bitmap still shows what it was drawn for last.
+			m_bitmap.eraseColor(Color.WHITE);
+			Canvas canvas = new Canvas(m_bitmap);
+			PDFDocument ctx = m_document.acquireRenderContext();
+			boolean done;
+			try {
+				synchronized (ctx) {
+					ctx.setXdpi(m_layout.getXdpi()*m_key.zoom);
+					ctx.setYdpi(m_layout.getYdpi()*m_key.zoom);
+					done = ctx.drawPageSlice(canvas, m_key.page, m_key.x*size, m_key.y*size,
+							Math.min(size, m_width - m_key.x*size),
+							Math.min(size, m_height - m_key.y*size), getToken());
+					m_stats = ctx.getRenderStats();
+				}
+			} finally {
+				m_document.releaseRenderContext(ctx);
+			}
+			
+			if (!done) {
+				m_bitmap_pool.put(m_bitmap);
+				m_bitmap = null;
 			}
-			m_cache_canvas.setBitmap(m_cache_bitmap);
+		}
+
+		@Override
+		protected void deliver() {
+			addRenderStats(m_stats);
+			if (m_bitmap == null) {
+				// make room for the next try.
+				if (m_out_of_memory)
+					m_tile_cache.trimToSize(m_tile_cache.size()/2);
+				return;
+			}
+			
+			m_tile_cache.put(m_key, m_bitmap);
+			invalidate();
+		}
+
+		@Override
+		protected void discard() {
+			addRenderStats(m_stats);
+			if (m_bitmap != null)
+				m_bitmap_pool.put(m_bitmap);
+		}
+	}
+	
+	/**
+	 * Count the stats of a finished render, on the UI thread.
+	 */
+	private void addRenderStats(RenderStats stats) {
+		if (stats != null)
+			m_render_stats.add(stats);
+	}
+	
+	/**
+	 * Find a bitmap of a page rendered at another zoom factor. If there is
+	 * none, request a quick render at a fraction of the zoom.
+	 * @return the bitmap or null.
+	 */
+	private Bitmap findPreview(int page, float zoom) {
+		PageCache.Key key = m_page_cache.findOtherZoom(page, zoom);
+		if (key != null)
+			return m_page_cache.get(key);
+		
+		float preview = zoom*PREVIEW_SCALE;
+		if (!useTiles(page, preview)) {
+			key = new PageCache.Key(page, preview);
+			m_scheduler.submit(new PageRequest(m_doc, key,
+					m_layout.getPageWidth(page, preview),
+					m_layout.getPageHeight(page, preview),
+					RenderScheduler.PRIORITY_VISIBLE));
 		}
 		
-		return true;
+		return null;
 	}
 	
-	private void drawCache(boolean refresh) {
-		m_doc.drawPage(m_cache_canvas, m_current_page);
+	/**
+	 * Draw the visible tiles of a page, and request the missing ones.
+	 * @param x0 horizontal offset of the view on the page.
+	 * @param y0 vertical offset of the view on the page.
+	 * @param preview scaled in place of missing tiles, may be null.
+	 */
+	private void drawTiles(Canvas canvas, int page, float zoom, int x0, int y0,
+			int w, int h, Bitmap preview) {
+		int size = TileCache.TILE_SIZE;
+		int[] range = m_tile_range;
+		m_layout.getTileRange(x0, y0, w, h, 0, range);
+		int left = range[0];
+		int top = range[1];
+		int right = range[2];
+		int bottom = range[3];
 		
-		if (refresh) {
-			postInvalidate();
+		for (int y = top; y <= bottom; y++) {
+			for (int x = left; x <= right; x++) {
+				TileCache.Key key = new TileCache.Key(page, zoom, x, y);
+				Bitmap tile = m_tile_cache.get(key);
+				
+				// clip tiles on the right and bottom edges to the page.
+				int tw = Math.min(size, w - x*size);
+				int th = Math.min(size, h - y*size);
+				m_tile_dst.set(x*size - x0, y*size - y0,
+						x*size - x0 + tw, y*size - y0 + th);
+				
+				if (tile != null) {
+					m_tile_src.set(0, 0, tw, th);
+					canvas.drawBitmap(tile, m_tile_src, m_tile_dst, null);
+				} else {
+					if (preview != null) {
+						int pw = preview.getWidth();
+						int ph = preview.getHeight();
+						m_preview_src.set(x*size*pw/w, y*size*ph/h,
+								(x*size + tw)*pw/w, (y*size + th)*ph/h);
+						canvas.drawBitmap(preview, m_preview_src, m_tile_dst, m_preview_paint);
+					} else {
+						canvas.drawRect(m_tile_dst, m_placeholder_paint);
+					}
+					m_scheduler.submit(new TileRequest(m_doc, key, w, h, 
+							RenderScheduler.PRIORITY_VISIBLE));
+				}
+			}
+		}
+		
+		// prefetch the margin.
+		m_layout.getTileRange(x0, y0, w, h, PREFETCH_MARGIN, range);
+		for (int y = range[1]; y <= range[3]; y++) {
+			for (int x = range[0]; x <= range[2]; x++) {
+				if (x >= left && x <= right && y >= top && y <= bottom)
+					continue;
+				
+				TileCache.Key key = new TileCache.Key(page, zoom, x, y);
+				if (!m_tile_cache.contains(key) && !m_scheduler.isPending(key))
+					m_scheduler.submit(new TileRequest(m_doc, key, w, h, 
+							RenderScheduler.PRIORITY_PREFETCH));
+			}
 		}
 	}
-
+	
+	/**
+	 * @param x0 horizontal offset of the view on the page.
+	 * @param y0 vertical offset of the view on the page.
+	 * @return true if any visible tile of the page is not rendered.
+	 */
+	private boolean hasMissingTiles(int page, float zoom, int x0, int y0, int w, int h) {
+		int[] range = m_tile_range;
+		m_layout.getTileRange(x0, y0, w, h, 0, range);
+		
+		for (int y = range[1]; y <= range[3]; y++) {
+			for (int x = range[0]; x <= range[2]; x++) {
+				if (!m_tile_cache.contains(new TileCache.Key(page, zoom, x, y)))
+					return true;
+			}
+		}
+		
+		return false;
+	}
+	
 	/**
 	 * @see android.view.View#onDraw(android.graphics.Canvas)
 	 */
@@ -403,26 +1157,76 @@ public class PDFView extends View {
 		if (m_doc == null)
 			return;
 		
-		// set document DPI.
-		float zoom = getRealZoomFactor();
-		m_doc.setXdpi(m_sys_dpi.x*zoom);
-		m_doc.setYdpi(m_sys_dpi.y*zoom);
+		// the page count drops once if the /Count of the file was wrong.
+		int pages = m_doc.getNumPages();
+		if (m_current_page > pages && pages > 0) {
+			m_current_page = pages;
+			pageChanged();
+		}
 		
 		// ensure offset is right.
 		ensureOffset();
 		
-		// draw
-		if (isCached()) {
-			canvas.drawBitmap(m_cache_bitmap, -m_offset.x, -m_offset.y, null);
+		if (!m_continuous) {
+			drawPage(canvas, m_current_page, m_offset.x, m_offset.y);
+			return;
+		}
+		
+		// the pages crossing the view, found in the strip without looking
+		// at the others.
+		int bottom = m_offset.y + getHeight();
+		int n = m_doc.getNumPages();
+		for (int page = m_layout.getPageAt(m_offset.y); page >= 1 && page <= n; page++) {
+			int top = m_layout.getPageTop(page);
+			if (top >= bottom)
+				break;
+			drawPage(canvas, page, m_offset.x, m_offset.y - top);
+		}
+	}
+	
+	/**
+	 * Draw a page, rendering is done by the scheduler.
+	 * @param x horizontal offset of the view on the page.
+	 * @param y vertical offset of the view on the page.
+	 */
+	private void drawPage(Canvas canvas, int page, int x, int y) {
+		float zoom = m_layout.getRealZoomFactor(page);
+		int w = m_layout.getPageWidth(page, zoom);
+		int h = m_layout.getPageHeight(page, zoom);
+		
+		if (useTiles(page, zoom)) {
+			boolean missing = hasMissingTiles(page, zoom, x, y, w, h);
+			Bitmap preview = missing ? findPreview(page, zoom) : null;
+			drawTiles(canvas, page, zoom, x, y, w, h, preview);
+			if (!missing && page == m_current_page)
+				pageShown();
+			return;
+		}
+		
+		PageCache.Key key = new PageCache.Key(page, zoom);
+		Bitmap bitmap = m_page_cache.get(key);
+		if (bitmap != null) {
+			canvas.drawBitmap(bitmap, -x, -y, null);
+			if (page == m_current_page)
+				pageShown();
+			return;
+		}
+		
+		// progressive rendering, show a scaled or low resolution page
+		// until the full resolution one arrives.
+		Bitmap preview = findPreview(page, zoom);
+		m_preview_dst.set(-x, -y, w - x, h - y);
+		if (preview != null) {
+			canvas.drawBitmap(preview, null, m_preview_dst, m_preview_paint);
 		} else {
-			if (ensureCache()) {
-				drawCache(true);
-			} else {
-				// use drawPageSlice.
-				m_doc.drawPageSlice(canvas, m_current_page, 
-						m_offset.x, m_offset.y, getWidth(), getHeight());
-			}
-		}		
+			canvas.drawRect(m_preview_dst, m_placeholder_paint);
+		}
+		
+		if (page == m_current_page)
+			requestPages();
+		else
+			m_scheduler.submit(new PageRequest(m_doc, key, w, h,
+					RenderScheduler.PRIORITY_VISIBLE));
 	}
 
 	public int getPagesCount() {
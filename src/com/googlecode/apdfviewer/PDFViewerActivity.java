@@ -46,6 +46,8 @@ public class PDFViewerActivity extends Activity {
 	
     private static final String PAGE = "page";
     private static final String ZOOM = "zoom";
+    private static final String CONTINUOUS = "continuous";
+    private static final String LOW_MEMORY = "low_memory";
     
     private static final int ABOUT = 1;
     
@@ -120,7 +122,7 @@ public class PDFViewerActivity extends Activity {
 				
 			}
 
-			public void onRenderingEnd(PDFView v) {
+			public void onRenderingEnd(PDFView v, RenderStats stats) {
 				// TODO Auto-generated method stub
 				
 			}
@@ -150,6 +152,9 @@ public class PDFViewerActivity extends Activity {
 		btn = (ImageButton)findViewById(R.id.go_page);
 		btn.setOnClickListener(new View.OnClickListener(){
 			public void onClick(View v) {
+				// the document may have been opened after the dialog.
+				m_go_dialog.setMax(m_pdf_view.getPagesCount());
+				m_go_dialog.setThumbnailer(m_pdf_view.getThumbnailer());
 				m_go_dialog.setCurrent(m_pdf_view.getCurrentPage());
 				m_go_dialog.show();
 			}
@@ -201,16 +206,42 @@ public class PDFViewerActivity extends Activity {
 
 		outState.putInt(PAGE, m_pdf_view.getCurrentPage());
 		outState.putFloat(ZOOM, m_pdf_view.getZoomFactor());
+		outState.putBoolean(CONTINUOUS, m_pdf_view.isContinuousScrolling());
+		outState.putBoolean(LOW_MEMORY, m_pdf_view.isLowMemoryMode());
 	}
 
 	@Override
 	protected void onStop() {
 		super.onStop();
+		
+		// pages are rendered again when the activity is shown.
+		if (m_pdf_view != null)
+			m_pdf_view.releaseCaches();
 	}
 
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
+		
+		if (m_pdf_view != null)
+			m_pdf_view.close();
+	}
+	
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		
+		if (m_pdf_view != null)
+			m_pdf_view.trimMemory(CacheGovernor.TRIM_RUNNING_CRITICAL);
+	}
+	
+	/**
+	 * Called by platforms with ComponentCallbacks2, not an override on
+	 * older ones.
+	 */
+	public void onTrimMemory(int level) {
+		if (m_pdf_view != null)
+			m_pdf_view.trimMemory(level);
 	}
 
 	/**
@@ -221,6 +252,8 @@ public class PDFViewerActivity extends Activity {
 		super.onRestoreInstanceState(savedInstanceState);
 		
 		m_pdf_view.setZoomFactor(savedInstanceState.getFloat(ZOOM));
+		m_pdf_view.setContinuousScrolling(savedInstanceState.getBoolean(CONTINUOUS));
+		m_pdf_view.setLowMemoryMode(savedInstanceState.getBoolean(LOW_MEMORY));
 		m_pdf_view.gotoPage(savedInstanceState.getInt(PAGE));
 	}
 
@@ -236,6 +269,30 @@ public class PDFViewerActivity extends Activity {
 				return true;
 			}	
 	    });
+		
+		if (m_pdf_view != null) {
+			item = menu.add(0, 1, 0, "Continuous");
+			item.setCheckable(true);
+			item.setChecked(m_pdf_view.isContinuousScrolling());
+			item.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+				public boolean onMenuItemClick(MenuItem item) {
+					item.setChecked(!item.isChecked());
+					m_pdf_view.setContinuousScrolling(item.isChecked());
+					return true;
+				}
+			});
+			
+			item = menu.add(0, 2, 0, "Low memory");
+			item.setCheckable(true);
+			item.setChecked(m_pdf_view.isLowMemoryMode());
+			item.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+				public boolean onMenuItemClick(MenuItem item) {
+					item.setChecked(!item.isChecked());
+					m_pdf_view.setLowMemoryMode(item.isChecked());
+					return true;
+				}
+			});
+		}
 	    return true;
 	}
 
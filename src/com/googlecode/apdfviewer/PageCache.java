@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import android.graphics.Bitmap;
+
+/**
+ * Byte-budgeted LRU cache of whole rendered pages.
+ * @author Li Wenhao
+ */
+public class PageCache extends SizedLruCache<PageCache.Key, Bitmap> {
+	/**
+	 * Identify a rendered page.
+	 */
+	public static final class Key {
+		public final int page;
+		public final float zoom;
+
+		public Key(int page, float zoom) {
+			this.page = page;
+			this.zoom = zoom;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+
+			Key k = (Key)o;
+			return page == k.page && Float.compare(zoom, k.zoom) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return page*31 + Float.floatToIntBits(zoom);
+		}
+	}
+
+	/**
+	 * bitmaps removed from the cache go there, null to recycle them.
+	 */
+	private final BitmapPool m_pool;
+
+	/**
+	 * @param maxBytes the memory budget in bytes.
+	 */
+	public PageCache(int maxBytes) {
+		this(maxBytes, null);
+	}
+
+	/**
+	 * @param maxBytes the memory budget in bytes.
+	 * @param pool takes the bitmaps removed from the cache, may be null.
+	 */
+	public PageCache(int maxBytes, BitmapPool pool) {
+		super(maxBytes);
+		m_pool = pool;
+	}
+
+	/**
+	 * Find the page rendered at the largest zoom factor other than the
+	 * given one.
+	 * @return the key or null if no other zoom is cached.
+	 */
+	public Key findOtherZoom(int page, float zoom) {
+		Key found = null;
+		for (Key k : keys()) {
+			if (k.page == page && Float.compare(k.zoom, zoom) != 0
+					&& (found == null || k.zoom > found.zoom))
+				found = k;
+		}
+		return found;
+	}
+
+	@Override
+	protected int sizeOf(Key key, Bitmap value) {
+		return value.getRowBytes()*value.getHeight();
+	}
+
+	@Override
+	protected void entryRemoved(Key key, Bitmap value) {
+		if (m_pool != null)
+			m_pool.put(value);
+		else
+			value.recycle();
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+/**
+ * Geometry of the pages in the view: zoom, page sizes in pixels, scroll
+ * limits, visible tiles, and the strip of all pages in continuous mode.
+ *
+ * It uses no Android classes, so what the view computes for every frame
+ * can be measured on a plain JVM.
+ * @author Li Wenhao
+ */
+public class PageLayout {
+	/**
+	 * size in points of a page which has none, as pages of damaged files
+	 * may. Letter keeps the zoom and the strip finite.
+	 */
+	private final static double DEFAULT_PAGE_WIDTH = 612;
+	private final static double DEFAULT_PAGE_HEIGHT = 792;
+
+	private PageSource m_source = null;
+
+	/**
+	 * screen DPI.
+	 */
+	private float m_xdpi = 0;
+	private float m_ydpi = 0;
+
+	/**
+	 * zoom factor, <= 0 means fit width.
+	 */
+	private float m_zoom_factor = 1.0F;
+
+	/**
+	 * size of the view.
+	 */
+	private int m_view_width = 0;
+	private int m_view_height = 0;
+
+	/**
+	 * space between pages in the strip.
+	 */
+	private int m_page_gap = 0;
+
+	/**
+	 * top of every page in the strip, and its height at the end. null
+	 * until needed after a change of the geometry.
+	 */
+	private int[] m_strip_tops = null;
+
+	/**
+	 * width of the widest page in the strip.
+	 */
+	private int m_strip_width = 0;
+
+	/**
+	 * pages with a known size when the strip was laid out, -1 if all of
+	 * them were.
+	 */
+	private int m_strip_loaded = -1;
+
+	/**
+	 * @param source the pages, may be null if no document is open.
+	 */
+	public void setSource(PageSource source) {
+		m_source = source;
+		m_strip_tops = null;
+	}
+
+	public PageSource getSource() {
+		return m_source;
+	}
+
+	public void setDpi(float xdpi, float ydpi) {
+		m_xdpi = xdpi;
+		m_ydpi = ydpi;
+		m_strip_tops = null;
+	}
+
+	public float getXdpi() {
+		return m_xdpi;
+	}
+
+	public float getYdpi() {
+		return m_ydpi;
+	}
+
+	public void setViewSize(int width, int height) {
+		m_view_width = width;
+		m_view_height = height;
+		m_strip_tops = null;
+	}
+
+	public int getViewWidth() {
+		return m_view_width;
+	}
+
+	public int getViewHeight() {
+		return m_view_height;
+	}
+
+	/**
+	 * @param z the zoom factor, <= 0 means fit width.
+	 */
+	public void setZoomFactor(float z) {
+		m_zoom_factor = z;
+		m_strip_tops = null;
+	}
+
+	public float getZoomFactor() {
+		return m_zoom_factor;
+	}
+
+	/**
+	 * Get the zoom factor of the page, resolving fit width.
+	 */
+	public float getRealZoomFactor(int page) {
+		if (m_zoom_factor <= +0.0F) {
+			if (m_source == null)
+				return 1.0F;
+			return (float) (m_view_width*72.0F/getMediaWidth(page)/m_xdpi);
+		}
+
+		return m_zoom_factor;
+	}
+
+	private double getMediaWidth(int page) {
+		double w = m_source.getPageMediaWidth(page);
+		return w > 0 ? w : DEFAULT_PAGE_WIDTH;
+	}
+
+	private double getMediaHeight(int page) {
+		double h = m_source.getPageMediaHeight(page);
+		return h > 0 ? h : DEFAULT_PAGE_HEIGHT;
+	}
+
+	/**
+	 * Get width of the page in pixels.
+	 */
+	public int getPageWidth(int page, float zoom) {
+		return (int)(getMediaWidth(page)*m_xdpi*zoom/72.0F);
+	}
+
+	/**
+	 * Get height of the page in pixels.
+	 */
+	public int getPageHeight(int page, float zoom) {
+		return (int)(getMediaHeight(page)*m_ydpi*zoom/72.0F);
+	}
+
+	/**
+	 * Get the size of a bitmap of the whole page.
+	 */
+	public long getPageBytes(int page, float zoom, int bytesPerPixel) {
+		return (long)getPageWidth(page, zoom)*getPageHeight(page, zoom)*bytesPerPixel;
+	}
+
+	/**
+	 * Limit a horizontal offset so the view stays on a page of width w.
+	 */
+	public int clampX(int x, int w) {
+		return Math.max(Math.min(x, w - m_view_width), 0);
+	}
+
+	/**
+	 * Limit a vertical offset so the view stays on a page of height h.
+	 */
+	public int clampY(int y, int h) {
+		return Math.max(Math.min(y, h - m_view_height), 0);
+	}
+
+	/**
+	 * Get the tiles of a w x h page which the view shows at offset x, y.
+	 * @param margin number of tiles to add around them.
+	 * @param range receives the left, top, right and bottom tile, inclusive.
+	 */
+	public void getTileRange(int x, int y, int w, int h, int margin, int[] range) {
+		int size = TileCache.TILE_SIZE;
+		range[0] = Math.max(x/size - margin, 0);
+		range[1] = Math.max(y/size - margin, 0);
+		range[2] = Math.min((x + m_view_width - 1)/size + margin, (w - 1)/size);
+		range[3] = Math.min((y + m_view_height - 1)/size + margin, (h - 1)/size);
+	}
+
+	/**
+	 * @param gap space between pages in the strip, in pixels.
+	 */
+	public void setPageGap(int gap) {
+		m_page_gap = gap;
+		m_strip_tops = null;
+	}
+
+	public int getPageGap() {
+		return m_page_gap;
+	}
+
+	/**
+	 * Lay out all pages top down. Done once per change of the geometry,
+	 * scrolling only looks the result up.
+	 *
+	 * Pages whose size is not loaded yet take the size of the page above
+	 * them, so a huge document does not read its whole page tree here.
+	 * The strip is laid out again once more pages are loaded, that only
+	 * moves the pages below the loaded ones.
+	 */
+	private int[] getStripTops() {
+		// the page count changes once if the /Count of the file was wrong.
+		int n = m_source == null ? 0 : m_source.getNumPages();
+		if (m_strip_tops != null && m_strip_tops.length == n + 1
+				&& (m_strip_loaded < 0 || m_strip_loaded == m_source.getLoadedPages()))
+			return m_strip_tops;
+
+		// the first page is loaded anyway, it is the estimate to start with.
+		double mw = n > 0 ? getMediaWidth(1) : DEFAULT_PAGE_WIDTH;
+		double mh = n > 0 ? getMediaHeight(1) : DEFAULT_PAGE_HEIGHT;
+		int loaded = n > 0 ? m_source.getLoadedPages() : 0;
+
+		int[] tops = new int[n + 1];
+		int top = 0;
+		int width = 0;
+		boolean estimated = false;
+		for (int page = 1; page <= n; page++) {
+			if (m_source.isPageLoaded(page)) {
+				mw = getMediaWidth(page);
+				mh = getMediaHeight(page);
+			} else {
+				estimated = true;
+			}
+			float zoom = m_zoom_factor <= +0.0F ?
+				(float)(m_view_width*72.0F/mw/m_xdpi) : m_zoom_factor;
+			tops[page - 1] = top;
+			top += (int)(mh*m_ydpi*zoom/72.0F) + m_page_gap;
+			width = Math.max(width, (int)(mw*m_xdpi*zoom/72.0F));
+		}
+		tops[n] = n > 0 ? top - m_page_gap : 0;
+
+		m_strip_tops = tops;
+		m_strip_width = width;
+		m_strip_loaded = estimated ? loaded : -1;
+		return tops;
+	}
+
+	/**
+	 * Get the offset of a page in the strip.
+	 */
+	public int getPageTop(int page) {
+		return getStripTops()[page - 1];
+	}
+
+	/**
+	 * @return height of all pages in the strip, with the gaps.
+	 */
+	public int getStripHeight() {
+		int[] tops = getStripTops();
+		return tops[tops.length - 1];
+	}
+
+	/**
+	 * @return width of the widest page in the strip.
+	 */
+	public int getStripWidth() {
+		getStripTops();
+		return m_strip_width;
+	}
+
+	/**
+	 * Find the page at an offset of the strip, a gap belongs to the page
+	 * above it.
+	 * @return the page, 0 if there is none.
+	 */
+	public int getPageAt(int y) {
+		int[] tops = getStripTops();
+		int n = tops.length - 1;
+		if (n == 0)
+			return 0;
+
+		// last page starting at or above y.
+		int low = 1;
+		int high = n;
+		while (low < high) {
+			int mid = (low + high + 1)/2;
+			if (tops[mid - 1] <= y)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+}
@@ -19,11 +19,19 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 
+import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.Gallery;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.TextView;
+import android.widget.AdapterView.OnItemClickListener;
+import android.widget.AdapterView.OnItemSelectedListener;
 import android.widget.SeekBar.OnSeekBarChangeListener;
 
 /**
@@ -34,6 +42,13 @@ public class PagePickerDialog extends AlertDialog {
 	
 	private TextView m_message_view;
 	private SeekBar m_seek_view;
+	private Gallery m_thumbnail_view;
+	private ThumbnailAdapter m_adapter = new ThumbnailAdapter();
+	
+	/**
+	 * thumbnails of the pages, null to show none.
+	 */
+	private Thumbnailer m_thumbnailer = null;
 	
 	 /**
      * The callback interface.
@@ -75,6 +90,8 @@ public class PagePickerDialog extends AlertDialog {
 			public void onProgressChanged(SeekBar seekBar, int progress,
 					boolean fromUser) {
 				updateMessage();				
+				if (m_thumbnailer != null && progress >= 1)
+					m_thumbnail_view.setSelection(progress - 1);
 			}
 
 			public void onStartTrackingTouch(SeekBar seekBar) {
@@ -85,6 +102,33 @@ public class PagePickerDialog extends AlertDialog {
 			
 		});
 		
+		m_thumbnail_view = (Gallery)view.findViewById(R.id.page_picker_thumbnails);
+		m_thumbnail_view.setAdapter(m_adapter);
+		m_thumbnail_view.setVisibility(View.GONE);
+		m_thumbnail_view.setOnItemSelectedListener(new OnItemSelectedListener() {
+			public void onItemSelected(AdapterView<?> parent, View v, int pos, long id) {
+				m_seek_view.setProgress(pos + 1);
+			}
+
+			public void onNothingSelected(AdapterView<?> parent) {
+			}
+		});
+		m_thumbnail_view.setOnItemClickListener(new OnItemClickListener() {
+			public void onItemClick(AdapterView<?> parent, View v, int pos, long id) {
+				if (m_listener != null)
+					m_listener.onPageSet(PagePickerDialog.this, pos + 1);
+				dismiss();
+			}
+		});
+		
+		// thumbnails are loaded only while the dialog is shown.
+		setOnDismissListener(new OnDismissListener() {
+			public void onDismiss(DialogInterface dialog) {
+				if (m_thumbnailer != null)
+					m_thumbnailer.cancel();
+			}
+		});
+		
 		ImageButton btn = (ImageButton)view.findViewById(R.id.page_picker_minus);
 		btn.setOnClickListener(new View.OnClickListener() {
 			public void onClick(View v) {
@@ -116,6 +160,29 @@ public class PagePickerDialog extends AlertDialog {
 		}
 		
 		m_seek_view.setMax(max);
+		m_adapter.notifyDataSetChanged();
+	}
+	
+	/**
+	 * Show the thumbnails of a document in a strip.
+	 * @param thumbnailer null to hide the strip.
+	 */
+	public void setThumbnailer(Thumbnailer thumbnailer) {
+		if (m_thumbnailer == thumbnailer)
+			return;
+		
+		if (m_thumbnailer != null)
+			m_thumbnailer.setListener(null);
+		m_thumbnailer = thumbnailer;
+		if (thumbnailer != null) {
+			thumbnailer.setListener(new Thumbnailer.Listener() {
+				public void onThumbnailReady(int page) {
+					m_adapter.notifyDataSetChanged();
+				}
+			});
+		}
+		m_thumbnail_view.setVisibility(thumbnailer != null ? View.VISIBLE : View.GONE);
+		m_adapter.notifyDataSetChanged();
 	}
 	
 	public void setCurrent(int cur) {
@@ -129,5 +196,36 @@ public class PagePickerDialog extends AlertDialog {
 		String msg = m_seek_view.getProgress() + "/" + m_seek_view.getMax();
 		m_message_view.setText(msg);
 	}
+	
+	/**
+	 * Thumbnails of all pages, the missing ones are blank until loaded.
+	 */
+	private class ThumbnailAdapter extends BaseAdapter {
+		public int getCount() {
+			return m_thumbnailer != null ? m_seek_view.getMax() : 0;
+		}
+
+		public Object getItem(int position) {
+			return position + 1;
+		}
+
+		public long getItemId(int position) {
+			return position + 1;
+		}
+
+		public View getView(int position, View convertView, ViewGroup parent) {
+			ImageView view = (ImageView)convertView;
+			if (view == null) {
+				int size = m_thumbnailer.getSize();
+				view = new ImageView(getContext());
+				view.setLayoutParams(new Gallery.LayoutParams(size, size));
+				view.setScaleType(ImageView.ScaleType.FIT_CENTER);
+			}
+			
+			Bitmap bitmap = m_thumbnailer.getThumbnail(position + 1);
+			view.setImageBitmap(bitmap);
+			return view;
+		}
+	}
 
 }
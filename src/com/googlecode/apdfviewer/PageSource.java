@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+/**
+ * The pages of a document as far as laying them out is concerned.
+ *
+ * PDFDocument answers from a table loaded in bulk, so asking for every
+ * frame is cheap. A fake can stand in for it to run the view logic on a
+ * plain JVM.
+ * @author Li Wenhao
+ */
+public interface PageSource {
+	public int getNumPages();
+
+	/**
+	 * @return width of the page in points.
+	 */
+	public double getPageMediaWidth(int page);
+
+	/**
+	 * @return height of the page in points.
+	 */
+	public double getPageMediaHeight(int page);
+
+	/**
+	 * @return true if the size of the page is known, asking for it may
+	 * read the file otherwise.
+	 */
+	public boolean isPageLoaded(int page);
+
+	/**
+	 * @return number of pages whose size is known, it grows as the pages
+	 * are looked at.
+	 */
+	public int getLoadedPages();
+}
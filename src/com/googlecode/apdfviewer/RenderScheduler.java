@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Run render requests on background threads, visible work first.
+ *
+ * All methods must be called on the UI thread, the results are delivered
+ * on the UI thread too. The UI thread and the worker threads can be
+ * given, so the scheduling can run without Android.
+ * @author Li Wenhao
+ */
+public class RenderScheduler {
+	final static String TAG = "RenderScheduler";
+
+	/**
+	 * work the user is waiting for.
+	 */
+	public final static int PRIORITY_VISIBLE = 0;
+
+	/**
+	 * work which may be needed soon.
+	 */
+	public final static int PRIORITY_PREFETCH = 1;
+
+	/**
+	 * Interface for listener the status of the scheduler.
+	 */
+	public interface Listener {
+		/**
+		 * Called when a request is submitted to an idle scheduler.
+		 */
+		public void onRenderingStart();
+
+		/**
+		 * Called when all requests are finished or cancelled.
+		 */
+		public void onRenderingEnd();
+	}
+
+	/**
+	 * Select requests to cancel.
+	 */
+	public interface Filter {
+		public boolean accept(Request r);
+	}
+
+	/**
+	 * A unit of render work.
+	 */
+	public static abstract class Request implements Comparable<Request> {
+		private final Object m_key;
+		private int m_priority;
+		private long m_sequence;
+		private final RenderToken m_token = new RenderToken();
+
+		/**
+		 * @param key identify the work, equal keys are not queued twice.
+		 * @param priority PRIORITY_VISIBLE or PRIORITY_PREFETCH.
+		 */
+		public Request(Object key, int priority) {
+			m_key = key;
+			m_priority = priority;
+		}
+
+		public Object getKey() {
+			return m_key;
+		}
+
+		public int getPriority() {
+			return m_priority;
+		}
+
+		/**
+		 * @return true if the request is cancelled.
+		 */
+		public boolean isCancelled() {
+			return m_token.isCancelled();
+		}
+
+		/**
+		 * @return the token to pass to native rendering, it is cancelled
+		 * with the request.
+		 */
+		public RenderToken getToken() {
+			return m_token;
+		}
+
+		/**
+		 * Do the work, called on a worker thread.
+		 */
+		protected abstract void render();
+
+		/**
+		 * Publish the result, called on the UI thread.
+		 */
+		protected abstract void deliver();
+
+		/**
+		 * Drop the result of a cancelled request, called on the UI thread.
+		 * The request may or may not have been rendered.
+		 */
+		protected void discard() {
+		}
+
+		public int compareTo(Request r) {
+			if (m_priority != r.m_priority)
+				return m_priority < r.m_priority ? -1 : 1;
+			if (m_sequence != r.m_sequence)
+				return m_sequence < r.m_sequence ? -1 : 1;
+			return 0;
+		}
+	}
+
+	private final PriorityBlockingQueue<Request> m_queue = new PriorityBlockingQueue<Request>();
+
+	/**
+	 * runs the results on the UI thread.
+	 */
+	private final Executor m_delivery;
+
+	/**
+	 * submitted requests not yet delivered, by key.
+	 */
+	private final HashMap<Object, Request> m_pending = new HashMap<Object, Request>();
+
+	/**
+	 * number of submitted requests not yet come back.
+	 */
+	private int m_busy = 0;
+
+	private long m_sequence = 0;
+
+	private volatile boolean m_quit = false;
+
+	private Thread[] m_workers;
+
+	private Listener m_listener;
+
+	/**
+	 * Deliver on the thread creating the scheduler, through a Handler, and
+	 * work on background priority threads.
+	 * @param workers number of worker threads.
+	 */
+	public RenderScheduler(int workers) {
+		this(workers, new Executor() {
+			private final Handler m_handler = new Handler();
+
+			public void execute(Runnable r) {
+				m_handler.post(r);
+			}
+		}, new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				return new Thread(new Runnable() {
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @param workers number of worker threads, 0 to only queue requests.
+	 * @param delivery runs the results on the UI thread.
+	 * @param threads creates the worker threads.
+	 */
+	public RenderScheduler(int workers, Executor delivery, ThreadFactory threads) {
+		m_delivery = delivery;
+		m_workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			m_workers[i] = threads.newThread(new Runnable() {
+				public void run() {
+					work();
+				}
+			});
+			m_workers[i].setName(TAG + "-" + i);
+			m_workers[i].setDaemon(true);
+			m_workers[i].start();
+		}
+	}
+
+	public void setListener(Listener l) {
+		m_listener = l;
+	}
+
+	/**
+	 * Queue a request unless one with an equal key is pending, in which
+	 * case the queued one is promoted to the priority of the new one.
+	 */
+	public void submit(Request r) {
+		if (m_quit)
+			return;
+
+		Request old = m_pending.get(r.getKey());
+		if (old != null) {
+			if (r.m_priority < old.m_priority && m_queue.remove(old)) {
+				old.m_priority = r.m_priority;
+				m_queue.add(old);
+			}
+			return;
+		}
+
+		m_pending.put(r.getKey(), r);
+		r.m_sequence = m_sequence++;
+
+		if (m_busy++ == 0 && m_listener != null)
+			m_listener.onRenderingStart();
+
+		m_queue.add(r);
+	}
+
+	/**
+	 * @return true if a request with the key is queued or running.
+	 */
+	public boolean isPending(Object key) {
+		return m_pending.containsKey(key);
+	}
+
+	/**
+	 * @return true from onRenderingStart() until onRenderingEnd().
+	 */
+	public boolean isBusy() {
+		return m_busy > 0;
+	}
+
+	/**
+	 * Cancel the pending requests accepted by the filter. Queued ones are
+	 * dropped, results of running ones are discarded.
+	 */
+	public void cancel(Filter filter) {
+		ArrayList<Request> cancelled = new ArrayList<Request>();
+		for (Request r : m_pending.values()) {
+			if (filter == null || filter.accept(r))
+				cancelled.add(r);
+		}
+
+		for (Request r : cancelled) {
+			r.m_token.cancel();
+			m_pending.remove(r.getKey());
+			if (m_queue.remove(r)) {
+				r.discard();
+				finished();
+			}
+		}
+	}
+
+	/**
+	 * Cancel all pending requests.
+	 */
+	public void cancelAll() {
+		cancel(null);
+	}
+
+	/**
+	 * Cancel everything and stop the workers.
+	 */
+	public void quit() {
+		m_quit = true;
+		cancelAll();
+		for (Thread t : m_workers) {
+			t.interrupt();
+		}
+	}
+
+	private void finished() {
+		if (--m_busy == 0 && m_listener != null)
+			m_listener.onRenderingEnd();
+	}
+
+	private void work() {
+		while (!m_quit) {
+			final Request r;
+			try {
+				r = m_queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+
+			if (!r.isCancelled()) {
+				try {
+					r.render();
+				} catch (Throwable e) {
+					Log.e(TAG, "Render failed.", e);
+				}
+			}
+
+			m_delivery.execute(new Runnable() {
+				public void run() {
+					if (!r.isCancelled()) {
+						m_pending.remove(r.getKey());
+						r.deliver();
+					} else {
+						r.discard();
+					}
+					finished();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+/**
+ * Statistics of native renders, times are in milliseconds.
+ *
+ * The operator times are only measured while profiling is on, see
+ * PDFDocument.setProfiling(). They include the drawing done by the
+ * operators, "Do" includes the forms it draws.
+ * @author Li Wenhao
+ */
+public class RenderStats {
+	/*
+	 * indexes of the native stats array, see jni/RenderProfile.h.
+	 */
+	final static int TOTAL_TIME = 0;
+	final static int PATH_TIME = 1;
+	final static int TEXT_TIME = 2;
+	final static int IMAGE_TIME = 3;
+	final static int STATE_TIME = 4;
+	final static int OTHER_TIME = 5;
+	final static int OPERATORS = 6;
+	final static int IMAGE_DECODE_TIME = 7;
+	final static int FONT_LOAD_TIME = 8;
+	final static int BYTES_FETCHED = 9;
+	final static int GLYPHS = 10;
+	final static int DRAW_CALLS = 11;
+	final static int CACHE_HITS = 12;
+	final static int CACHE_MISSES = 13;
+	final static int SIZE = 14;
+
+	private final double[] m_stats = new double[SIZE];
+	
+	private int m_renders = 0;
+
+	public RenderStats() {
+	}
+
+	/**
+	 * @param stats stats of one native render.
+	 */
+	RenderStats(double[] stats) {
+		System.arraycopy(stats, 0, m_stats, 0, SIZE);
+		m_renders = 1;
+	}
+
+	/**
+	 * Add the stats of other renders.
+	 */
+	public void add(RenderStats s) {
+		for (int i = 0; i < SIZE; i++)
+			m_stats[i] += s.m_stats[i];
+		m_renders += s.m_renders;
+	}
+
+	public void reset() {
+		for (int i = 0; i < SIZE; i++)
+			m_stats[i] = 0;
+		m_renders = 0;
+	}
+
+	/**
+	 * @return number of renders added up.
+	 */
+	public int getRenders() {
+		return m_renders;
+	}
+
+	public double getTotalTime() {
+		return m_stats[TOTAL_TIME];
+	}
+
+	public double getPathTime() {
+		return m_stats[PATH_TIME];
+	}
+
+	public double getTextTime() {
+		return m_stats[TEXT_TIME];
+	}
+
+	public double getImageTime() {
+		return m_stats[IMAGE_TIME];
+	}
+
+	public double getStateTime() {
+		return m_stats[STATE_TIME];
+	}
+
+	public double getOtherTime() {
+		return m_stats[OTHER_TIME];
+	}
+
+	/**
+	 * @return number of operators run, 0 if not profiling.
+	 */
+	public int getOperators() {
+		return (int)m_stats[OPERATORS];
+	}
+
+	public double getImageDecodeTime() {
+		return m_stats[IMAGE_DECODE_TIME];
+	}
+
+	public double getFontLoadTime() {
+		return m_stats[FONT_LOAD_TIME];
+	}
+
+	/**
+	 * @return bytes of stream data fetched from the file, 0 if the file is
+	 * not memory mapped.
+	 */
+	public long getBytesFetched() {
+		return (long)m_stats[BYTES_FETCHED];
+	}
+
+	public int getGlyphs() {
+		return (int)m_stats[GLYPHS];
+	}
+
+	public int getDrawCalls() {
+		return (int)m_stats[DRAW_CALLS];
+	}
+
+	/**
+	 * @return hits of the native image cache. The cache is shared by the
+	 * renders running at the same time, so they may count each other's.
+	 */
+	public int getCacheHits() {
+		return (int)m_stats[CACHE_HITS];
+	}
+
+	public int getCacheMisses() {
+		return (int)m_stats[CACHE_MISSES];
+	}
+
+	/**
+	 * @return hits out of all lookups, 0 if none.
+	 */
+	public double getCacheHitRate() {
+		double lookups = m_stats[CACHE_HITS] + m_stats[CACHE_MISSES];
+		return lookups > 0 ? m_stats[CACHE_HITS] / lookups : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d renders %.1fms (path %.1f, text %.1f, image %.1f, "
+				+ "state %.1f, other %.1f in %d ops), decode %.1fms, fonts %.1fms, "
+				+ "%d bytes, %d glyphs, %d draws, cache %d/%d",
+				m_renders, getTotalTime(), getPathTime(), getTextTime(),
+				getImageTime(), getStateTime(), getOtherTime(), getOperators(),
+				getImageDecodeTime(), getFontLoadTime(), getBytesFetched(),
+				getGlyphs(), getDrawCalls(), getCacheHits(),
+				getCacheHits() + getCacheMisses());
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache bounded by the total size of its values rather than by
+ * the number of entries.
+ * @author Li Wenhao
+ */
+public abstract class SizedLruCache<K, V> {
+	/**
+	 * entries in access order, eldest first.
+	 */
+	private final LinkedHashMap<K, V> m_map = new LinkedHashMap<K, V>(16, 0.75F, true);
+
+	/**
+	 * sum of sizeOf() of all entries.
+	 */
+	private int m_size = 0;
+
+	/**
+	 * size budget.
+	 */
+	private int m_max_size;
+
+	/**
+	 * @param maxSize the size budget, in the unit of sizeOf().
+	 */
+	public SizedLruCache(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException();
+		}
+		m_max_size = maxSize;
+	}
+
+	/**
+	 * Get the size of a value.
+	 */
+	protected abstract int sizeOf(K key, V value);
+
+	/**
+	 * Called when a value is evicted or removed.
+	 */
+	protected void entryRemoved(K key, V value) {
+	}
+
+	/**
+	 * Get a value and mark it as the most recently used.
+	 * @return the value or null if not cached.
+	 */
+	public synchronized V get(K key) {
+		return m_map.get(key);
+	}
+
+	/**
+	 * @return true if the key is cached, the access order is not changed.
+	 */
+	public synchronized boolean contains(K key) {
+		return m_map.containsKey(key);
+	}
+
+	/**
+	 * Put a value, evicting the eldest entries if over budget.
+	 */
+	public void put(K key, V value) {
+		V old;
+		synchronized (this) {
+			old = m_map.put(key, value);
+			m_size += sizeOf(key, value);
+			if (old != null) {
+				m_size -= sizeOf(key, old);
+			}
+		}
+
+		if (old != null && old != value) {
+			entryRemoved(key, old);
+		}
+
+		trimToSize(m_max_size);
+	}
+
+	/**
+	 * Remove a value.
+	 */
+	public void remove(K key) {
+		V old;
+		synchronized (this) {
+			old = m_map.remove(key);
+			if (old != null) {
+				m_size -= sizeOf(key, old);
+			}
+		}
+
+		if (old != null) {
+			entryRemoved(key, old);
+		}
+	}
+
+	/**
+	 * Evict eldest entries until the total size is not more than maxSize.
+	 */
+	public void trimToSize(int maxSize) {
+		while (true) {
+			K key;
+			V value;
+			synchronized (this) {
+				if (m_size <= maxSize || m_map.isEmpty())
+					return;
+
+				Iterator<Map.Entry<K, V>> it = m_map.entrySet().iterator();
+				Map.Entry<K, V> eldest = it.next();
+				key = eldest.getKey();
+				value = eldest.getValue();
+				it.remove();
+				m_size -= sizeOf(key, value);
+			}
+			entryRemoved(key, value);
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void evictAll() {
+		trimToSize(-1);
+	}
+
+	/**
+	 * @return a copy of the keys, eldest first.
+	 */
+	public synchronized ArrayList<K> keys() {
+		return new ArrayList<K>(m_map.keySet());
+	}
+
+	/**
+	 * @return total size of cached values.
+	 */
+	public synchronized int size() {
+		return m_size;
+	}
+
+	/**
+	 * @return the size budget.
+	 */
+	public synchronized int maxSize() {
+		return m_max_size;
+	}
+
+	/**
+	 * @return number of cached entries.
+	 */
+	public synchronized int count() {
+		return m_map.size();
+	}
+}
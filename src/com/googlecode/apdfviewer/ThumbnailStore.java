@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Page thumbnails kept on disk as JPEG files, one per page, named by the
+ * fingerprint of the document and the page number. A changed file has
+ * another fingerprint, so stale thumbnails are never found and age out.
+ *
+ * The store is bounded by a byte budget, the least recently used files
+ * are deleted beyond it. Methods may be called from any thread.
+ * @author Li Wenhao
+ */
+public class ThumbnailStore {
+	final static String TAG = "ThumbnailStore";
+
+	/**
+	 * JPEG quality, thumbnails are small and mostly text.
+	 */
+	private final static int QUALITY = 75;
+
+	private final File m_dir;
+
+	/**
+	 * budget of the files in bytes.
+	 */
+	private final long m_max_size;
+
+	/**
+	 * bytes of the files, -1 until counted.
+	 */
+	private long m_size = -1;
+
+	/**
+	 * @param dir directory of the thumbnails, created if missing.
+	 * @param maxBytes budget of the files.
+	 */
+	public ThumbnailStore(File dir, long maxBytes) {
+		m_dir = dir;
+		m_max_size = maxBytes;
+	}
+
+	private File getFile(String fingerprint, int page) {
+		return new File(m_dir, fingerprint + "-" + page + ".jpg");
+	}
+
+	/**
+	 * Read a thumbnail, and mark it as recently used.
+	 * @return the bitmap, or null if it is not stored.
+	 */
+	public Bitmap get(String fingerprint, int page) {
+		if (fingerprint == null)
+			return null;
+
+		File file = getFile(fingerprint, page);
+		if (!file.exists())
+			return null;
+
+		Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+		if (bitmap == null) {
+			// truncated by a crash or a full disk.
+			remove(file);
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return bitmap;
+	}
+
+	/**
+	 * Write a thumbnail, replacing the stored one if any.
+	 */
+	public void put(String fingerprint, int page, Bitmap bitmap) {
+		if (fingerprint == null)
+			return;
+
+		if (!m_dir.isDirectory() && !m_dir.mkdirs()) {
+			Log.e(TAG, "Can not create " + m_dir);
+			return;
+		}
+
+		// readers see the old file or the complete new one.
+		File file = getFile(fingerprint, page);
+		File tmp = new File(m_dir, file.getName() + ".tmp");
+		boolean ok = false;
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			ok = bitmap.compress(Bitmap.CompressFormat.JPEG, QUALITY, out);
+		} catch (IOException e) {
+			Log.e(TAG, "Write " + tmp + " failed.", e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					ok = false;
+				}
+			}
+		}
+
+		synchronized (this) {
+			long replaced = file.length();
+			if (!ok || !tmp.renameTo(file)) {
+				tmp.delete();
+				return;
+			}
+			if (m_size >= 0)
+				m_size += file.length() - replaced;
+
+			// the directory is listed once, then only when over budget.
+			if (m_size < 0 || m_size > m_max_size)
+				trimToSize(m_max_size);
+		}
+	}
+
+	private synchronized void remove(File file) {
+		long length = file.length();
+		if (file.delete() && m_size >= 0)
+			m_size -= length;
+	}
+
+	/**
+	 * Delete the least recently used thumbnails until the files take no
+	 * more than maxSize bytes.
+	 */
+	public synchronized void trimToSize(long maxSize) {
+		File[] files = m_dir.listFiles();
+		if (files == null)
+			return;
+
+		m_size = LruFiles.trimToSize(files, maxSize);
+	}
+
+	/**
+	 * @return bytes of the stored thumbnails.
+	 */
+	public synchronized long size() {
+		if (m_size < 0)
+			trimToSize(Long.MAX_VALUE);
+		return Math.max(m_size, 0);
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+/**
+ * Page thumbnails of a document. They are read from the store, or
+ * rendered at a small DPI on a background thread of their own and
+ * written to the store, so a document opened again has them at once.
+ * Recent ones are kept in memory.
+ *
+ * The pages of the view come first: the owner pauses the thumbnailer
+ * while it renders them, pages asked for meanwhile are loaded after.
+ *
+ * All methods must be called on the UI thread.
+ * @author Li Wenhao
+ */
+public class Thumbnailer {
+	/**
+	 * Interface for listener of rendered thumbnails.
+	 */
+	public interface Listener {
+		public void onThumbnailReady(int page);
+	}
+
+	private final PDFDocument m_doc;
+	private final ThumbnailStore m_store;
+
+	/**
+	 * longest side of a thumbnail in pixels.
+	 */
+	private final int m_size;
+
+	private final RenderScheduler m_scheduler;
+
+	private final SizedLruCache<Integer, Bitmap> m_cache;
+
+	private Listener m_listener;
+
+	/**
+	 * pages without a thumbnail, blank or failed to render, not asked
+	 * for again until the memory is dropped.
+	 */
+	private final HashSet<Integer> m_failed = new HashSet<Integer>();
+
+	/**
+	 * pages asked for while paused, in order.
+	 */
+	private final LinkedHashSet<Integer> m_waiting = new LinkedHashSet<Integer>();
+
+	private boolean m_paused = false;
+
+	/**
+	 * @param doc the document, thumbnails are rendered on its contexts.
+	 * @param store persistent thumbnails.
+	 * @param size longest side of a thumbnail in pixels.
+	 * @param maxBytes memory for recent thumbnails.
+	 */
+	public Thumbnailer(PDFDocument doc, ThumbnailStore store, int size, int maxBytes) {
+		m_doc = doc;
+		m_store = store;
+		m_size = size;
+		m_cache = new SizedLruCache<Integer, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(Integer key, Bitmap value) {
+				return value.getRowBytes()*value.getHeight();
+			}
+		};
+
+		m_scheduler = new RenderScheduler(1);
+	}
+
+	public void setListener(Listener l) {
+		m_listener = l;
+	}
+
+	/**
+	 * @return longest side of a thumbnail in pixels.
+	 */
+	public int getSize() {
+		return m_size;
+	}
+
+	/**
+	 * Get the thumbnail of a page, or start loading it.
+	 * @return the thumbnail, or null if it is not loaded yet, the listener
+	 * is called when it is.
+	 */
+	public Bitmap getThumbnail(int page) {
+		Bitmap bitmap = m_cache.get(page);
+		if (bitmap == null)
+			load(page);
+		return bitmap;
+	}
+
+	private void load(int page) {
+		if (m_failed.contains(page) || m_scheduler.isPending(page))
+			return;
+
+		if (m_paused)
+			m_waiting.add(page);
+		else
+			m_scheduler.submit(new ThumbnailRequest(page));
+	}
+
+	/**
+	 * Hold back new thumbnails, or load the ones asked for meanwhile. The
+	 * one being rendered is finished.
+	 */
+	public void setPaused(boolean paused) {
+		if (m_paused == paused)
+			return;
+
+		m_paused = paused;
+		if (paused)
+			return;
+
+		Integer[] pages = m_waiting.toArray(new Integer[m_waiting.size()]);
+		m_waiting.clear();
+		for (Integer page : pages) {
+			if (m_cache.get(page) == null)
+				load(page);
+		}
+	}
+
+	/**
+	 * Stop loading thumbnails no one waits for.
+	 */
+	public void cancel() {
+		m_waiting.clear();
+		m_scheduler.cancelAll();
+	}
+
+	/**
+	 * Drop the thumbnails kept in memory, the stored ones stay. Failed
+	 * pages are tried again.
+	 */
+	public void evictAll() {
+		m_cache.evictAll();
+		m_failed.clear();
+	}
+
+	/**
+	 * Stop loading and drop everything in memory.
+	 */
+	public void close() {
+		m_waiting.clear();
+		m_scheduler.quit();
+		m_cache.evictAll();
+		m_failed.clear();
+	}
+
+	/**
+	 * Load or render the thumbnail of a page.
+	 */
+	private class ThumbnailRequest extends RenderScheduler.Request {
+		private final int m_page;
+		private Bitmap m_bitmap = null;
+
+		ThumbnailRequest(int page) {
+			super(page, RenderScheduler.PRIORITY_VISIBLE);
+			m_page = page;
+		}
+
+		@Override
+		protected void render() {
+			m_bitmap = m_store.get(m_doc.getFingerprint(), m_page);
+			if (m_bitmap != null)
+				return;
+
+			// fit the page in a square of m_size pixels.
+			double w = m_doc.getPageMediaWidth(m_page);
+			double h = m_doc.getPageMediaHeight(m_page);
+			if (w <= 0 || h <= 0)
+				return;
+			double dpi = 72*m_size/Math.max(w, h);
+			Bitmap bitmap = Bitmap.createBitmap(Math.max((int)(w*dpi/72), 1),
+					Math.max((int)(h*dpi/72), 1), Bitmap.Config.RGB_565);
+
+			bitmap.eraseColor(Color.WHITE);
+			Canvas canvas = new Canvas(bitmap);
+			PDFDocument ctx = m_doc.acquireRenderContext();
+			boolean done;
+			try {
+				synchronized (ctx) {
+					ctx.setXdpi(dpi);
+					ctx.setYdpi(dpi);
+					done = ctx.drawPage(canvas, m_page, getToken());
+				}
+			} finally {
+				m_doc.releaseRenderContext(ctx);
+			}
+			// cancelled, or no page to draw: nothing worth storing.
+			if (!done)
+				return;
+
+			m_store.put(m_doc.getFingerprint(), m_page, bitmap);
+			m_bitmap = bitmap;
+		}
+
+		@Override
+		protected void deliver() {
+			if (m_bitmap == null) {
+				m_failed.add(m_page);
+				return;
+			}
+
+			m_cache.put(m_page, m_bitmap);
+			if (m_listener != null)
+				m_listener.onThumbnailReady(m_page);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2009 Li Wenhao <liwenhao.g@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+package com.googlecode.apdfviewer;
+
+import android.graphics.Bitmap;
+
+/**
+ * Byte-budgeted LRU cache of rendered page tiles.
+ * @author Li Wenhao
+ */
+public class TileCache extends SizedLruCache<TileCache.Key, Bitmap> {
+	/**
+	 * width and height of a tile in pixels.
+	 */
+	public final static int TILE_SIZE = 256;
+
+	/**
+	 * Identify a tile by page, zoom level and tile position.
+	 */
+	public static final class Key {
+		public final int page;
+		public final float zoom;
+		public final int x;
+		public final int y;
+
+		public Key(int page, float zoom, int x, int y) {
+			this.page = page;
+			this.zoom = zoom;
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+
+			Key k = (Key)o;
+			return page == k.page && x == k.x && y == k.y
+				&& Float.compare(zoom, k.zoom) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = page;
+			h = h*31 + Float.floatToIntBits(zoom);
+			h = h*31 + x;
+			h = h*31 + y;
+			return h;
+		}
+	}
+
+	/**
+	 * bitmaps removed from the cache go there, null to recycle them.
+	 */
+	private final BitmapPool m_pool;
+
+	/**
+	 * @param maxBytes the memory budget in bytes.
+	 */
+	public TileCache(int maxBytes) {
+		this(maxBytes, null);
+	}
+
+	/**
+	 * @param maxBytes the memory budget in bytes.
+	 * @param pool takes the bitmaps removed from the cache, may be null.
+	 */
+	public TileCache(int maxBytes, BitmapPool pool) {
+		super(maxBytes);
+		m_pool = pool;
+	}
+
+	@Override
+	protected int sizeOf(Key key, Bitmap value) {
+		return value.getRowBytes()*value.getHeight();
+	}
+
+	@Override
+	protected void entryRemoved(Key key, Bitmap value) {
+		if (m_pool != null)
+			m_pool.put(value);
+		else
+			value.recycle();
+	}
+}